@@ -5,6 +5,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 可补偿事务方法注解
@@ -76,9 +77,14 @@ public @interface Compensable {
      */
     class DefaultTransactionContextEditor implements TransactionContextEditor {
 
+        /**
+         * 方法为键的事务上下文参数位置缓存,避免每次调用遍历参数类型
+         */
+        private static final ConcurrentHashMap<Method, Integer> PARAM_POSITIONS = new ConcurrentHashMap<Method, Integer>();
+
         @Override
         public TransactionContext get(Object target, Method method, Object[] args) {
-            int position = getTransactionContextParamPosition(method.getParameterTypes());
+            int position = getTransactionContextParamPosition(method);
 
             if (position >= 0) {
                 return (TransactionContext) args[position];
@@ -88,13 +94,28 @@ public @interface Compensable {
 
         @Override
         public void set(TransactionContext transactionContext, Object target, Method method, Object[] args) {
-            int position = getTransactionContextParamPosition(method.getParameterTypes());
+            int position = getTransactionContextParamPosition(method);
 
             if (position >= 0) {
                 args[position] = transactionContext;
             }
         }
 
+        /**
+         * 获取方法的事务上下文参数位置,每个方法只计算一次
+         *
+         * @param method
+         * @return
+         */
+        public static int getTransactionContextParamPosition(Method method) {
+            Integer position = PARAM_POSITIONS.get(method);
+            if (position == null) {
+                position = getTransactionContextParamPosition(method.getParameterTypes());
+                PARAM_POSITIONS.putIfAbsent(method, position);
+            }
+            return position;
+        }
+
         /**
          * 根据参数类型数组获取事务上下文类型位置
          *
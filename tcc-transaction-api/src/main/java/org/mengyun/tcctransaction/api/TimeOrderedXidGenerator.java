@@ -0,0 +1,99 @@
+package org.mengyun.tcctransaction.api;
+
+import java.lang.management.ManagementFactory;
+import java.security.SecureRandom;
+import java.util.logging.Logger;
+
+/**
+ * 时间有序的事务编号生成器,编号格式为[48位毫秒时间戳][16位节点标识][64位线程局部随机数]共16字节,
+ * 同一毫秒内不同线程、不同节点生成的编号通过随机数区分,编号按时间递增,新增事务日志时主键写入位置集中,
+ * 随机数使用线程局部的xorshift64*状态生成,只在线程首次生成时从SecureRandom获取种子,避免多线程竞争同一个SecureRandom,
+ * 节点标识默认取进程名(pid@host)哈希,可通过系统属性tcc.xid.node指定,属性值不是整数时忽略并使用默认节点标识
+ */
+public class TimeOrderedXidGenerator implements TransactionXidGenerator {
+
+    /**
+     * api模块不依赖log4j,使用JDK日志
+     */
+    static final Logger logger = Logger.getLogger(TimeOrderedXidGenerator.class.getSimpleName());
+
+    /**
+     * 节点标识系统属性
+     */
+    public static final String NODE_PROPERTY = "tcc.xid.node";
+
+    private static final SecureRandom SEED_RANDOM = new SecureRandom();
+
+    private static final ThreadLocal<long[]> RANDOM_STATE = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            long seed;
+            synchronized (SEED_RANDOM) {
+                seed = SEED_RANDOM.nextLong();
+            }
+            seed ^= Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+            return new long[]{seed == 0 ? 0x9E3779B97F4A7C15L : seed};
+        }
+    };
+
+    private final int node;
+
+    public TimeOrderedXidGenerator() {
+        this(defaultNode());
+    }
+
+    public TimeOrderedXidGenerator(int node) {
+        this.node = node & 0xFFFF;
+    }
+
+    @Override
+    public byte[] generate() {
+        byte[] bytes = new byte[16];
+
+        long timestamp = System.currentTimeMillis();
+        for (int i = 5; i >= 0; i--) {
+            bytes[i] = (byte) timestamp;
+            timestamp >>>= 8;
+        }
+
+        bytes[6] = (byte) (node >>> 8);
+        bytes[7] = (byte) node;
+
+        long random = nextRandom();
+        for (int i = 15; i >= 8; i--) {
+            bytes[i] = (byte) random;
+            random >>>= 8;
+        }
+
+        return bytes;
+    }
+
+    public int getNode() {
+        return node;
+    }
+
+    private static long nextRandom() {
+        long[] state = RANDOM_STATE.get();
+        long x = state[0];
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        state[0] = x;
+        return x * 0x2545F4914F6CDD1DL;
+    }
+
+    private static int defaultNode() {
+        String node = System.getProperty(NODE_PROPERTY);
+        if (node != null && node.trim().length() > 0) {
+            try {
+                return Integer.parseInt(node.trim());
+            } catch (NumberFormatException e) {
+                logger.warning(String.format("illegal %s value:%s, use the node derived from runtime name instead.", NODE_PROPERTY, node));
+            }
+        }
+
+        String runtimeName = ManagementFactory.getRuntimeMXBean().getName();
+        int hash = runtimeName.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+}
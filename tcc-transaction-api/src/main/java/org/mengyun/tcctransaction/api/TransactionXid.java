@@ -3,17 +3,25 @@ package org.mengyun.tcctransaction.api;
 
 import javax.transaction.xa.Xid;
 import java.io.Serializable;
-import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.UUID;
 
 /**
- * 事务编号
+ * 事务编号,创建后不应再修改,哈希值、规范Key以及toString结果首次计算后缓存,获取全局事务编号与分支事务编号时返回副本,避免调用方修改后缓存失效,
+ * 规范Key为全局事务编号与分支事务编号的小写十六进制,格式为{全局事务编号}:{分支事务编号},可通过fromKey还原;
+ * toString为升级前存储器使用的基于MD5的UUID格式,不可还原,仅用于兼容读取旧Key
  */
 public class TransactionXid implements Xid, Serializable {
 
     private static final long serialVersionUID = -6817267250789142043L;
 
+    /**
+     * 事务编号生成器,默认为时间有序的事务编号生成器
+     */
+    private static volatile TransactionXidGenerator generator = new TimeOrderedXidGenerator();
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /**
      * Xid格式标识符
      */
@@ -29,22 +37,49 @@ public class TransactionXid implements Xid, Serializable {
      */
     private byte[] branchQualifier;
 
+    /**
+     * 缓存的哈希值,0表示未计算
+     */
+    private transient int hash;
+
+    /**
+     * 缓存的规范Key
+     */
+    private transient String key;
+
+    /**
+     * 缓存的toString结果
+     */
+    private transient String legacyKey;
+
     public TransactionXid() {
-        globalTransactionId = uuidToByteArray(UUID.randomUUID());
-        branchQualifier = uuidToByteArray(UUID.randomUUID());
+        globalTransactionId = generator.generate();
+        branchQualifier = generator.generate();
     }
 
+    /**
+     * 仅供反序列化使用
+     *
+     * @param globalTransactionId
+     */
     public void setGlobalTransactionId(byte[] globalTransactionId) {
         this.globalTransactionId = globalTransactionId;
+        resetCache();
     }
 
+    /**
+     * 仅供反序列化使用
+     *
+     * @param branchQualifier
+     */
     public void setBranchQualifier(byte[] branchQualifier) {
         this.branchQualifier = branchQualifier;
+        resetCache();
     }
 
     public TransactionXid(byte[] globalTransactionId) {
         this.globalTransactionId = globalTransactionId;
-        branchQualifier = uuidToByteArray(UUID.randomUUID());
+        branchQualifier = generator.generate();
     }
 
     public TransactionXid(byte[] globalTransactionId, byte[] branchQualifier) {
@@ -52,6 +87,22 @@ public class TransactionXid implements Xid, Serializable {
         this.branchQualifier = branchQualifier;
     }
 
+    /**
+     * 设置事务编号生成器,需在生成事务编号前设置
+     *
+     * @param transactionXidGenerator
+     */
+    public static void setGenerator(TransactionXidGenerator transactionXidGenerator) {
+        if (transactionXidGenerator == null) {
+            throw new IllegalArgumentException("transaction xid generator can not be null");
+        }
+        generator = transactionXidGenerator;
+    }
+
+    public static TransactionXidGenerator getGenerator() {
+        return generator;
+    }
+
     @Override
     public int getFormatId() {
         return formatId;
@@ -59,48 +110,95 @@ public class TransactionXid implements Xid, Serializable {
 
     @Override
     public byte[] getGlobalTransactionId() {
-        return globalTransactionId;
+        return copyOf(globalTransactionId);
     }
 
     @Override
     public byte[] getBranchQualifier() {
-        return branchQualifier;
+        return copyOf(branchQualifier);
     }
 
-    @Override
-    public String toString() {
-
-        StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append(UUID.nameUUIDFromBytes(globalTransactionId).toString());
-        stringBuilder.append(":").append(UUID.nameUUIDFromBytes(branchQualifier).toString());
-
-        return stringBuilder.toString();
+    /**
+     * 获取规范Key,即全局事务编号与分支事务编号的小写十六进制,存储器以此作为事务的Key、文件名或节点名
+     *
+     * @return
+     */
+    public String toKey() {
+        String result = key;
+        if (result == null) {
+            StringBuilder stringBuilder = new StringBuilder((globalTransactionId.length + branchQualifier.length) * 2 + 1);
+            appendHex(stringBuilder, globalTransactionId);
+            stringBuilder.append(':');
+            appendHex(stringBuilder, branchQualifier);
+            result = stringBuilder.toString();
+            key = result;
+        }
+        return result;
     }
 
-    public TransactionXid clone() {
-
-        byte[] cloneGlobalTransactionId = null;
-        byte[] cloneBranchQualifier = null;
+    /**
+     * 获取任意事务编号的规范Key
+     *
+     * @param xid
+     * @return
+     */
+    public static String keyOf(Xid xid) {
+        if (xid instanceof TransactionXid) {
+            return ((TransactionXid) xid).toKey();
+        }
+        return new TransactionXid(xid.getGlobalTransactionId(), xid.getBranchQualifier()).toKey();
+    }
 
-        if (globalTransactionId != null) {
-            cloneGlobalTransactionId = new byte[globalTransactionId.length];
-            System.arraycopy(globalTransactionId, 0, cloneGlobalTransactionId, 0, globalTransactionId.length);
+    /**
+     * 根据规范Key还原事务编号
+     *
+     * @param key
+     * @return
+     */
+    public static TransactionXid fromKey(String key) {
+        int separator = key.indexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("illegal transaction xid key:" + key);
         }
+        return new TransactionXid(parseHex(key.substring(0, separator)), parseHex(key.substring(separator + 1)));
+    }
 
-        if (branchQualifier != null) {
-            cloneBranchQualifier = new byte[branchQualifier.length];
-            System.arraycopy(branchQualifier, 0, cloneBranchQualifier, 0, branchQualifier.length);
+    @Override
+    public String toString() {
+        String result = legacyKey;
+        if (result == null) {
+            StringBuilder stringBuilder = new StringBuilder();
+            stringBuilder.append(UUID.nameUUIDFromBytes(globalTransactionId).toString());
+            stringBuilder.append(":").append(UUID.nameUUIDFromBytes(branchQualifier).toString());
+            result = stringBuilder.toString();
+            legacyKey = result;
         }
+        return result;
+    }
 
-        return new TransactionXid(cloneGlobalTransactionId, cloneBranchQualifier);
+    /**
+     * 复制事务编号,副本沿用已计算的哈希值、规范Key以及toString结果
+     *
+     * @return
+     */
+    public TransactionXid clone() {
+        TransactionXid clone = new TransactionXid(copyOf(globalTransactionId), copyOf(branchQualifier));
+        clone.hash = hash;
+        clone.key = key;
+        clone.legacyKey = legacyKey;
+        return clone;
     }
 
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + this.getFormatId();
-        result = prime * result + Arrays.hashCode(branchQualifier);
-        result = prime * result + Arrays.hashCode(globalTransactionId);
+        int result = hash;
+        if (result == 0) {
+            final int prime = 31;
+            result = 1;
+            result = prime * result + this.getFormatId();
+            result = prime * result + Arrays.hashCode(branchQualifier);
+            result = prime * result + Arrays.hashCode(globalTransactionId);
+            hash = result;
+        }
         return result;
     }
 
@@ -113,7 +211,9 @@ public class TransactionXid implements Xid, Serializable {
             return false;
         }
         TransactionXid other = (TransactionXid) obj;
-        if (this.getFormatId() != other.getFormatId()) {
+        if (hashCode() != other.hashCode()) {
+            return false;
+        } else if (this.getFormatId() != other.getFormatId()) {
             return false;
         } else if (!Arrays.equals(branchQualifier, other.branchQualifier)) {
             return false;
@@ -123,18 +223,42 @@ public class TransactionXid implements Xid, Serializable {
         return true;
     }
 
-    private static byte[] uuidToByteArray(UUID uuid) {
-        ByteBuffer bb = ByteBuffer.wrap(new byte[16]);
-        bb.putLong(uuid.getMostSignificantBits());
-        bb.putLong(uuid.getLeastSignificantBits());
-        return bb.array();
+    private void resetCache() {
+        hash = 0;
+        key = null;
+        legacyKey = null;
+    }
+
+    private static void appendHex(StringBuilder stringBuilder, byte[] bytes) {
+        for (byte b : bytes) {
+            stringBuilder.append(HEX_DIGITS[(b >> 4) & 0x0F]).append(HEX_DIGITS[b & 0x0F]);
+        }
     }
 
-    private static UUID byteArrayToUUID(byte[] bytes) {
-        ByteBuffer bb = ByteBuffer.wrap(bytes);
-        long firstLong = bb.getLong();
-        long secondLong = bb.getLong();
-        return new UUID(firstLong, secondLong);
+    private static byte[] parseHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("illegal transaction xid key:" + hex);
+        }
+
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("illegal transaction xid key:" + hex);
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    private static byte[] copyOf(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        byte[] copy = new byte[bytes.length];
+        System.arraycopy(bytes, 0, copy, 0, bytes.length);
+        return copy;
     }
 }
 
@@ -0,0 +1,15 @@
+package org.mengyun.tcctransaction.api;
+
+/**
+ * 事务编号生成器,用于生成全局事务编号与分支事务编号,
+ * 生成的编号必须为16字节以保持存储格式不变,可通过TransactionXid.setGenerator替换默认实现
+ */
+public interface TransactionXidGenerator {
+
+    /**
+     * 生成16字节事务编号
+     *
+     * @return
+     */
+    byte[] generate();
+}
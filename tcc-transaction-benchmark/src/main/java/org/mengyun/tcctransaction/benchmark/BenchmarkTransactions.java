@@ -0,0 +1,41 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+
+/**
+ * 基准测试事务构造工具
+ */
+public class BenchmarkTransactions {
+
+    private BenchmarkTransactions() {
+
+    }
+
+    /**
+     * 构造带指定数量参与者的根事务,参与者结构与ResourceCoordinatorInterceptor生成的一致
+     *
+     * @param participantCount
+     * @return
+     */
+    public static Transaction newTransaction(int participantCount) {
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+
+        Class[] parameterTypes = new Class[]{TransactionContext.class, long.class};
+        for (int i = 0; i < participantCount; i++) {
+            TransactionXid xid = new TransactionXid(transaction.getXid().getGlobalTransactionId());
+
+            InvocationContext confirmInvocation = new InvocationContext(SampleService.class, "confirmRecord", parameterTypes, null, 100L + i);
+            InvocationContext cancelInvocation = new InvocationContext(SampleService.class, "cancelRecord", parameterTypes, null, 100L + i);
+
+            transaction.enlistParticipant(new Participant(xid, confirmInvocation, cancelInvocation, Compensable.DefaultTransactionContextEditor.class));
+        }
+
+        return transaction;
+    }
+}
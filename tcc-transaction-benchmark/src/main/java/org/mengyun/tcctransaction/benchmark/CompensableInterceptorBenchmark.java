@@ -0,0 +1,99 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.mengyun.tcctransaction.TransactionManager;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.interceptor.CompensableTransactionInterceptor;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CompensableTransactionInterceptor.interceptCompensableMethod热路径基准测试,
+ * 每次调用以ROOT方法发起根事务,包含事务的新增、提交更新以及删除,存储器为内存存储器
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompensableInterceptorBenchmark {
+
+    @Param({"jdk", "compact"})
+    private String serializerType;
+
+    private CompensableTransactionInterceptor interceptor;
+
+    private ProceedingJoinPoint rootJoinPoint;
+
+    @Setup
+    public void setUp() throws Exception {
+        InMemoryTransactionRepository repository = new InMemoryTransactionRepository();
+        repository.setSerializer(SerializerBenchmark.createSerializer(serializerType));
+
+        TransactionManager transactionManager = new TransactionManager();
+        transactionManager.setTransactionRepository(repository);
+
+        interceptor = new CompensableTransactionInterceptor();
+        interceptor.setTransactionManager(transactionManager);
+
+        Method method = SampleService.class.getMethod("record", TransactionContext.class, long.class);
+        rootJoinPoint = newJoinPoint(new SampleService(), method, new Object[]{null, 100L});
+    }
+
+    @Benchmark
+    public Object interceptRootMethod() throws Throwable {
+        return interceptor.interceptCompensableMethod(rootJoinPoint);
+    }
+
+    /**
+     * 通过动态代理构造切面连接点,只实现拦截器使用到的方法
+     *
+     * @param target
+     * @param method
+     * @param args
+     * @return
+     */
+    private static ProceedingJoinPoint newJoinPoint(final Object target, final Method method, final Object[] args) {
+        final MethodSignature signature = (MethodSignature) Proxy.newProxyInstance(MethodSignature.class.getClassLoader(),
+                new Class[]{MethodSignature.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method invokedMethod, Object[] invokedArgs) {
+                        String name = invokedMethod.getName();
+                        if ("getMethod".equals(name)) {
+                            return method;
+                        } else if ("getReturnType".equals(name)) {
+                            return method.getReturnType();
+                        } else if ("getParameterTypes".equals(name)) {
+                            return method.getParameterTypes();
+                        } else if ("getName".equals(name)) {
+                            return method.getName();
+                        }
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+
+        return (ProceedingJoinPoint) Proxy.newProxyInstance(ProceedingJoinPoint.class.getClassLoader(),
+                new Class[]{ProceedingJoinPoint.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method invokedMethod, Object[] invokedArgs) throws Throwable {
+                        String name = invokedMethod.getName();
+                        if ("proceed".equals(name)) {
+                            return method.invoke(target, args);
+                        } else if ("getSignature".equals(name)) {
+                            return signature;
+                        } else if ("getTarget".equals(name) || "getThis".equals(name)) {
+                            return target;
+                        } else if ("getArgs".equals(name)) {
+                            return args;
+                        }
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+    }
+}
@@ -0,0 +1,67 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.repository.CachableTransactionRepository;
+import org.mengyun.tcctransaction.repository.helper.TransactionSerializer;
+import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+
+import javax.transaction.xa.Xid;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 内存事务存储器,以序列化后的字节存储事务,用于在没有外部存储的环境下测量可缓存事务存储器与序列化的开销
+ */
+public class InMemoryTransactionRepository extends CachableTransactionRepository {
+
+    private final ConcurrentHashMap<Xid, byte[]> store = new ConcurrentHashMap<Xid, byte[]>();
+
+    private ObjectSerializer serializer = new JdkSerializationSerializer();
+
+    public void setSerializer(ObjectSerializer serializer) {
+        this.serializer = serializer;
+    }
+
+    @Override
+    protected int doCreate(Transaction transaction) {
+        return store.putIfAbsent(getKey(transaction.getXid()), TransactionSerializer.serialize(serializer, transaction)) == null ? 1 : 0;
+    }
+
+    @Override
+    protected int doUpdate(Transaction transaction) {
+        transaction.updateTime();
+        transaction.updateVersion();
+        return store.replace(getKey(transaction.getXid()), TransactionSerializer.serialize(serializer, transaction)) == null ? 0 : 1;
+    }
+
+    @Override
+    protected int doDelete(Transaction transaction) {
+        return store.remove(getKey(transaction.getXid())) == null ? 0 : 1;
+    }
+
+    @Override
+    protected Transaction doFindOne(Xid xid) {
+        byte[] content = store.get(getKey(xid));
+        return content == null ? null : TransactionSerializer.deserialize(serializer, content);
+    }
+
+    @Override
+    protected List<Transaction> doFindAllUnmodifiedSince(Date date) {
+        List<Transaction> transactions = new ArrayList<Transaction>();
+        for (byte[] content : store.values()) {
+            Transaction transaction = TransactionSerializer.deserialize(serializer, content);
+            if (transaction.getLastUpdateTime().compareTo(date) < 0) {
+                transactions.add(transaction);
+            }
+        }
+        return transactions;
+    }
+
+    private Xid getKey(Xid xid) {
+        return new TransactionXid(xid.getGlobalTransactionId(), xid.getBranchQualifier());
+    }
+}
@@ -0,0 +1,107 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.repository.CachableTransactionRepository;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
+import org.mengyun.tcctransaction.repository.SegmentedLogTransactionRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 可缓存事务存储器基准测试,每次调用执行一个事务完整的新增、更新、删除过程
+ * memory为内存存储器,jdbc为H2内存数据库上的JdbcTransactionRepository,segment-log为临时目录下的分段追加日志存储器
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RepositoryBenchmark {
+
+    private static final String CREATE_TABLE_SQL = "CREATE TABLE TCC_TRANSACTION_BENCHMARK (" +
+            "TRANSACTION_ID INT AUTO_INCREMENT PRIMARY KEY, DOMAIN VARCHAR(100), GLOBAL_TX_ID VARBINARY(32) NOT NULL, " +
+            "BRANCH_QUALIFIER VARBINARY(32) NOT NULL, CONTENT VARBINARY(8000), STATUS INT, TRANSACTION_TYPE INT, " +
+            "RETRIED_COUNT INT, CREATE_TIME TIMESTAMP, LAST_UPDATE_TIME TIMESTAMP, VERSION INT, " +
+            "UNIQUE (GLOBAL_TX_ID, BRANCH_QUALIFIER))";
+
+    @Param({"memory", "jdbc", "segment-log"})
+    private String repositoryType;
+
+    @Param({"jdk", "compact"})
+    private String serializerType;
+
+    private CachableTransactionRepository repository;
+
+    private File logDirectory;
+
+    @Setup
+    public void setUp() throws Exception {
+        if ("memory".equals(repositoryType)) {
+            InMemoryTransactionRepository memoryRepository = new InMemoryTransactionRepository();
+            memoryRepository.setSerializer(SerializerBenchmark.createSerializer(serializerType));
+            repository = memoryRepository;
+        } else if ("jdbc".equals(repositoryType)) {
+            JdbcDataSource dataSource = new JdbcDataSource();
+            dataSource.setURL("jdbc:h2:mem:tcc_" + serializerType + ";DB_CLOSE_DELAY=-1");
+            createTable(dataSource);
+
+            JdbcTransactionRepository jdbcRepository = new JdbcTransactionRepository();
+            jdbcRepository.setDataSource(dataSource);
+            jdbcRepository.setTbSuffix("_BENCHMARK");
+            jdbcRepository.setSerializer(SerializerBenchmark.createSerializer(serializerType));
+            repository = jdbcRepository;
+        } else if ("segment-log".equals(repositoryType)) {
+            logDirectory = File.createTempFile("tcc-benchmark", "");
+            logDirectory.delete();
+
+            SegmentedLogTransactionRepository logRepository = new SegmentedLogTransactionRepository();
+            logRepository.setRootPath(logDirectory.getPath());
+            logRepository.setSerializer(SerializerBenchmark.createSerializer(serializerType));
+            repository = logRepository;
+        } else {
+            throw new IllegalArgumentException("unknown repository type:" + repositoryType);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        repository.close();
+
+        if (logDirectory != null) {
+            File[] files = logDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            logDirectory.delete();
+        }
+    }
+
+    @Benchmark
+    public int createUpdateDelete() {
+        Transaction transaction = BenchmarkTransactions.newTransaction(2);
+        repository.create(transaction);
+        repository.update(transaction);
+        return repository.delete(transaction);
+    }
+
+    private void createTable(JdbcDataSource dataSource) throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute("DROP TABLE IF EXISTS TCC_TRANSACTION_BENCHMARK");
+            statement.execute(CREATE_TABLE_SQL);
+            statement.close();
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionContext;
+
+/**
+ * 基准测试使用的可补偿服务
+ */
+public class SampleService {
+
+    @Compensable(confirmMethod = "confirmRecord", cancelMethod = "cancelRecord")
+    public void record(TransactionContext transactionContext, long amount) {
+
+    }
+
+    public void confirmRecord(TransactionContext transactionContext, long amount) {
+
+    }
+
+    public void cancelRecord(TransactionContext transactionContext, long amount) {
+
+    }
+}
@@ -0,0 +1,70 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.serializer.CompactTransactionSerializer;
+import org.mengyun.tcctransaction.serializer.CompressionSerializer;
+import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+import org.mengyun.tcctransaction.serializer.KryoThreadLocalSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ObjectSerializer实现的事务序列化与反序列化基准测试
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializerBenchmark {
+
+    @Param({"jdk", "kryo-pool", "kryo-thread-local", "compact", "kryo-deflate"})
+    private String serializerType;
+
+    @Param({"2"})
+    private int participantCount;
+
+    private ObjectSerializer<Transaction> serializer;
+
+    private Transaction transaction;
+
+    private byte[] content;
+
+    @Setup
+    public void setUp() {
+        serializer = createSerializer(serializerType);
+        transaction = BenchmarkTransactions.newTransaction(participantCount);
+        content = serializer.serialize(transaction);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return serializer.serialize(transaction);
+    }
+
+    @Benchmark
+    public Transaction deserialize() {
+        return serializer.deserialize(content);
+    }
+
+    static ObjectSerializer createSerializer(String serializerType) {
+        if ("jdk".equals(serializerType)) {
+            return new JdkSerializationSerializer();
+        } else if ("kryo-pool".equals(serializerType)) {
+            return new KryoPoolSerializer();
+        } else if ("kryo-thread-local".equals(serializerType)) {
+            return new KryoThreadLocalSerializer();
+        } else if ("compact".equals(serializerType)) {
+            return new CompactTransactionSerializer();
+        } else if ("kryo-deflate".equals(serializerType)) {
+            CompressionSerializer compressionSerializer = new CompressionSerializer(new KryoPoolSerializer());
+            compressionSerializer.setThreshold(0);
+            return compressionSerializer;
+        }
+        throw new IllegalArgumentException("unknown serializer type:" + serializerType);
+    }
+}
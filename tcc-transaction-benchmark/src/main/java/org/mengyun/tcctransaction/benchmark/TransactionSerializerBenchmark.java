@@ -0,0 +1,66 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.repository.helper.ExpandTransactionSerializer;
+import org.mengyun.tcctransaction.repository.helper.TransactionSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 存储器使用的TransactionSerializer(ZooKeeper、文件系统)与ExpandTransactionSerializer(Redis)基准测试
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransactionSerializerBenchmark {
+
+    @Param({"jdk", "kryo-pool", "compact"})
+    private String serializerType;
+
+    private ObjectSerializer serializer;
+
+    private Transaction transaction;
+
+    private byte[] content;
+
+    private Map<byte[], byte[]> expandContent;
+
+    @Setup
+    public void setUp() {
+        serializer = SerializerBenchmark.createSerializer(serializerType);
+        transaction = BenchmarkTransactions.newTransaction(2);
+        content = TransactionSerializer.serialize(serializer, transaction);
+        expandContent = ExpandTransactionSerializer.serialize(serializer, transaction);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return TransactionSerializer.serialize(serializer, transaction);
+    }
+
+    @Benchmark
+    public Transaction deserialize() {
+        return TransactionSerializer.deserialize(serializer, content);
+    }
+
+    @Benchmark
+    public Map<byte[], byte[]> expandSerialize() {
+        return ExpandTransactionSerializer.serialize(serializer, transaction);
+    }
+
+    @Benchmark
+    public Map<byte[], byte[]> expandSerializeWithoutContentView() {
+        return ExpandTransactionSerializer.serialize(serializer, transaction, false);
+    }
+
+    @Benchmark
+    public Transaction expandDeserialize() {
+        return ExpandTransactionSerializer.deserialize(serializer, expandContent);
+    }
+}
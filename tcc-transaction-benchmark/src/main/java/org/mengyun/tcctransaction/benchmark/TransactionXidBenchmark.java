@@ -0,0 +1,55 @@
+package org.mengyun.tcctransaction.benchmark;
+
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 事务编号生成、字符串Key计算以及哈希基准测试
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransactionXidBenchmark {
+
+    private TransactionXid xid;
+
+    @Setup
+    public void setUp() {
+        xid = new TransactionXid();
+    }
+
+    @Benchmark
+    public TransactionXid generate() {
+        return new TransactionXid();
+    }
+
+    @Benchmark
+    public TransactionXid generateBranch() {
+        return new TransactionXid(xid.getGlobalTransactionId());
+    }
+
+    @Benchmark
+    public String toKey() {
+        return xid.toKey();
+    }
+
+    @Benchmark
+    public String freshToKey() {
+        return new TransactionXid(xid.getGlobalTransactionId(), xid.getBranchQualifier()).toKey();
+    }
+
+    @Benchmark
+    public String legacyToString() {
+        return new TransactionXid(xid.getGlobalTransactionId(), xid.getBranchQualifier()).toString();
+    }
+
+    @Benchmark
+    public int hash() {
+        return xid.hashCode();
+    }
+}
@@ -4,6 +4,7 @@ import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionContextEditor;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
 
 import java.io.Serializable;
 
@@ -29,6 +30,11 @@ public class Participant implements Serializable {
      */
     private InvocationContext cancelInvocationContext;
 
+    /**
+     * 参与者状态,确认或取消成功后更新为终结状态,恢复Job重试事务时跳过已终结的参与者
+     */
+    private ParticipantStatus status = ParticipantStatus.TRYING;
+
     /**
      * 方法调用执行器
      */
@@ -69,17 +75,51 @@ public class Participant implements Serializable {
     }
 
     /**
-     * 回滚事务
+     * 回滚事务,已取消的参与者不再重复调用
      */
     public void rollback() {
+        if (getStatus() == ParticipantStatus.CANCELLED) {
+            return;
+        }
         terminator.invoke(new TransactionContext(xid, TransactionStatus.CANCELLING.getId()), cancelInvocationContext, transactionContextEditorClass);
+        this.status = ParticipantStatus.CANCELLED;
     }
 
     /**
-     * 提交事务
+     * 提交事务,已确认的参与者不再重复调用
      */
     public void commit() {
+        if (getStatus() == ParticipantStatus.CONFIRMED) {
+            return;
+        }
         terminator.invoke(new TransactionContext(xid, TransactionStatus.CONFIRMING.getId()), confirmInvocationContext, transactionContextEditorClass);
+        this.status = ParticipantStatus.CONFIRMED;
+    }
+
+    /**
+     * 获取参与者状态,升级前持久化的参与者没有状态,视为尝试中
+     *
+     * @return
+     */
+    public ParticipantStatus getStatus() {
+        return status == null ? ParticipantStatus.TRYING : status;
+    }
+
+    /**
+     * 判断参与者是否已终结,即已确认或已取消
+     *
+     * @return
+     */
+    public boolean isTerminated() {
+        return getStatus() != ParticipantStatus.TRYING;
+    }
+
+    public void setStatus(ParticipantStatus status) {
+        this.status = status;
+    }
+
+    public Class<? extends TransactionContextEditor> getTransactionContextEditorClass() {
+        return transactionContextEditorClass;
     }
 
     public Terminator getTerminator() {
@@ -0,0 +1,26 @@
+package org.mengyun.tcctransaction;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 参与者终结异常,并行提交或回滚事务时收集每个失败参与者及其异常,只有失败的参与者需要被恢复Job重试
+ */
+public class ParticipantTerminationException extends SystemException {
+
+    private static final long serialVersionUID = -2301873474516236874L;
+
+    /**
+     * 失败参与者与异常映射
+     */
+    private final Map<Participant, Throwable> failures;
+
+    public ParticipantTerminationException(Map<Participant, Throwable> failures) {
+        super(String.format("%d participant(s) failed to terminate", failures.size()), failures.values().iterator().next());
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    public Map<Participant, Throwable> getFailures() {
+        return failures;
+    }
+}
@@ -2,11 +2,16 @@ package org.mengyun.tcctransaction;
 
 import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionContextEditor;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.metrics.Histogram;
+import org.mengyun.tcctransaction.metrics.Metrics;
 import org.mengyun.tcctransaction.support.FactoryBuilder;
 import org.mengyun.tcctransaction.utils.StringUtils;
 
 import java.io.Serializable;
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 调用执行器
@@ -19,10 +24,17 @@ public class Terminator implements Serializable {
 
     }
 
+    /**
+     * 调用键与调用目标缓存,恢复Job大量重试参与者时避免重复反射获取方法以及重复通过工厂构造器获取实例;
+     * 目标类实例与事务上下文编辑器均为工厂构造器单例,缓存后不会引用过期实例
+     */
+    private static final ConcurrentHashMap<MethodKey, CachedMethod> METHODS = new ConcurrentHashMap<MethodKey, CachedMethod>();
+
     /**
      * 执行方法调用:
-     * (1)根据调用上下文的目标类获取目标类单例;
-     * (2)根据调用上下文的方法名、参数类型数组反射获取调用方法;
+     * (1)根据调用上下文的目标类、方法名、参数类型数组以及事务上下文编辑器类获取缓存的调用目标,
+     * 不存在则通过工厂构造器获取目标类单例与事务上下文编辑器单例,反射获取调用方法后缓存;
+     * (2)设置事务上下文到方法参数数组;
      * (3)根据调用上下文的参数数组执行目标类实例方法调用
      *
      * @param transactionContext
@@ -33,23 +45,129 @@ public class Terminator implements Serializable {
     public Object invoke(TransactionContext transactionContext, InvocationContext invocationContext, Class<? extends TransactionContextEditor> transactionContextEditorClass) {
         if (StringUtils.isNotEmpty(invocationContext.getMethodName())) {
             try {
-                //通过工厂构造器根据调用上下文的目标类获取目标类单例
-                Object target = FactoryBuilder.factoryOf(invocationContext.getTargetClass()).getInstance();
+                //获取调用目标
+                CachedMethod cachedMethod = getMethod(invocationContext, transactionContextEditorClass);
+                Object target = cachedMethod.target;
+                Method method = cachedMethod.method;
 
-                Method method = null;
-
-                //根据调用上下文的方法名、参数类型数组反射获取调用方法
-                method = target.getClass().getMethod(invocationContext.getMethodName(), invocationContext.getParameterTypes());
-
-                //获取事务上下文编辑器实例设置事务上下文到方法参数数组
-                FactoryBuilder.factoryOf(transactionContextEditorClass).getInstance().set(transactionContext, target, method, invocationContext.getArgs());
+                //设置事务上下文到方法参数数组
+                cachedMethod.transactionContextEditor.set(transactionContext, target, method, invocationContext.getArgs());
 
                 //根据调用上下文的参数数组执行目标类实例方法调用
-                return method.invoke(target, invocationContext.getArgs());
+                long startTime = System.nanoTime();
+                try {
+                    return method.invoke(target, invocationContext.getArgs());
+                } finally {
+                    Histogram latency = transactionContext.getStatus() == TransactionStatus.CANCELLING.getId() ? cachedMethod.cancelLatency : cachedMethod.confirmLatency;
+                    latency.record(System.nanoTime() - startTime);
+                }
             } catch (Exception e) {
                 throw new SystemException(e);
             }
         }
         return null;
     }
-}
\ No newline at end of file
+
+    private CachedMethod getMethod(InvocationContext invocationContext, Class<? extends TransactionContextEditor> transactionContextEditorClass) throws NoSuchMethodException {
+        MethodKey key = new MethodKey(invocationContext.getTargetClass(), invocationContext.getMethodName(), invocationContext.getParameterTypes(), transactionContextEditorClass);
+
+        CachedMethod cachedMethod = METHODS.get(key);
+        if (cachedMethod == null) {
+            //通过工厂构造器根据调用上下文的目标类获取目标类单例
+            Object target = FactoryBuilder.factoryOf(invocationContext.getTargetClass()).getInstance();
+
+            //根据目标类实例类型、调用上下文的方法名、参数类型数组反射获取调用方法
+            Method method = target.getClass().getMethod(invocationContext.getMethodName(), invocationContext.getParameterTypes());
+
+            cachedMethod = new CachedMethod(target, method, FactoryBuilder.factoryOf(transactionContextEditorClass).getInstance(), invocationContext.getTargetClass());
+            CachedMethod existing = METHODS.putIfAbsent(key, cachedMethod);
+            if (existing != null) {
+                cachedMethod = existing;
+            }
+        }
+        return cachedMethod;
+    }
+
+    /**
+     * 缓存的调用目标:目标类实例、调用方法、事务上下文编辑器及其耗时直方图
+     * 源码级别为Java 6不能使用MethodHandle,通过关闭调用方法的访问检查降低反射调用开销
+     */
+    private static class CachedMethod {
+
+        private final Object target;
+
+        private final Method method;
+
+        private final TransactionContextEditor transactionContextEditor;
+
+        /**
+         * 确认、取消调用耗时直方图,单位纳秒
+         */
+        private final Histogram confirmLatency;
+
+        private final Histogram cancelLatency;
+
+        CachedMethod(Object target, Method method, TransactionContextEditor transactionContextEditor, Class targetClass) {
+            this.target = target;
+            this.method = method;
+            this.transactionContextEditor = transactionContextEditor;
+
+            String metricPrefix = "compensable." + Metrics.methodName(targetClass, method);
+            this.confirmLatency = Metrics.histogram(metricPrefix + ".confirm.latency");
+            this.cancelLatency = Metrics.histogram(metricPrefix + ".cancel.latency");
+
+            try {
+                method.setAccessible(true);
+            } catch (SecurityException e) {
+                //安全管理器不允许时保留访问检查
+            }
+        }
+    }
+
+    /**
+     * 调用键
+     */
+    private static class MethodKey {
+
+        private final Class targetClass;
+
+        private final String methodName;
+
+        private final Class[] parameterTypes;
+
+        private final Class transactionContextEditorClass;
+
+        private final int hashCode;
+
+        MethodKey(Class targetClass, String methodName, Class[] parameterTypes, Class transactionContextEditorClass) {
+            this.targetClass = targetClass;
+            this.methodName = methodName;
+            this.parameterTypes = parameterTypes;
+            this.transactionContextEditorClass = transactionContextEditorClass;
+
+            int result = targetClass.hashCode();
+            result = 31 * result + methodName.hashCode();
+            result = 31 * result + Arrays.hashCode(parameterTypes);
+            result = 31 * result + transactionContextEditorClass.hashCode();
+            this.hashCode = result;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (other == null || getClass() != other.getClass()) return false;
+
+            MethodKey that = (MethodKey) other;
+
+            return targetClass == that.targetClass
+                    && transactionContextEditorClass == that.transactionContextEditorClass
+                    && methodName.equals(that.methodName)
+                    && Arrays.equals(parameterTypes, that.parameterTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
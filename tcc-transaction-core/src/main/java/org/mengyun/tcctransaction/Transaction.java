@@ -4,15 +4,22 @@ package org.mengyun.tcctransaction;
 import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
 import org.mengyun.tcctransaction.common.TransactionType;
 
 import javax.transaction.xa.Xid;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * 事务
@@ -99,6 +106,21 @@ public class Transaction implements Serializable {
         this.transactionType = transactionType;
     }
 
+    /**
+     * 事务构造方法,用于从存储恢复事务,由事务序列化实现调用
+     *
+     * @param xid
+     * @param status
+     * @param transactionType
+     * @param createTime
+     */
+    public Transaction(TransactionXid xid, TransactionStatus status, TransactionType transactionType, Date createTime) {
+        this.xid = xid;
+        this.status = status;
+        this.transactionType = transactionType;
+        this.createTime = createTime;
+    }
+
     /**
      * 添加参与者
      *
@@ -129,7 +151,7 @@ public class Transaction implements Serializable {
     }
 
     /**
-     * 提交事务:遍历所有事务参与者,调用参与者提交事务
+     * 提交事务:遍历所有事务参与者,调用参与者提交事务,已确认的参与者会被跳过
      */
     public void commit() {
         for (Participant participant : participants) {
@@ -138,7 +160,7 @@ public class Transaction implements Serializable {
     }
 
     /**
-     * 回滚事务:遍历所有事务参与者,调用参与者回滚事务
+     * 回滚事务:遍历所有事务参与者,调用参与者回滚事务,已取消的参与者会被跳过
      */
     public void rollback() {
         for (Participant participant : participants) {
@@ -146,6 +168,107 @@ public class Transaction implements Serializable {
         }
     }
 
+    /**
+     * 并行提交事务:通过指定线程池并发调用所有参与者提交事务,等待全部参与者完成后汇总失败参与者,
+     * 线程池为空或者只有一个参与者时退化为顺序提交
+     *
+     * @param executorService
+     */
+    public void commit(ExecutorService executorService) {
+        if (executorService == null || participants.size() <= 1) {
+            commit();
+        } else {
+            terminate(executorService, true);
+        }
+    }
+
+    /**
+     * 并行回滚事务:通过指定线程池并发调用所有参与者回滚事务,等待全部参与者完成后汇总失败参与者,
+     * 线程池为空或者只有一个参与者时退化为顺序回滚
+     *
+     * @param executorService
+     */
+    public void rollback(ExecutorService executorService) {
+        if (executorService == null || participants.size() <= 1) {
+            rollback();
+        } else {
+            terminate(executorService, false);
+        }
+    }
+
+    /**
+     * 并行终结参与者,线程池拒绝任务时在当前线程执行该参与者,存在失败参与者时抛出ParticipantTerminationException
+     *
+     * @param executorService
+     * @param commit
+     */
+    private void terminate(ExecutorService executorService, final boolean commit) {
+        Map<Participant, Future<?>> futures = new LinkedHashMap<Participant, Future<?>>();
+        ParticipantStatus terminatedStatus = commit ? ParticipantStatus.CONFIRMED : ParticipantStatus.CANCELLED;
+
+        for (final Participant participant : participants) {
+            //与Participant.commit、rollback一致,只跳过已按本次方向终结的参与者,已确认的参与者回滚时仍需取消
+            if (participant.getStatus() == terminatedStatus) {
+                continue;
+            }
+
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    if (commit) {
+                        participant.commit();
+                    } else {
+                        participant.rollback();
+                    }
+                }
+            };
+
+            try {
+                futures.put(participant, executorService.submit(task));
+            } catch (RejectedExecutionException e) {
+                FutureTask<Object> futureTask = new FutureTask<Object>(task, null);
+                futureTask.run();
+                futures.put(participant, futureTask);
+            }
+        }
+
+        Map<Participant, Throwable> failures = new LinkedHashMap<Participant, Throwable>();
+        boolean interrupted = false;
+
+        for (Map.Entry<Participant, Future<?>> entry : futures.entrySet()) {
+            try {
+                entry.getValue().get();
+            } catch (ExecutionException e) {
+                failures.put(entry.getKey(), e.getCause());
+            } catch (InterruptedException e) {
+                interrupted = true;
+                failures.put(entry.getKey(), e);
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (!failures.isEmpty()) {
+            throw new ParticipantTerminationException(failures);
+        }
+    }
+
+    /**
+     * 判断是否存在已终结的参与者,用于终结失败时持久化参与者进度
+     *
+     * @return
+     */
+    public boolean hasTerminatedParticipant() {
+        for (Participant participant : participants) {
+            if (participant.isTerminated()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public int getRetriedCount() {
         return retriedCount;
     }
@@ -0,0 +1,192 @@
+package org.mengyun.tcctransaction;
+
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 事务头部信息,只包含存储器索引列或Hash字段即可获取的事务编号、状态、类型、重试次数、创建时间、最后更新时间以及版本号,
+ * 参与者、附带属性等事务内容在首次调用#getTransaction()时才反序列化,
+ * 用于事务恢复时跳过超过最大重试次数或仍在重试时间内的事务,避免反序列化这些事务的内容
+ */
+public abstract class TransactionHeader {
+
+    private final TransactionXid xid;
+
+    private final TransactionStatus status;
+
+    private final TransactionType transactionType;
+
+    private final int retriedCount;
+
+    private final Date createTime;
+
+    private final Date lastUpdateTime;
+
+    private final long version;
+
+    /**
+     * 已加载的完整事务
+     */
+    private Transaction transaction;
+
+    protected TransactionHeader(TransactionXid xid, TransactionStatus status, TransactionType transactionType, int retriedCount,
+                                Date createTime, Date lastUpdateTime, long version) {
+        this.xid = xid;
+        this.status = status;
+        this.transactionType = transactionType;
+        this.retriedCount = retriedCount;
+        this.createTime = createTime;
+        this.lastUpdateTime = lastUpdateTime;
+        this.version = version;
+    }
+
+    /**
+     * 根据已加载的事务创建事务头部信息,用于不支持只读取头部信息的存储器
+     *
+     * @param transaction
+     * @return
+     */
+    public static TransactionHeader of(final Transaction transaction) {
+        TransactionHeader header = new TransactionHeader((TransactionXid) transaction.getXid(), transaction.getStatus(), transaction.getTransactionType(),
+                transaction.getRetriedCount(), transaction.getCreateTime(), transaction.getLastUpdateTime(), transaction.getVersion()) {
+            @Override
+            protected Transaction loadTransaction() {
+                return transaction;
+            }
+        };
+        header.transaction = transaction;
+        return header;
+    }
+
+    /**
+     * 将事务迭代器转换为事务头部信息迭代器
+     *
+     * @param transactions
+     * @return
+     */
+    public static Iterator<TransactionHeader> headersOf(final Iterator<Transaction> transactions) {
+        return new Iterator<TransactionHeader>() {
+            @Override
+            public boolean hasNext() {
+                return transactions.hasNext();
+            }
+
+            @Override
+            public TransactionHeader next() {
+                return of(transactions.next());
+            }
+
+            @Override
+            public void remove() {
+                transactions.remove();
+            }
+        };
+    }
+
+    /**
+     * 将事务头部信息迭代器转换为事务迭代器,迭代时加载完整事务
+     *
+     * @param headers
+     * @return
+     */
+    public static Iterator<Transaction> transactionsOf(final Iterator<TransactionHeader> headers) {
+        return new Iterator<Transaction>() {
+            @Override
+            public boolean hasNext() {
+                return headers.hasNext();
+            }
+
+            @Override
+            public Transaction next() {
+                if (!headers.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return headers.next().getTransaction();
+            }
+
+            @Override
+            public void remove() {
+                headers.remove();
+            }
+        };
+    }
+
+    /**
+     * 获取完整事务,首次调用时反序列化事务内容,状态、重试次数、最后更新时间以及版本号以头部信息为准;
+     * 事务内容按需从存储器查询时,事务可能在扫描之后已被删除,此时返回null
+     *
+     * @return
+     */
+    public Transaction getTransaction() {
+        if (transaction == null) {
+            Transaction loaded = loadTransaction();
+            if (loaded == null) {
+                return null;
+            }
+            loaded.changeStatus(status);
+            loaded.resetRetriedCount(retriedCount);
+            loaded.setLastUpdateTime(lastUpdateTime);
+            loaded.setVersion(version);
+            transaction = loaded;
+        }
+        return transaction;
+    }
+
+    /**
+     * 是否已加载完整事务
+     *
+     * @return
+     */
+    public boolean isLoaded() {
+        return transaction != null;
+    }
+
+    /**
+     * 加载完整事务,事务已被删除时返回null
+     *
+     * @return
+     */
+    protected abstract Transaction loadTransaction();
+
+    public TransactionXid getXid() {
+        return xid;
+    }
+
+    public TransactionStatus getStatus() {
+        return status;
+    }
+
+    public TransactionType getTransactionType() {
+        return transactionType;
+    }
+
+    public int getRetriedCount() {
+        return retriedCount;
+    }
+
+    public Date getCreateTime() {
+        return createTime;
+    }
+
+    public Date getLastUpdateTime() {
+        return lastUpdateTime;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "TransactionHeader[xid=" + xid
+                + ", status=" + status
+                + ", transactionType=" + transactionType
+                + ", retriedCount=" + retriedCount
+                + ", version=" + version + "]";
+    }
+}
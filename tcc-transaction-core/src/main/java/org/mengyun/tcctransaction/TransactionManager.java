@@ -4,10 +4,13 @@ import org.apache.log4j.Logger;
 import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.metrics.Histogram;
+import org.mengyun.tcctransaction.metrics.Metrics;
 
 import java.util.Deque;
 import java.util.LinkedList;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * 事务管理器
@@ -26,8 +29,29 @@ public class TransactionManager {
      */
     private static final ThreadLocal<Deque<Transaction>> CURRENT = new ThreadLocal<Deque<Transaction>>();
 
+    /**
+     * 异步终结线程池,用于asyncConfirm、asyncCancel异步提交或回滚事务
+     */
     private ExecutorService executorService;
 
+    /**
+     * 参与者并行终结线程池,不为空时事务提交或回滚并行调用所有参与者
+     */
+    private ExecutorService participantExecutorService;
+
+    /**
+     * 事务生命周期各阶段耗时直方图,单位纳秒
+     */
+    private final Histogram beginLatency = Metrics.histogram("transaction.begin.latency");
+
+    private final Histogram propagationBeginLatency = Metrics.histogram("transaction.propagation.begin.latency");
+
+    private final Histogram enlistLatency = Metrics.histogram("transaction.enlist.latency");
+
+    private final Histogram commitLatency = Metrics.histogram("transaction.commit.latency");
+
+    private final Histogram rollbackLatency = Metrics.histogram("transaction.rollback.latency");
+
     public void setTransactionRepository(TransactionRepository transactionRepository) {
         this.transactionRepository = transactionRepository;
     }
@@ -36,6 +60,14 @@ public class TransactionManager {
         this.executorService = executorService;
     }
 
+    public void setParticipantExecutorService(ExecutorService participantExecutorService) {
+        this.participantExecutorService = participantExecutorService;
+    }
+
+    public ExecutorService getParticipantExecutorService() {
+        return participantExecutorService;
+    }
+
     public TransactionManager() {
     }
 
@@ -45,12 +77,14 @@ public class TransactionManager {
      * @return
      */
     public Transaction begin() {
+        long startTime = System.nanoTime();
         //根据指定事务类型创建事务,事务类型为根事务ROOT
         Transaction transaction = new Transaction(TransactionType.ROOT);
         //事务存储器存储事务,事务日志创建事务
         transactionRepository.create(transaction);
         //注册事务到线程局部事务队列
         registerTransaction(transaction);
+        beginLatency.record(System.nanoTime() - startTime);
         return transaction;
     }
 
@@ -62,12 +96,14 @@ public class TransactionManager {
      * @return
      */
     public Transaction propagationNewBegin(TransactionContext transactionContext) {
+        long startTime = System.nanoTime();
         //根据事务上下文创建事务,事务类型为分支事务BRANCH
         Transaction transaction = new Transaction(transactionContext);
         //事务存储器存储事务,事务日志创建事务
         transactionRepository.create(transaction);
         //注册事务到线程局部事务队列
         registerTransaction(transaction);
+        propagationBeginLatency.record(System.nanoTime() - startTime);
         return transaction;
     }
 
@@ -114,8 +150,6 @@ public class TransactionManager {
 
         if (asyncCommit) {
             try {
-                Long statTime = System.currentTimeMillis();
-
                 executorService.submit(new Runnable() {
                     @Override
                     public void run() {
@@ -123,7 +157,9 @@ public class TransactionManager {
                         commitTransaction(transaction);
                     }
                 });
-                logger.debug("async submit cost time:" + (System.currentTimeMillis() - statTime));
+            } catch (RejectedExecutionException rejectedException) {
+                //事务已持久化为CONFIRMING状态,异步终结线程池已满时不阻塞调用方,交由恢复Job稍后提交
+                logger.warn("compensable transaction async confirm rejected, recovery job will try to confirm later. " + rejectedException.getMessage());
             } catch (Throwable commitException) {
                 logger.warn("compensable transaction async submit confirm failed, recovery job will try to confirm later.", commitException);
                 throw new ConfirmingException(commitException);
@@ -174,6 +210,9 @@ public class TransactionManager {
                         rollbackTransaction(transaction);
                     }
                 });
+            } catch (RejectedExecutionException rejectedException) {
+                //事务已持久化为CANCELLING状态,异步终结线程池已满时不阻塞调用方,交由恢复Job稍后回滚
+                logger.warn("compensable transaction async cancel rejected, recovery job will try to cancel later. " + rejectedException.getMessage());
             } catch (Throwable rollbackException) {
                 logger.warn("compensable transaction async rollback failed, recovery job will try to rollback later.", rollbackException);
                 throw new CancellingException(rollbackException);
@@ -190,16 +229,21 @@ public class TransactionManager {
      * @param transaction
      */
     private void commitTransaction(Transaction transaction) {
+        long startTime = System.nanoTime();
         try {
-            //提交事务
-            transaction.commit();
+            //提交事务,配置参与者并行终结线程池时并行提交
+            transaction.commit(participantExecutorService);
             //事务存储器删除事务,事务日志删除事务
             transactionRepository.delete(transaction);
         } catch (Throwable commitException) {
             //提交事务过程引起异常
             logger.warn("compensable transaction confirm failed, recovery job will try to confirm later.", commitException);
+            //持久化已确认的参与者,恢复Job只重试未确认的参与者
+            saveParticipantProgress(transaction);
             //抛出ConfirmingException异常,导致事务日志不会删除事务,Recovery恢复策略处理长时间没有被删除的事务
             throw new ConfirmingException(commitException);
+        } finally {
+            commitLatency.record(System.nanoTime() - startTime);
         }
     }
 
@@ -209,16 +253,38 @@ public class TransactionManager {
      * @param transaction
      */
     private void rollbackTransaction(Transaction transaction) {
+        long startTime = System.nanoTime();
         try {
-            //回滚事务
-            transaction.rollback();
+            //回滚事务,配置参与者并行终结线程池时并行回滚
+            transaction.rollback(participantExecutorService);
             //事务存储器删除事务,事务日志删除事务
             transactionRepository.delete(transaction);
         } catch (Throwable rollbackException) {
             //回滚事务过程引起异常
             logger.warn("compensable transaction rollback failed, recovery job will try to rollback later.", rollbackException);
+            //持久化已取消的参与者,恢复Job只重试未取消的参与者
+            saveParticipantProgress(transaction);
             //抛出CancellingException异常,导致事务日志不会删除事务,Recovery恢复策略处理长时间没有被删除的事务
             throw new CancellingException(rollbackException);
+        } finally {
+            rollbackLatency.record(System.nanoTime() - startTime);
+        }
+    }
+
+    /**
+     * 终结事务失败时持久化参与者状态,存在已终结参与者时才更新事务日志,更新失败不影响原异常抛出
+     *
+     * @param transaction
+     */
+    private void saveParticipantProgress(Transaction transaction) {
+        if (!transaction.hasTerminatedParticipant()) {
+            return;
+        }
+
+        try {
+            transactionRepository.update(transaction);
+        } catch (Throwable updateException) {
+            logger.warn("save participant progress failed, recovery job will retry all participants.", updateException);
         }
     }
 
@@ -284,11 +350,13 @@ public class TransactionManager {
      * @param participant
      */
     public void enlistParticipant(Participant participant) {
+        long startTime = System.nanoTime();
         //获取线程局部事务队列头部事务
         Transaction transaction = this.getCurrentTransaction();
         //事务参与者集合添加参与者
         transaction.enlistParticipant(participant);
         //事务存储器更新事务,事务日志更新事务
         transactionRepository.update(transaction);
+        enlistLatency.record(System.nanoTime() - startTime);
     }
 }
\ No newline at end of file
@@ -4,6 +4,7 @@ import org.mengyun.tcctransaction.api.TransactionXid;
 
 import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -48,6 +49,15 @@ public interface TransactionRepository {
      */
     Transaction findByXid(TransactionXid xid);
 
+    /**
+     * 根据事务编号集合批量获取事务,优先从缓存获取,缓存未命中的事务一次批量从存储器加载,
+     * 返回存在的事务,不存在的事务编号被忽略,返回顺序不保证与事务编号集合一致
+     *
+     * @param xids
+     * @return
+     */
+    List<Transaction> findByXids(Collection<TransactionXid> xids);
+
     /**
      * 获取超过指定时间的事务集合
      *
@@ -55,4 +65,21 @@ public interface TransactionRepository {
      * @return
      */
     List<Transaction> findAllUnmodifiedSince(Date date);
+
+    /**
+     * 迭代获取超过指定时间的事务,用于事务恢复时以有界内存遍历大量积压事务
+     *
+     * @param date
+     * @return
+     */
+    Iterator<Transaction> scanAllUnmodifiedSince(Date date);
+
+    /**
+     * 迭代获取超过指定时间的事务头部信息,事务内容在调用TransactionHeader#getTransaction()时才反序列化,
+     * 用于事务恢复时跳过无需处理的事务而不反序列化其内容
+     *
+     * @param date
+     * @return
+     */
+    Iterator<TransactionHeader> scanHeadersUnmodifiedSince(Date date);
 }
\ No newline at end of file
@@ -0,0 +1,41 @@
+package org.mengyun.tcctransaction.common;
+
+/**
+ * 参与者状态
+ */
+public enum ParticipantStatus {
+
+    /**
+     * 尝试中,尚未确认或取消
+     */
+    TRYING(1),
+    /**
+     * 已确认
+     */
+    CONFIRMED(2),
+    /**
+     * 已取消
+     */
+    CANCELLED(3);
+
+    int id;
+
+    ParticipantStatus(int id) {
+        this.id = id;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public static ParticipantStatus valueOf(int id) {
+        switch (id) {
+            case 2:
+                return CONFIRMED;
+            case 3:
+                return CANCELLED;
+            default:
+                return TRYING;
+        }
+    }
+}
@@ -1,8 +1,8 @@
 package org.mengyun.tcctransaction.context;
 
+import org.mengyun.tcctransaction.api.Compensable;
 import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionContextEditor;
-import org.mengyun.tcctransaction.utils.CompensableMethodUtils;
 
 import java.lang.reflect.Method;
 
@@ -15,7 +15,7 @@ public class MethodTransactionContextEditor implements TransactionContextEditor
 
     @Override
     public TransactionContext get(Object target, Method method, Object[] args) {
-        int position = CompensableMethodUtils.getTransactionContextParamPosition(method.getParameterTypes());
+        int position = Compensable.DefaultTransactionContextEditor.getTransactionContextParamPosition(method);
 
         if (position >= 0) {
             return (TransactionContext) args[position];
@@ -27,7 +27,7 @@ public class MethodTransactionContextEditor implements TransactionContextEditor
     @Override
     public void set(TransactionContext transactionContext, Object target, Method method, Object[] args) {
 
-        int position = CompensableMethodUtils.getTransactionContextParamPosition(method.getParameterTypes());
+        int position = Compensable.DefaultTransactionContextEditor.getTransactionContextParamPosition(method);
         if (position >= 0) {
             args[position] = transactionContext;
         }
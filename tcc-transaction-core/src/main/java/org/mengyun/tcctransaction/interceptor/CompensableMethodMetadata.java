@@ -0,0 +1,118 @@
+package org.mengyun.tcctransaction.interceptor;
+
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.Propagation;
+import org.mengyun.tcctransaction.api.TransactionContextEditor;
+import org.mengyun.tcctransaction.metrics.Histogram;
+import org.mengyun.tcctransaction.metrics.Metrics;
+
+import java.lang.reflect.Method;
+
+/**
+ * 可补偿事务方法元数据,每个切面方法与目标类只解析一次,解析后不可变,可被多线程并发读取
+ */
+public final class CompensableMethodMetadata {
+
+    /**
+     * 带@Compensable注解可补偿事务方法
+     */
+    private final Method method;
+
+    /**
+     * 传播级别
+     */
+    private final Propagation propagation;
+
+    /**
+     * 确认方法名
+     */
+    private final String confirmMethodName;
+
+    /**
+     * 取消方法名
+     */
+    private final String cancelMethodName;
+
+    /**
+     * 是否异步确认
+     */
+    private final boolean asyncConfirm;
+
+    /**
+     * 是否异步取消
+     */
+    private final boolean asyncCancel;
+
+    /**
+     * 事务上下文编辑器类
+     */
+    private final Class<? extends TransactionContextEditor> transactionContextEditorClass;
+
+    /**
+     * 事务上下文编辑器单例
+     */
+    private final TransactionContextEditor transactionContextEditor;
+
+    /**
+     * 切面声明目标类,用于确认、取消方法调用上下文
+     */
+    private final Class declaringType;
+
+    /**
+     * Try阶段耗时直方图,单位纳秒
+     */
+    private final Histogram tryLatency;
+
+    public CompensableMethodMetadata(Method method, Compensable compensable, TransactionContextEditor transactionContextEditor, Class declaringType) {
+        this.method = method;
+        this.propagation = compensable.propagation();
+        this.confirmMethodName = compensable.confirmMethod();
+        this.cancelMethodName = compensable.cancelMethod();
+        this.asyncConfirm = compensable.asyncConfirm();
+        this.asyncCancel = compensable.asyncCancel();
+        this.transactionContextEditorClass = compensable.transactionContextEditor();
+        this.transactionContextEditor = transactionContextEditor;
+        this.declaringType = declaringType;
+        this.tryLatency = Metrics.histogram("compensable." + Metrics.methodName(method.getDeclaringClass(), method) + ".try.latency");
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public Propagation getPropagation() {
+        return propagation;
+    }
+
+    public String getConfirmMethodName() {
+        return confirmMethodName;
+    }
+
+    public String getCancelMethodName() {
+        return cancelMethodName;
+    }
+
+    public boolean isAsyncConfirm() {
+        return asyncConfirm;
+    }
+
+    public boolean isAsyncCancel() {
+        return asyncCancel;
+    }
+
+    public Class<? extends TransactionContextEditor> getTransactionContextEditorClass() {
+        return transactionContextEditorClass;
+    }
+
+    public TransactionContextEditor getTransactionContextEditor() {
+        return transactionContextEditor;
+    }
+
+    public Class getDeclaringType() {
+        return declaringType;
+    }
+
+    public Histogram getTryLatency() {
+        return tryLatency;
+    }
+}
@@ -0,0 +1,103 @@
+package org.mengyun.tcctransaction.interceptor;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.support.FactoryBuilder;
+import org.mengyun.tcctransaction.utils.CompensableMethodUtils;
+import org.mengyun.tcctransaction.utils.ReflectionUtils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 可补偿事务方法元数据注册表,按切面方法与目标类缓存可补偿事务方法元数据,
+ * 可补偿事务拦截器与资源协调者拦截器共用,避免每次调用重复反射获取方法、注解、事务上下文编辑器以及切面声明目标类
+ */
+public final class CompensableMethodRegistry {
+
+    private CompensableMethodRegistry() {
+
+    }
+
+    /**
+     * 切面方法与目标类为键的元数据缓存
+     */
+    private static final ConcurrentHashMap<MethodKey, CompensableMethodMetadata> METADATA = new ConcurrentHashMap<MethodKey, CompensableMethodMetadata>();
+
+    /**
+     * 获取切面方法的可补偿事务方法元数据,不存在带@Compensable注解的方法时返回null
+     *
+     * @param pjp
+     * @return
+     */
+    public static CompensableMethodMetadata getMetadata(ProceedingJoinPoint pjp) {
+        Method joinPointMethod = ((MethodSignature) pjp.getSignature()).getMethod();
+        MethodKey key = new MethodKey(joinPointMethod, pjp.getTarget().getClass());
+
+        CompensableMethodMetadata metadata = METADATA.get(key);
+        if (metadata == null) {
+            metadata = resolve(pjp);
+            if (metadata == null) {
+                return null;
+            }
+
+            CompensableMethodMetadata existing = METADATA.putIfAbsent(key, metadata);
+            if (existing != null) {
+                metadata = existing;
+            }
+        }
+        return metadata;
+    }
+
+    private static CompensableMethodMetadata resolve(ProceedingJoinPoint pjp) {
+        //获取带@Compensable注解可补偿事务方法
+        Method method = CompensableMethodUtils.getCompensableMethod(pjp);
+        if (method == null) {
+            return null;
+        }
+
+        Compensable compensable = method.getAnnotation(Compensable.class);
+        if (compensable == null) {
+            return null;
+        }
+
+        //反射获取切面声明目标类
+        Class declaringType = ReflectionUtils.getDeclaringType(pjp.getTarget().getClass(), method.getName(), method.getParameterTypes());
+
+        return new CompensableMethodMetadata(method,
+                compensable,
+                FactoryBuilder.factoryOf(compensable.transactionContextEditor()).getInstance(),
+                declaringType);
+    }
+
+    /**
+     * 切面方法与目标类键,同一接口方法可能由不同目标类实现
+     */
+    private static final class MethodKey {
+
+        private final Method method;
+
+        private final Class targetClass;
+
+        MethodKey(Method method, Class targetClass) {
+            this.method = method;
+            this.targetClass = targetClass;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (other == null || getClass() != other.getClass()) return false;
+
+            MethodKey that = (MethodKey) other;
+
+            return method.equals(that.method) && targetClass == that.targetClass;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * method.hashCode() + targetClass.hashCode();
+        }
+    }
+}
@@ -9,12 +9,11 @@ import org.mengyun.tcctransaction.NoExistedTransactionException;
 import org.mengyun.tcctransaction.SystemException;
 import org.mengyun.tcctransaction.Transaction;
 import org.mengyun.tcctransaction.TransactionManager;
-import org.mengyun.tcctransaction.api.Compensable;
 import org.mengyun.tcctransaction.api.Propagation;
 import org.mengyun.tcctransaction.api.TransactionContext;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.common.MethodType;
-import org.mengyun.tcctransaction.support.FactoryBuilder;
+import org.mengyun.tcctransaction.metrics.Histogram;
 import org.mengyun.tcctransaction.utils.CompensableMethodUtils;
 import org.mengyun.tcctransaction.utils.ReflectionUtils;
 import org.mengyun.tcctransaction.utils.TransactionUtils;
@@ -55,17 +54,22 @@ public class CompensableTransactionInterceptor {
      * @throws Throwable
      */
     public Object interceptCompensableMethod(ProceedingJoinPoint pjp) throws Throwable {
+        //从注册表获取可补偿事务方法元数据
+        CompensableMethodMetadata metadata = CompensableMethodRegistry.getMetadata(pjp);
+        if (metadata == null) {
+            throw new SystemException(String.format("join point not found compensable method, point is : %s", pjp.getSignature().getName()));
+        }
+
         //获取带@Compensable注解可补偿事务方法
-        Method method = CompensableMethodUtils.getCompensableMethod(pjp);
+        Method method = metadata.getMethod();
 
-        Compensable compensable = method.getAnnotation(Compensable.class);
-        Propagation propagation = compensable.propagation();
+        Propagation propagation = metadata.getPropagation();
         //通过事务上下文编辑器单例从切面方法参数数组获取事务上下文
-        TransactionContext transactionContext = FactoryBuilder.factoryOf(compensable.transactionContextEditor()).getInstance().get(pjp.getTarget(), method, pjp.getArgs());
+        TransactionContext transactionContext = metadata.getTransactionContextEditor().get(pjp.getTarget(), method, pjp.getArgs());
 
-        boolean asyncConfirm = compensable.asyncConfirm();
+        boolean asyncConfirm = metadata.isAsyncConfirm();
 
-        boolean asyncCancel = compensable.asyncCancel();
+        boolean asyncCancel = metadata.isAsyncCancel();
         //获取当前线程是否在事务中即事务是否开启
         boolean isTransactionActive = transactionManager.isTransactionActive();
         //判断事务上下文是否合法,不合法则抛出异常
@@ -83,10 +87,10 @@ public class CompensableTransactionInterceptor {
         switch (methodType) {
             case ROOT:
                 //ROOT类型方法处理:发起根事务
-                return rootMethodProceed(pjp, asyncConfirm, asyncCancel);
+                return rootMethodProceed(pjp, asyncConfirm, asyncCancel, metadata.getTryLatency());
             case PROVIDER:
                 //PROVIDER类型方法处理:发起分支事务
-                return providerMethodProceed(pjp, transactionContext, asyncConfirm, asyncCancel);
+                return providerMethodProceed(pjp, transactionContext, asyncConfirm, asyncCancel, metadata.getTryLatency());
             default:
                 //默认执行切面方法逻辑,不进行事务处理
                 return pjp.proceed();
@@ -99,20 +103,24 @@ public class CompensableTransactionInterceptor {
      * @param pjp
      * @param asyncConfirm
      * @param asyncCancel
+     * @param tryLatency
      * @return
      * @throws Throwable
      */
-    private Object rootMethodProceed(ProceedingJoinPoint pjp, boolean asyncConfirm, boolean asyncCancel) throws Throwable {
+    private Object rootMethodProceed(ProceedingJoinPoint pjp, boolean asyncConfirm, boolean asyncCancel, Histogram tryLatency) throws Throwable {
         Object returnValue = null;
 
         Transaction transaction = null;
         try {
             //事务管理器开始事务,即发起根事务
             transaction = transactionManager.begin();
+            long tryStartTime = System.nanoTime();
             try {
                 //执行切面方法逻辑,即Try阶段逻辑
                 returnValue = pjp.proceed();
+                tryLatency.record(System.nanoTime() - tryStartTime);
             } catch (Throwable tryingException) {
+                tryLatency.record(System.nanoTime() - tryStartTime);
                 //执行方法逻辑引起异常判断是否为延迟取消异常,部分异常不适合立即回滚事务,是则同步事务,否则回滚事务
                 if (isDelayCancelException(tryingException)) {
                     //同步事务
@@ -142,10 +150,11 @@ public class CompensableTransactionInterceptor {
      * @param transactionContext
      * @param asyncConfirm
      * @param asyncCancel
+     * @param tryLatency
      * @return
      * @throws Throwable
      */
-    private Object providerMethodProceed(ProceedingJoinPoint pjp, TransactionContext transactionContext, boolean asyncConfirm, boolean asyncCancel) throws Throwable {
+    private Object providerMethodProceed(ProceedingJoinPoint pjp, TransactionContext transactionContext, boolean asyncConfirm, boolean asyncCancel, Histogram tryLatency) throws Throwable {
         Transaction transaction = null;
         try {
             //当事务处于 TransactionStatus.TRYING时,调用 TransactionManager#propagationExistBegin(...) 方法,传播发起分支事务.发起分支事务完成后,调用 ProceedingJoinPoint#proceed()方法,执行切面方法逻辑(即 Try阶段逻辑);
@@ -158,7 +167,12 @@ public class CompensableTransactionInterceptor {
                 case TRYING:
                     //传播发起分支事务
                     transaction = transactionManager.propagationNewBegin(transactionContext);
-                    return pjp.proceed();
+                    long tryStartTime = System.nanoTime();
+                    try {
+                        return pjp.proceed();
+                    } finally {
+                        tryLatency.record(System.nanoTime() - tryStartTime);
+                    }
                 case CONFIRMING:
                     try {
                         //传播获取分支事务
@@ -6,13 +6,10 @@ import org.mengyun.tcctransaction.InvocationContext;
 import org.mengyun.tcctransaction.Participant;
 import org.mengyun.tcctransaction.Transaction;
 import org.mengyun.tcctransaction.TransactionManager;
-import org.mengyun.tcctransaction.api.Compensable;
 import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionContextEditor;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.api.TransactionXid;
-import org.mengyun.tcctransaction.support.FactoryBuilder;
-import org.mengyun.tcctransaction.utils.CompensableMethodUtils;
-import org.mengyun.tcctransaction.utils.ReflectionUtils;
 
 import java.lang.reflect.Method;
 
@@ -65,34 +62,32 @@ public class ResourceCoordinatorInterceptor {
      * @throws InstantiationException
      */
     private void enlistParticipant(ProceedingJoinPoint pjp) throws IllegalAccessException, InstantiationException {
-        //获取带@Compensable注解可补偿事务方法
-        Method method = CompensableMethodUtils.getCompensableMethod(pjp);
-        if (method == null) {
+        //从注册表获取可补偿事务方法元数据
+        CompensableMethodMetadata metadata = CompensableMethodRegistry.getMetadata(pjp);
+        if (metadata == null) {
             throw new RuntimeException(String.format("join point not found method, point is : %s", pjp.getSignature().getName()));
         }
-        Compensable compensable = method.getAnnotation(Compensable.class);
-        //获取@Compensable注解确认方法
-        String confirmMethodName = compensable.confirmMethod();
-        //获取@Compensable注解取消方法
-        String cancelMethodName = compensable.cancelMethod();
+        //获取带@Compensable注解可补偿事务方法
+        Method method = metadata.getMethod();
         //获取线程局部事务队列头部事务
         Transaction transaction = transactionManager.getCurrentTransaction();
         //创建分支事务编号
         TransactionXid xid = new TransactionXid(transaction.getXid().getGlobalTransactionId());
 
-        if (FactoryBuilder.factoryOf(compensable.transactionContextEditor()).getInstance().get(pjp.getTarget(), method, pjp.getArgs()) == null) {
-            FactoryBuilder.factoryOf(compensable.transactionContextEditor()).getInstance().set(new TransactionContext(xid, TransactionStatus.TRYING.getId()), pjp.getTarget(), ((MethodSignature) pjp.getSignature()).getMethod(), pjp.getArgs());
+        TransactionContextEditor transactionContextEditor = metadata.getTransactionContextEditor();
+        if (transactionContextEditor.get(pjp.getTarget(), method, pjp.getArgs()) == null) {
+            transactionContextEditor.set(new TransactionContext(xid, TransactionStatus.TRYING.getId()), pjp.getTarget(), ((MethodSignature) pjp.getSignature()).getMethod(), pjp.getArgs());
         }
 
-        //反射获取切面声明目标类
-        Class targetClass = ReflectionUtils.getDeclaringType(pjp.getTarget().getClass(), method.getName(), method.getParameterTypes());
+        //获取切面声明目标类
+        Class targetClass = metadata.getDeclaringType();
         //获取确认方法调用上下文
         InvocationContext confirmInvocation = new InvocationContext(targetClass,
-                confirmMethodName,
+                metadata.getConfirmMethodName(),
                 method.getParameterTypes(), pjp.getArgs());
         //获取取消方法调用上下文
         InvocationContext cancelInvocation = new InvocationContext(targetClass,
-                cancelMethodName,
+                metadata.getCancelMethodName(),
                 method.getParameterTypes(), pjp.getArgs());
 
         //创建事务参与者
@@ -101,7 +96,7 @@ public class ResourceCoordinatorInterceptor {
                         xid,
                         confirmInvocation,
                         cancelInvocation,
-                        compensable.transactionContextEditor());
+                        metadata.getTransactionContextEditorClass());
 
         //事务管理器添加参与者
         transactionManager.enlistParticipant(participant);
@@ -0,0 +1,26 @@
+package org.mengyun.tcctransaction.metrics;
+
+/**
+ * 计数器
+ */
+public interface Counter extends Metric {
+
+    /**
+     * 计数加一
+     */
+    void increment();
+
+    /**
+     * 计数增加指定值
+     *
+     * @param delta
+     */
+    void add(long delta);
+
+    /**
+     * 获取当前计数
+     *
+     * @return
+     */
+    long getCount();
+}
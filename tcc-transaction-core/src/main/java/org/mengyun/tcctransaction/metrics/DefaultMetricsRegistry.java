@@ -0,0 +1,54 @@
+package org.mengyun.tcctransaction.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 默认度量指标注册表,直方图为AtomicHistogram,计数器为StripedCounter,指标常驻内存不过期
+ */
+public class DefaultMetricsRegistry implements MetricsRegistry {
+
+    private final ConcurrentHashMap<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
+
+    @Override
+    public Histogram histogram(String name) {
+        Metric metric = metrics.get(name);
+        if (metric == null) {
+            metric = register(name, new AtomicHistogram());
+        }
+        return cast(name, metric, Histogram.class);
+    }
+
+    @Override
+    public Counter counter(String name) {
+        Metric metric = metrics.get(name);
+        if (metric == null) {
+            metric = register(name, new StripedCounter());
+        }
+        return cast(name, metric, Counter.class);
+    }
+
+    @Override
+    public void gauge(String name, Gauge gauge) {
+        metrics.put(name, gauge);
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        return Collections.unmodifiableMap(new TreeMap<String, Metric>(metrics));
+    }
+
+    private Metric register(String name, Metric metric) {
+        Metric existing = metrics.putIfAbsent(name, metric);
+        return existing != null ? existing : metric;
+    }
+
+    private static <T extends Metric> T cast(String name, Metric metric, Class<T> type) {
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException(String.format("metric %s is already registered as %s", name, metric.getClass().getSimpleName()));
+        }
+        return type.cast(metric);
+    }
+}
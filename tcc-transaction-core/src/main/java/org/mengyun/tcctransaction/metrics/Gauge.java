@@ -0,0 +1,14 @@
+package org.mengyun.tcctransaction.metrics;
+
+/**
+ * 瞬时值指标,读取时计算当前值,例如队列深度、缓存命中率
+ */
+public interface Gauge extends Metric {
+
+    /**
+     * 获取当前值
+     *
+     * @return
+     */
+    double getValue();
+}
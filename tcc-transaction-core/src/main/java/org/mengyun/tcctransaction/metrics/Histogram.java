@@ -0,0 +1,43 @@
+package org.mengyun.tcctransaction.metrics;
+
+/**
+ * 直方图,记录耗时(纳秒)或字节数等数值的分布
+ */
+public interface Histogram extends Metric {
+
+    /**
+     * 记录数值,小于0按0记录
+     *
+     * @param value
+     */
+    void record(long value);
+
+    /**
+     * 获取记录次数
+     *
+     * @return
+     */
+    long getCount();
+
+    /**
+     * 获取平均值
+     *
+     * @return
+     */
+    double getMean();
+
+    /**
+     * 获取最大值
+     *
+     * @return
+     */
+    long getMax();
+
+    /**
+     * 获取指定百分位的数值,例如99表示P99
+     *
+     * @param percentile
+     * @return
+     */
+    long getValueAtPercentile(double percentile);
+}
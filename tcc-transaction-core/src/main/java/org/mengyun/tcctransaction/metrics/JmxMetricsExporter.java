@@ -0,0 +1,171 @@
+package org.mengyun.tcctransaction.metrics;
+
+import org.apache.log4j.Logger;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 通过JMX导出度量指标,所有指标作为同一个MBean的只读属性:
+ * 计数器与瞬时值指标属性名为指标名,直方图按指标名加.count/.mean/.max/.p50/.p90/.p99/.p999后缀导出,
+ * 耗时类直方图单位为纳秒,属性列表在每次读取MBean信息时按当前已注册指标生成
+ */
+public class JmxMetricsExporter implements DynamicMBean {
+
+    static final Logger logger = Logger.getLogger(JmxMetricsExporter.class.getSimpleName());
+
+    public static final String DEFAULT_OBJECT_NAME = "org.mengyun.tcctransaction:type=Metrics";
+
+    private static final String[] HISTOGRAM_STATS = {"count", "mean", "max", "p50", "p90", "p99", "p999"};
+
+    private String objectName = DEFAULT_OBJECT_NAME;
+
+    private MBeanServer mBeanServer;
+
+    /**
+     * 注册MBean到平台MBeanServer,同名MBean已存在时跳过
+     */
+    public synchronized void start() {
+        try {
+            ObjectName name = new ObjectName(objectName);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                mBeanServer = server;
+            }
+        } catch (Exception e) {
+            logger.warn("register tcc transaction metrics mbean failed, name:" + objectName, e);
+        }
+    }
+
+    /**
+     * 从平台MBeanServer注销MBean
+     */
+    public synchronized void stop() {
+        if (mBeanServer == null) {
+            return;
+        }
+
+        try {
+            mBeanServer.unregisterMBean(new ObjectName(objectName));
+        } catch (Exception e) {
+            logger.warn("unregister tcc transaction metrics mbean failed, name:" + objectName, e);
+        } finally {
+            mBeanServer = null;
+        }
+    }
+
+    public void setObjectName(String objectName) {
+        this.objectName = objectName;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Map<String, Metric> metrics = Metrics.getRegistry().getMetrics();
+
+        Metric metric = metrics.get(attribute);
+        if (metric instanceof Counter) {
+            return ((Counter) metric).getCount();
+        } else if (metric instanceof Gauge) {
+            return ((Gauge) metric).getValue();
+        }
+
+        int separator = attribute.lastIndexOf('.');
+        if (separator > 0) {
+            metric = metrics.get(attribute.substring(0, separator));
+            if (metric instanceof Histogram) {
+                Object value = getHistogramStat((Histogram) metric, attribute.substring(separator + 1));
+                if (value != null) {
+                    return value;
+                }
+            }
+        }
+
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                //忽略不存在的属性
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("metrics attributes are read only:" + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException(actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+
+        for (Map.Entry<String, Metric> entry : Metrics.getRegistry().getMetrics().entrySet()) {
+            Metric metric = entry.getValue();
+            if (metric instanceof Counter) {
+                attributes.add(attributeInfo(entry.getKey(), Long.class));
+            } else if (metric instanceof Gauge) {
+                attributes.add(attributeInfo(entry.getKey(), Double.class));
+            } else if (metric instanceof Histogram) {
+                for (String stat : HISTOGRAM_STATS) {
+                    attributes.add(attributeInfo(entry.getKey() + "." + stat, "mean".equals(stat) ? Double.class : Long.class));
+                }
+            }
+        }
+
+        return new MBeanInfo(getClass().getName(), "tcc transaction metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+                null, new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+    }
+
+    private static MBeanAttributeInfo attributeInfo(String name, Class type) {
+        return new MBeanAttributeInfo(name, type.getName(), name, true, false, false);
+    }
+
+    private static Object getHistogramStat(Histogram histogram, String stat) {
+        if ("count".equals(stat)) {
+            return histogram.getCount();
+        } else if ("mean".equals(stat)) {
+            return histogram.getMean();
+        } else if ("max".equals(stat)) {
+            return histogram.getMax();
+        } else if ("p50".equals(stat)) {
+            return histogram.getValueAtPercentile(50d);
+        } else if ("p90".equals(stat)) {
+            return histogram.getValueAtPercentile(90d);
+        } else if ("p99".equals(stat)) {
+            return histogram.getValueAtPercentile(99d);
+        } else if ("p999".equals(stat)) {
+            return histogram.getValueAtPercentile(99.9d);
+        }
+        return null;
+    }
+}
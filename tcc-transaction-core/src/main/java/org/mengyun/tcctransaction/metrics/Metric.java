@@ -0,0 +1,7 @@
+package org.mengyun.tcctransaction.metrics;
+
+/**
+ * 度量指标
+ */
+public interface Metric {
+}
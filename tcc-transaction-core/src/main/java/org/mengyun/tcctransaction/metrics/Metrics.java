@@ -0,0 +1,58 @@
+package org.mengyun.tcctransaction.metrics;
+
+import java.lang.reflect.Method;
+
+/**
+ * 度量指标注册表入口,默认使用DefaultMetricsRegistry,
+ * 事务管理器、存储器等组件在创建时获取指标,替换注册表需在组件创建前完成
+ */
+public final class Metrics {
+
+    private static volatile MetricsRegistry registry = new DefaultMetricsRegistry();
+
+    private Metrics() {
+
+    }
+
+    public static MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    public static void setRegistry(MetricsRegistry metricsRegistry) {
+        if (metricsRegistry == null) {
+            throw new IllegalArgumentException("metrics registry can not be null");
+        }
+        registry = metricsRegistry;
+    }
+
+    public static Histogram histogram(String name) {
+        return registry.histogram(name);
+    }
+
+    public static Counter counter(String name) {
+        return registry.counter(name);
+    }
+
+    public static void gauge(String name, Gauge gauge) {
+        registry.gauge(name, gauge);
+    }
+
+    /**
+     * 方法指标名,格式为"类全名.方法名(参数类型全名,...)",区分同名类与重载方法
+     *
+     * @param type
+     * @param method
+     * @return
+     */
+    public static String methodName(Class type, Method method) {
+        StringBuilder name = new StringBuilder(type.getName()).append('.').append(method.getName()).append('(');
+        Class[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                name.append(',');
+            }
+            name.append(parameterTypes[i].getName());
+        }
+        return name.append(')').toString();
+    }
+}
@@ -0,0 +1,41 @@
+package org.mengyun.tcctransaction.metrics;
+
+import java.util.Map;
+
+/**
+ * 度量指标注册表SPI,按名称获取或注册指标,同名指标只创建一次,
+ * 可通过Metrics.setRegistry替换为其他实现,例如对接外部监控系统
+ */
+public interface MetricsRegistry {
+
+    /**
+     * 获取指定名称的直方图,不存在时创建
+     *
+     * @param name
+     * @return
+     */
+    Histogram histogram(String name);
+
+    /**
+     * 获取指定名称的计数器,不存在时创建
+     *
+     * @param name
+     * @return
+     */
+    Counter counter(String name);
+
+    /**
+     * 注册瞬时值指标,同名指标已存在时替换
+     *
+     * @param name
+     * @param gauge
+     */
+    void gauge(String name, Gauge gauge);
+
+    /**
+     * 获取所有已注册指标,按名称排序
+     *
+     * @return
+     */
+    Map<String, Metric> getMetrics();
+}
@@ -0,0 +1,58 @@
+package org.mengyun.tcctransaction.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分段计数器,按线程编号散列到不同计数单元累加,读取时求和,
+ * 计数单元之间按缓存行间隔,减少多线程并发累加时的CAS冲突与伪共享
+ */
+public class StripedCounter implements Counter {
+
+    /**
+     * 计数单元间隔,8个long即64字节缓存行
+     */
+    private static final int PADDING = 8;
+
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    @Override
+    public void increment() {
+        add(1L);
+    }
+
+    @Override
+    public void add(long delta) {
+        cells.addAndGet(index(), delta);
+    }
+
+    @Override
+    public long getCount() {
+        long sum = 0L;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    private static int index() {
+        long threadId = Thread.currentThread().getId();
+        int hash = (int) (threadId ^ (threadId >>> 32)) * 0x9E3779B9;
+        return ((hash >>> 16) & (STRIPES - 1)) * PADDING;
+    }
+
+    /**
+     * 计数单元个数为不小于处理器数2倍的2的幂
+     *
+     * @param processors
+     * @return
+     */
+    private static int stripes(int processors) {
+        int stripes = 1;
+        while (stripes < processors * 2) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}
@@ -38,7 +38,7 @@ public interface RecoverConfig {
     public void setDelayCancelExceptions(Set<Class<? extends Exception>> delayRecoverExceptions);
 
     /**
-     * 获取同步终结线程池大小
+     * 获取异步终结线程池大小,即asyncConfirm、asyncCancel异步提交或回滚事务的最大线程数
      *
      * @return
      */
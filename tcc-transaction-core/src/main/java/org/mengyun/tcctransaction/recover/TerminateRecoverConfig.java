@@ -0,0 +1,30 @@
+package org.mengyun.tcctransaction.recover;
+
+import org.mengyun.tcctransaction.support.TerminateExecutor;
+
+/**
+ * 事务终结线程池配置,自定义RecoverConfig未实现本接口时使用DefaultRecoverConfig的默认值
+ */
+public interface TerminateRecoverConfig extends RecoverConfig {
+
+    /**
+     * 获取异步终结线程池等待队列大小,线程全部繁忙且队列已满时按拒绝策略处理
+     *
+     * @return
+     */
+    public int getAsyncTerminateQueueSize();
+
+    /**
+     * 获取异步终结线程池拒绝策略,默认拒绝并交由恢复Job稍后终结事务,不阻塞调用线程
+     *
+     * @return
+     */
+    public TerminateExecutor.RejectedPolicy getAsyncTerminateRejectedPolicy();
+
+    /**
+     * 获取参与者并行终结线程池大小,大于0时事务提交或回滚并行调用所有参与者,小于等于0时顺序调用
+     *
+     * @return
+     */
+    public int getParallelTerminateThreadPoolSize();
+}
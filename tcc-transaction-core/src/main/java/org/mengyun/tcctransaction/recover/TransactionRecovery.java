@@ -5,14 +5,20 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
 import org.mengyun.tcctransaction.OptimisticLockException;
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionHeader;
 import org.mengyun.tcctransaction.TransactionRepository;
 import org.mengyun.tcctransaction.api.TransactionStatus;
 import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.metrics.Counter;
+import org.mengyun.tcctransaction.metrics.Gauge;
+import org.mengyun.tcctransaction.metrics.Histogram;
+import org.mengyun.tcctransaction.metrics.Metrics;
 import org.mengyun.tcctransaction.support.TransactionConfigurator;
 
 import java.util.Calendar;
 import java.util.Date;
-import java.util.List;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 异常事务恢复
@@ -23,47 +29,112 @@ public class TransactionRecovery {
 
     private TransactionConfigurator transactionConfigurator;
 
+    /**
+     * 最近一次恢复扫描到的异常事务数量,即恢复积压数量
+     */
+    private final AtomicLong backlogSize = new AtomicLong();
+
+    /**
+     * 最近一次恢复扫描到的最早异常事务距最后更新时间的毫秒数,即恢复积压时长
+     */
+    private final AtomicLong backlogAgeMillis = new AtomicLong();
+
+    /**
+     * 单次恢复耗时直方图,单位纳秒
+     */
+    private final Histogram recoverLatency = Metrics.histogram("recovery.latency");
+
+    private final Counter recoveredCount = Metrics.counter("recovery.recovered");
+
+    private final Counter failedCount = Metrics.counter("recovery.failed");
+
+    public TransactionRecovery() {
+        Metrics.gauge("recovery.backlog.size", new Gauge() {
+            @Override
+            public double getValue() {
+                return backlogSize.get();
+            }
+        });
+        Metrics.gauge("recovery.backlog.ageMillis", new Gauge() {
+            @Override
+            public double getValue() {
+                return backlogAgeMillis.get();
+            }
+        });
+    }
+
     /**
      * 启动事务恢复
      */
     public void startRecover() {
-        //加载异常事务集合
-        List<Transaction> transactions = loadErrorTransactions();
-        //恢复异常事务集合
-        recoverErrorTransactions(transactions);
+        long startTime = System.nanoTime();
+        try {
+            //迭代加载异常事务集合
+            Iterator<TransactionHeader> headers = loadErrorTransactions();
+            //恢复异常事务集合
+            recoverErrorTransactions(headers);
+        } finally {
+            recoverLatency.record(System.nanoTime() - startTime);
+        }
     }
 
     /**
-     * 加载异常事务集合
+     * 加载异常事务集合,只读取事务头部信息,事务内容在需要重试时才反序列化
      *
      * @return
      */
-    private List<Transaction> loadErrorTransactions() {
+    private Iterator<TransactionHeader> loadErrorTransactions() {
         long currentTimeInMillis = Calendar.getInstance().getTimeInMillis();
 
         TransactionRepository transactionRepository = transactionConfigurator.getTransactionRepository();
         RecoverConfig recoverConfig = transactionConfigurator.getRecoverConfig();
         //异常事务的定义:当前时间超过-事务变更时间(最后执行时间 )>=事务恢复间隔,已完成的事务从事务存储器删除
-        return transactionRepository.findAllUnmodifiedSince(new Date(currentTimeInMillis - recoverConfig.getRecoverDuration() * 1000));
+        return transactionRepository.scanHeadersUnmodifiedSince(new Date(currentTimeInMillis - recoverConfig.getRecoverDuration() * 1000));
     }
 
-    private void recoverErrorTransactions(List<Transaction> transactions) {
-        for (Transaction transaction : transactions) {
-            //判断事务重试次数是否大于事务恢复策略配置的事务最多重试次数
-            if (transaction.getRetriedCount() > transactionConfigurator.getRecoverConfig().getMaxRetryCount()) {
-                logger.error(String.format("recover failed with max retry count,will not try again. txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)));
+    private void recoverErrorTransactions(Iterator<TransactionHeader> headers) {
+        long scannedCount = 0;
+        long oldestUpdateTime = Long.MAX_VALUE;
+
+        while (headers.hasNext()) {
+            TransactionHeader header = headers.next();
+
+            scannedCount++;
+            oldestUpdateTime = Math.min(oldestUpdateTime, header.getLastUpdateTime().getTime());
+
+            //判断事务重试次数是否大于事务恢复策略配置的事务最多重试次数,事务内容只在调试日志中输出
+            if (header.getRetriedCount() > transactionConfigurator.getRecoverConfig().getMaxRetryCount()) {
+                logger.error(String.format("recover failed with max retry count,will not try again. txid:%s, status:%s,retried count:%d", header.getXid(), header.getStatus().getId(), header.getRetriedCount()));
+                if (logger.isDebugEnabled()) {
+                    logger.debug(String.format("transaction content:%s", JSON.toJSONString(header.getTransaction())));
+                }
                 continue;
             }
 
             //判断分支事务是否超过最大可重试时间
-            if (transaction.getTransactionType().equals(TransactionType.BRANCH)
-                    && (transaction.getCreateTime().getTime() +
+            if (header.getTransactionType().equals(TransactionType.BRANCH)
+                    && (header.getCreateTime().getTime() +
                     transactionConfigurator.getRecoverConfig().getMaxRetryCount() *
                             transactionConfigurator.getRecoverConfig().getRecoverDuration() * 1000
                     > System.currentTimeMillis())) {
                 continue;
             }
-            
+
+            //需要重试时才反序列化事务内容
+            Transaction transaction;
+            try {
+                transaction = header.getTransaction();
+            } catch (Throwable throwable) {
+                failedCount.increment();
+                logger.error(String.format("load transaction failed while recover. txid:%s, status:%s,retried count:%d", header.getXid(), header.getStatus().getId(), header.getRetriedCount()), throwable);
+                continue;
+            }
+
+            //扫描之后事务已完成并被删除
+            if (transaction == null) {
+                continue;
+            }
+
             try {
                 //增加事务重试次数
                 transaction.addRetriedCount();
@@ -72,17 +143,22 @@ public class TransactionRecovery {
                     //事务状态为TransactionStatus.CONFIRMING状态提交事务
                     transaction.changeStatus(TransactionStatus.CONFIRMING);
                     transactionConfigurator.getTransactionRepository().update(transaction);
-                    transaction.commit();
+                    transaction.commit(transactionConfigurator.getTransactionManager().getParticipantExecutorService());
                     transactionConfigurator.getTransactionRepository().delete(transaction);
                 } else if (transaction.getStatus().equals(TransactionStatus.CANCELLING)
                         || transaction.getTransactionType().equals(TransactionType.ROOT)) {
                     //事务状态为TransactionStatus.CANCELLING状态事务类型为根事务(用于处理延迟回滚异常的事务的回滚)回滚事务
                     transaction.changeStatus(TransactionStatus.CANCELLING);
                     transactionConfigurator.getTransactionRepository().update(transaction);
-                    transaction.rollback();
+                    transaction.rollback(transactionConfigurator.getTransactionManager().getParticipantExecutorService());
                     transactionConfigurator.getTransactionRepository().delete(transaction);
                 }
+                recoveredCount.increment();
             } catch (Throwable throwable) {
+                failedCount.increment();
+                //持久化已终结的参与者,下次恢复只重试未终结的参与者
+                saveParticipantProgress(transaction);
+
                 if (throwable instanceof OptimisticLockException
                         || ExceptionUtils.getRootCause(throwable) instanceof OptimisticLockException) {
                     logger.warn(String.format("optimisticLockException happened while recover. txid:%s, status:%s,retried count:%d,transaction content:%s", transaction.getXid(), transaction.getStatus().getId(), transaction.getRetriedCount(), JSON.toJSONString(transaction)), throwable);
@@ -91,6 +167,26 @@ public class TransactionRecovery {
                 }
             }
         }
+
+        backlogSize.set(scannedCount);
+        backlogAgeMillis.set(scannedCount == 0 ? 0L : System.currentTimeMillis() - oldestUpdateTime);
+    }
+
+    /**
+     * 恢复事务失败时持久化参与者状态,乐观锁更新失败说明事务已被其他节点处理,忽略即可
+     *
+     * @param transaction
+     */
+    private void saveParticipantProgress(Transaction transaction) {
+        if (!transaction.hasTerminatedParticipant()) {
+            return;
+        }
+
+        try {
+            transactionConfigurator.getTransactionRepository().update(transaction);
+        } catch (Throwable updateException) {
+            logger.warn(String.format("save participant progress failed while recover. txid:%s", transaction.getXid()), updateException);
+        }
     }
 
     public void setTransactionConfigurator(TransactionConfigurator transactionConfigurator) {
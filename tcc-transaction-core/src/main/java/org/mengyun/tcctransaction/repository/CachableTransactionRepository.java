@@ -4,13 +4,24 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import org.mengyun.tcctransaction.OptimisticLockException;
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionHeader;
 import org.mengyun.tcctransaction.TransactionRepository;
 import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.metrics.Counter;
+import org.mengyun.tcctransaction.metrics.Gauge;
+import org.mengyun.tcctransaction.metrics.Histogram;
+import org.mengyun.tcctransaction.metrics.Metrics;
 
 import javax.transaction.xa.Xid;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 可缓存事务存储器,用于实现增删改查事务,缓存事务信息
@@ -26,6 +37,45 @@ public abstract class CachableTransactionRepository implements TransactionReposi
      */
     private Cache<Xid, Transaction> transactionXidCompensableTransactionCache;
 
+    /**
+     * 是否开启组提交,开启后多个线程并发的新增、更新、删除事务会合并为一次批量刷写,默认关闭
+     * 注意:开启后写操作在组提交线程中执行,不再参与调用方线程绑定的数据库连接(例如Spring事务同步的连接);
+     * 存储器不支持批量写入时合并没有收益,写操作仍在调用方线程中直接执行
+     */
+    private boolean groupCommitEnabled = false;
+
+    /**
+     * 组提交窗口默认为200微秒
+     */
+    private long groupCommitWindowMicros = 200;
+
+    /**
+     * 组提交单批次最大写请求数量默认为256个
+     */
+    private int groupCommitMaxBatchSize = 256;
+
+    /**
+     * 组提交写入器
+     */
+    private volatile GroupCommitWriter groupCommitWriter;
+
+    /**
+     * 指标实例名,与存储器类全名一起组成指标名前缀,区分同一进程内的多个存储器实例
+     */
+    private String metricName;
+
+    /**
+     * 存储器指标,首次使用时创建,此时存储器属性已设置完成
+     */
+    private volatile RepositoryMetrics metrics;
+
+    /**
+     * 未设置指标实例名且存储器无默认实例名时使用的实例序号
+     */
+    private static final AtomicInteger INSTANCE_SEQUENCE = new AtomicInteger();
+
+    private final int instanceId = INSTANCE_SEQUENCE.incrementAndGet();
+
     /**
      * 新增事务
      *
@@ -34,8 +84,14 @@ public abstract class CachableTransactionRepository implements TransactionReposi
      */
     @Override
     public int create(Transaction transaction) {
-        //新增事务
-        int result = doCreate(transaction);
+        long startTime = System.nanoTime();
+        int result;
+        try {
+            //新增事务
+            result = isGroupCommitActive() ? getGroupCommitWriter().write(GroupCommitWriter.Operation.CREATE, transaction) : doCreate(transaction);
+        } finally {
+            getMetrics().createLatency.record(System.nanoTime() - startTime);
+        }
         if (result > 0) {
             //添加事务到缓存
             putToCache(transaction);
@@ -52,10 +108,11 @@ public abstract class CachableTransactionRepository implements TransactionReposi
     @Override
     public int update(Transaction transaction) {
         int result = 0;
+        long startTime = System.nanoTime();
 
         try {
             //更新事务
-            result = doUpdate(transaction);
+            result = isGroupCommitActive() ? getGroupCommitWriter().write(GroupCommitWriter.Operation.UPDATE, transaction) : doUpdate(transaction);
             if (result > 0) {
                 //添加事务到缓存
                 putToCache(transaction);
@@ -66,6 +123,7 @@ public abstract class CachableTransactionRepository implements TransactionReposi
                 throw new OptimisticLockException();
             }
         } finally {
+            getMetrics().updateLatency.record(System.nanoTime() - startTime);
             if (result <= 0) {
                 //从缓存移除事务
                 removeFromCache(transaction);
@@ -84,17 +142,76 @@ public abstract class CachableTransactionRepository implements TransactionReposi
     @Override
     public int delete(Transaction transaction) {
         int result = 0;
+        long startTime = System.nanoTime();
 
         try {
             //删除事务
-            result = doDelete(transaction);
+            result = isGroupCommitActive() ? getGroupCommitWriter().write(GroupCommitWriter.Operation.DELETE, transaction) : doDelete(transaction);
         } finally {
+            getMetrics().deleteLatency.record(System.nanoTime() - startTime);
             //从缓存移除事务
             removeFromCache(transaction);
         }
         return result;
     }
 
+    /**
+     * 批量新增事务,返回结果与事务集合一一对应,新增成功的事务添加到缓存
+     *
+     * @param transactions
+     * @return
+     */
+    public int[] createAll(List<Transaction> transactions) {
+        int[] results = doCreateAll(transactions);
+
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] > 0) {
+                putToCache(transactions.get(i));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 批量更新事务,返回结果与事务集合一一对应,结果小于等于0表示该事务乐观锁更新失败,由调用方决定如何处理,
+     * 更新成功的事务添加到缓存,更新失败的事务从缓存移除
+     *
+     * @param transactions
+     * @return
+     */
+    public int[] updateAll(List<Transaction> transactions) {
+        int[] results = null;
+
+        try {
+            results = doUpdateAll(transactions);
+        } finally {
+            for (int i = 0; i < transactions.size(); i++) {
+                if (results != null && results[i] > 0) {
+                    putToCache(transactions.get(i));
+                } else {
+                    removeFromCache(transactions.get(i));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 批量删除事务,返回结果与事务集合一一对应
+     *
+     * @param transactions
+     * @return
+     */
+    public int[] deleteAll(List<Transaction> transactions) {
+        try {
+            return doDeleteAll(transactions);
+        } finally {
+            for (Transaction transaction : transactions) {
+                removeFromCache(transaction);
+            }
+        }
+    }
+
     /**
      * 根据事务编号获取事务
      *
@@ -108,18 +225,75 @@ public abstract class CachableTransactionRepository implements TransactionReposi
 
         //缓存中事务不存在,从存储器中获取,获取到事务调用#putToCache()方法添加事务到缓存
         if (transaction == null) {
-            //根据事务编号查询事务
-            transaction = doFindOne(transactionXid);
+            getMetrics().cacheMisses.increment();
+
+            long startTime = System.nanoTime();
+            try {
+                //根据事务编号查询事务
+                transaction = doFindOne(transactionXid);
+            } finally {
+                getMetrics().findLatency.record(System.nanoTime() - startTime);
+            }
 
             if (transaction != null) {
                 //添加事务到缓存
                 putToCache(transaction);
             }
+        } else {
+            getMetrics().cacheHits.increment();
         }
 
         return transaction;
     }
 
+    /**
+     * 根据事务编号集合批量获取事务,优先从缓存获取,缓存未命中的事务编号去重后调用#doFind(...)方法一次批量查询,查询到的事务添加到缓存
+     *
+     * @param transactionXids
+     * @return
+     */
+    @Override
+    public List<Transaction> findByXids(Collection<TransactionXid> transactionXids) {
+        List<Transaction> transactions = new ArrayList<Transaction>(transactionXids.size());
+        List<Xid> missedXids = new ArrayList<Xid>();
+        Set<Xid> visitedXids = new HashSet<Xid>();
+
+        for (TransactionXid transactionXid : transactionXids) {
+            if (!visitedXids.add(transactionXid)) {
+                continue;
+            }
+
+            Transaction transaction = findFromCache(transactionXid);
+            if (transaction != null) {
+                transactions.add(transaction);
+            } else {
+                missedXids.add(transactionXid);
+            }
+        }
+
+        getMetrics().cacheHits.add(transactions.size());
+        getMetrics().cacheMisses.add(missedXids.size());
+
+        if (!missedXids.isEmpty()) {
+            List<Transaction> foundTransactions;
+            long startTime = System.nanoTime();
+            try {
+                //批量查询缓存未命中的事务
+                foundTransactions = doFind(missedXids);
+            } finally {
+                getMetrics().findByXidsLatency.record(System.nanoTime() - startTime);
+            }
+
+            for (Transaction transaction : foundTransactions) {
+                //添加事务到缓存
+                putToCache(transaction);
+                transactions.add(transaction);
+            }
+        }
+
+        return transactions;
+    }
+
     /**
      * 获取超过指定时间的事务集合
      *
@@ -139,6 +313,28 @@ public abstract class CachableTransactionRepository implements TransactionReposi
         return transactions;
     }
 
+    /**
+     * 迭代获取超过指定时间的事务,支持分页扫描的存储器按页加载事务,迭代过程中内存占用有界
+     *
+     * @param date
+     * @return
+     */
+    @Override
+    public Iterator<Transaction> scanAllUnmodifiedSince(Date date) {
+        return doScanAllUnmodifiedSince(date);
+    }
+
+    /**
+     * 迭代获取超过指定时间的事务头部信息
+     *
+     * @param date
+     * @return
+     */
+    @Override
+    public Iterator<TransactionHeader> scanHeadersUnmodifiedSince(Date date) {
+        return doScanHeadersUnmodifiedSince(date);
+    }
+
     /**
      * 可缓存事务存储器构造方法,使用 Guava Cache内存缓存事务信息,默认设置最大缓存个数为 1000个,缓存过期时间为最后访问时间 120 秒
      */
@@ -146,6 +342,15 @@ public abstract class CachableTransactionRepository implements TransactionReposi
         transactionXidCompensableTransactionCache = CacheBuilder.newBuilder().expireAfterAccess(expireDuration, TimeUnit.SECONDS).maximumSize(1000).build();
     }
 
+    /**
+     * 记录事务序列化后字节数,由存储器在序列化事务后调用
+     *
+     * @param bytes
+     */
+    protected void recordPayloadSize(int bytes) {
+        getMetrics().payloadSize.record(bytes);
+    }
+
     /**
      * 添加事务到缓存
      *
@@ -174,10 +379,159 @@ public abstract class CachableTransactionRepository implements TransactionReposi
         return transactionXidCompensableTransactionCache.getIfPresent(transactionXid);
     }
 
+    /**
+     * 组提交是否生效,只有开启组提交且存储器支持批量写入时才经由组提交线程写入,
+     * 否则所有写操作将串行经过单个组提交线程逐个执行,反而降低吞吐
+     *
+     * @return
+     */
+    private boolean isGroupCommitActive() {
+        return groupCommitEnabled && isBatchWriteSupported();
+    }
+
     public void setExpireDuration(int durationInSeconds) {
         this.expireDuration = durationInSeconds;
     }
 
+    public void setGroupCommitEnabled(boolean groupCommitEnabled) {
+        this.groupCommitEnabled = groupCommitEnabled;
+    }
+
+    public void setGroupCommitWindowMicros(long groupCommitWindowMicros) {
+        this.groupCommitWindowMicros = groupCommitWindowMicros;
+    }
+
+    public void setGroupCommitMaxBatchSize(int groupCommitMaxBatchSize) {
+        this.groupCommitMaxBatchSize = groupCommitMaxBatchSize;
+    }
+
+    /**
+     * 设置指标实例名,需在存储器首次使用前设置
+     *
+     * @param metricName
+     */
+    public void setMetricName(String metricName) {
+        this.metricName = metricName;
+    }
+
+    /**
+     * 获取指标实例名,优先使用设置的指标实例名,其次使用存储器默认实例名,都不存在时使用实例序号
+     *
+     * @return
+     */
+    public String getMetricName() {
+        if (metricName != null) {
+            return metricName;
+        }
+
+        String defaultMetricName = getDefaultMetricName();
+        return defaultMetricName != null ? defaultMetricName : "instance" + instanceId;
+    }
+
+    /**
+     * 存储器默认指标实例名,例如域名、键前缀或根路径,由子类覆盖
+     *
+     * @return
+     */
+    protected String getDefaultMetricName() {
+        return null;
+    }
+
+    /**
+     * 获取存储器指标,首次使用时以"repository.存储器类全名.指标实例名"为前缀创建
+     *
+     * @return
+     */
+    private RepositoryMetrics getMetrics() {
+        if (metrics == null) {
+            synchronized (this) {
+                if (metrics == null) {
+                    metrics = new RepositoryMetrics("repository." + getClass().getName() + "." + getMetricName());
+                }
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * 获取组提交写入器,首次使用时创建
+     *
+     * @return
+     */
+    private GroupCommitWriter getGroupCommitWriter() {
+        if (groupCommitWriter == null) {
+            synchronized (this) {
+                if (groupCommitWriter == null) {
+                    groupCommitWriter = new GroupCommitWriter(this, groupCommitWindowMicros, groupCommitMaxBatchSize);
+                }
+            }
+        }
+        return groupCommitWriter;
+    }
+
+    /**
+     * 关闭组提交写入器,已提交的写请求会在关闭前完成刷写,
+     * 使用tcc-transaction.xml时由SpringTransactionConfigurator在容器关闭时调用,否则需由应用在停止前调用
+     */
+    public void close() {
+        if (groupCommitWriter != null) {
+            groupCommitWriter.close();
+        }
+    }
+
+    /**
+     * 存储器指标
+     */
+    private static class RepositoryMetrics {
+
+        /**
+         * 存储器操作耗时直方图,单位纳秒
+         */
+        private final Histogram createLatency;
+
+        private final Histogram updateLatency;
+
+        private final Histogram deleteLatency;
+
+        private final Histogram findLatency;
+
+        private final Histogram findByXidsLatency;
+
+        /**
+         * 事务序列化后字节数直方图
+         */
+        private final Histogram payloadSize;
+
+        /**
+         * 事务缓存命中、未命中计数器
+         */
+        private final Counter cacheHits;
+
+        private final Counter cacheMisses;
+
+        RepositoryMetrics(String metricPrefix) {
+            createLatency = Metrics.histogram(metricPrefix + ".create.latency");
+            updateLatency = Metrics.histogram(metricPrefix + ".update.latency");
+            deleteLatency = Metrics.histogram(metricPrefix + ".delete.latency");
+            findLatency = Metrics.histogram(metricPrefix + ".find.latency");
+            findByXidsLatency = Metrics.histogram(metricPrefix + ".findByXids.latency");
+            payloadSize = Metrics.histogram(metricPrefix + ".payload.bytes");
+            cacheHits = Metrics.counter(metricPrefix + ".cache.hits");
+            cacheMisses = Metrics.counter(metricPrefix + ".cache.misses");
+
+            final Counter hits = cacheHits;
+            final Counter misses = cacheMisses;
+            Metrics.gauge(metricPrefix + ".cache.hitRatio", new Gauge() {
+                @Override
+                public double getValue() {
+                    long hitCount = hits.getCount();
+                    long total = hitCount + misses.getCount();
+                    return total == 0 ? 0d : (double) hitCount / total;
+                }
+            });
+        }
+    }
+
     /**
      * 新增事务
      *
@@ -202,6 +556,58 @@ public abstract class CachableTransactionRepository implements TransactionReposi
      */
     protected abstract int doDelete(Transaction transaction);
 
+    /**
+     * 是否支持批量写入,支持批量写入的存储器需覆盖doCreateAll/doUpdateAll/doDeleteAll方法,
+     * 并保证批量写入抛出异常时批次中的写入均未生效,组提交只在支持批量写入时合并为一次批量写入
+     *
+     * @return
+     */
+    protected boolean isBatchWriteSupported() {
+        return false;
+    }
+
+    /**
+     * 批量新增事务,默认逐个新增,存储器支持批量写入时可覆盖该方法,返回结果与事务集合一一对应
+     *
+     * @param transactions
+     * @return
+     */
+    protected int[] doCreateAll(List<Transaction> transactions) {
+        int[] results = new int[transactions.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = doCreate(transactions.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * 批量更新事务,默认逐个更新,存储器支持批量写入时可覆盖该方法,返回结果与事务集合一一对应
+     *
+     * @param transactions
+     * @return
+     */
+    protected int[] doUpdateAll(List<Transaction> transactions) {
+        int[] results = new int[transactions.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = doUpdate(transactions.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * 批量删除事务,默认逐个删除,存储器支持批量写入时可覆盖该方法,返回结果与事务集合一一对应
+     *
+     * @param transactions
+     * @return
+     */
+    protected int[] doDeleteAll(List<Transaction> transactions) {
+        int[] results = new int[transactions.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = doDelete(transactions.get(i));
+        }
+        return results;
+    }
+
     /**
      * 根据事务编号查询事务
      *
@@ -210,6 +616,23 @@ public abstract class CachableTransactionRepository implements TransactionReposi
      */
     protected abstract Transaction doFindOne(Xid xid);
 
+    /**
+     * 根据事务编号集合批量查询事务,默认逐个查询,存储器支持批量读取时可覆盖该方法,返回存在的事务
+     *
+     * @param xids
+     * @return
+     */
+    protected List<Transaction> doFind(List<Xid> xids) {
+        List<Transaction> transactions = new ArrayList<Transaction>(xids.size());
+        for (Xid xid : xids) {
+            Transaction transaction = doFindOne(xid);
+            if (transaction != null) {
+                transactions.add(transaction);
+            }
+        }
+        return transactions;
+    }
+
     /**
      * 获取超过指定时间的事务集合
      *
@@ -217,4 +640,24 @@ public abstract class CachableTransactionRepository implements TransactionReposi
      * @return
      */
     protected abstract List<Transaction> doFindAllUnmodifiedSince(Date date);
+
+    /**
+     * 迭代获取超过指定时间的事务,默认一次性加载所有事务,存储器支持分页扫描时可覆盖该方法
+     *
+     * @param date
+     * @return
+     */
+    protected Iterator<Transaction> doScanAllUnmodifiedSince(Date date) {
+        return doFindAllUnmodifiedSince(date).iterator();
+    }
+
+    /**
+     * 迭代获取超过指定时间的事务头部信息,默认由已加载的事务创建,存储器支持只读取头部信息时可覆盖该方法
+     *
+     * @param date
+     * @return
+     */
+    protected Iterator<TransactionHeader> doScanHeadersUnmodifiedSince(Date date) {
+        return TransactionHeader.headersOf(doScanAllUnmodifiedSince(date));
+    }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package org.mengyun.tcctransaction.repository;
 
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
 import org.mengyun.tcctransaction.common.TransactionType;
 import org.mengyun.tcctransaction.repository.helper.TransactionSerializer;
 import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
@@ -22,6 +23,7 @@ import java.util.List;
  * 仅适用事务发布方或调用方应用节点为单节点场景,因为日志是存储在应用节点本地文件中
  * 生产上不建议使用FileSystemTransactionRepository因为分布式存储挂载文件,不支持多节点共享
  * this repository is suitable for single node, not for cluster nodes
+ * 事务文件名为事务编号的规范Key,升级前以MD5格式事务编号命名的文件在按编号查询或加载所有事务时重命名为规范Key
  */
 public class FileSystemTransactionRepository extends CachableTransactionRepository {
 
@@ -45,6 +47,11 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
         this.rootPath = rootPath;
     }
 
+    @Override
+    protected String getDefaultMetricName() {
+        return rootPath;
+    }
+
     /**
      * 新增事务
      *
@@ -107,6 +114,12 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
             return readTransaction(file);
         }
 
+        //规范文件名不存在时兼容读取升级前的文件,存在则重命名为规范文件名
+        File legacyFile = new File(String.format("%s/%s", rootPath, xid));
+        if (legacyFile.exists()) {
+            return readTransaction(legacyFile.renameTo(file) ? file : legacyFile);
+        }
+
         return null;
     }
 
@@ -144,6 +157,15 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
         for (File file : files) {
             Transaction transaction = readTransaction(file);
             transactions.add(transaction);
+
+            //升级前的文件重命名为规范文件名,规范文件已存在时保留旧文件
+            String fileName = TransactionXid.keyOf(transaction.getXid());
+            if (!file.getName().equals(fileName)) {
+                File canonicalFile = new File(path, fileName);
+                if (!canonicalFile.exists()) {
+                    file.renameTo(canonicalFile);
+                }
+            }
         }
 
         return transactions;
@@ -156,7 +178,7 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
      * @return
      */
     private String getFullFileName(Xid xid) {
-        return String.format("%s/%s", rootPath, xid);
+        return String.format("%s/%s", rootPath, TransactionXid.keyOf(xid));
     }
 
     /**
@@ -197,6 +219,7 @@ public class FileSystemTransactionRepository extends CachableTransactionReposito
         RandomAccessFile raf = null;
 
         byte[] content = TransactionSerializer.serialize(serializer, transaction);
+        recordPayloadSize(content.length);
         try {
             raf = new RandomAccessFile(file, "rw");
             channel = raf.getChannel();
@@ -0,0 +1,305 @@
+package org.mengyun.tcctransaction.repository;
+
+import org.apache.log4j.Logger;
+import org.mengyun.tcctransaction.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 组提交写入器,用于将多个线程并发提交的事务写操作(新增、更新、删除)合并为一次批量刷写,
+ * 刷写线程在首个写请求到达后等待一个提交窗口收集更多写请求,然后按操作类型分组调用可缓存事务存储器的批量写入方法,
+ * 调用方线程阻塞直到所在批次刷写完成,保证每个调用方的持久化语义不变
+ */
+class GroupCommitWriter {
+
+    static final Logger logger = Logger.getLogger(GroupCommitWriter.class.getSimpleName());
+
+    /**
+     * 写操作类型
+     */
+    enum Operation {
+        CREATE,
+        UPDATE,
+        DELETE
+    }
+
+    /**
+     * 关闭信号,用于唤醒等待写请求的刷写线程,不会被刷写
+     */
+    private static final WriteRequest CLOSE_SIGNAL = new WriteRequest(null, null);
+
+    /**
+     * 关闭时等待刷写线程完成剩余写请求的最长时间,单位毫秒
+     */
+    private static final long CLOSE_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * 可缓存事务存储器
+     */
+    private final CachableTransactionRepository repository;
+
+    /**
+     * 提交窗口,单位纳秒
+     */
+    private final long windowNanos;
+
+    /**
+     * 单批次最大写请求数量
+     */
+    private final int maxBatchSize;
+
+    /**
+     * 待刷写写请求队列
+     */
+    private final LinkedBlockingQueue<WriteRequest> queue = new LinkedBlockingQueue<WriteRequest>();
+
+    private final Thread flusher;
+
+    private volatile boolean running = true;
+
+    GroupCommitWriter(CachableTransactionRepository repository, long windowMicros, int maxBatchSize) {
+        this.repository = repository;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxBatchSize = maxBatchSize;
+
+        this.flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, "tcc-group-commit-" + repository.getClass().getSimpleName());
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * 提交写请求并等待所在批次刷写完成
+     *
+     * @param operation
+     * @param transaction
+     * @return
+     */
+    int write(Operation operation, Transaction transaction) {
+        if (!running) {
+            throw new TransactionIOException("group commit writer has been closed");
+        }
+
+        WriteRequest request = new WriteRequest(operation, transaction);
+        queue.offer(request);
+
+        //入队前写入器被关闭时刷写线程可能已退出,写请求仍在队列中说明未被刷写线程取走,不会再被刷写
+        if (!running && queue.remove(request)) {
+            throw new TransactionIOException("group commit writer has been closed");
+        }
+        return request.await();
+    }
+
+    /**
+     * 关闭写入器,已提交的写请求会在刷写线程退出前完成刷写,关闭后仍未刷写的写请求以异常结束
+     */
+    void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        queue.offer(CLOSE_SIGNAL);
+
+        if (Thread.currentThread() != flusher) {
+            try {
+                flusher.join(CLOSE_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void flushLoop() {
+        List<WriteRequest> batch = new ArrayList<WriteRequest>();
+
+        while (running || !queue.isEmpty()) {
+            try {
+                WriteRequest first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null || first == CLOSE_SIGNAL) {
+                    continue;
+                }
+                batch.add(first);
+
+                //在提交窗口内收集更多写请求
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        queue.drainTo(batch, maxBatchSize - batch.size());
+                        break;
+                    }
+
+                    WriteRequest next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null || next == CLOSE_SIGNAL) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                //被中断时继续刷写已收集的写请求
+                queue.drainTo(batch, maxBatchSize - batch.size());
+            }
+
+            batch.remove(CLOSE_SIGNAL);
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+
+        failPending();
+    }
+
+    /**
+     * 刷写线程退出后以异常结束队列中剩余的写请求,避免调用方无限等待
+     */
+    private void failPending() {
+        List<WriteRequest> pending = new ArrayList<WriteRequest>();
+        queue.drainTo(pending);
+        for (WriteRequest request : pending) {
+            if (request != CLOSE_SIGNAL) {
+                request.fail(new TransactionIOException("group commit writer has been closed"));
+            }
+        }
+    }
+
+    /**
+     * 按操作类型分组刷写,同一事务的写请求由调用方串行提交,不会出现在同一批次,因此分组不会改变写入顺序
+     *
+     * @param batch
+     */
+    private void flush(List<WriteRequest> batch) {
+        for (Operation operation : Operation.values()) {
+            List<WriteRequest> requests = new ArrayList<WriteRequest>();
+            for (WriteRequest request : batch) {
+                if (request.operation == operation) {
+                    requests.add(request);
+                }
+            }
+
+            if (!requests.isEmpty()) {
+                flush(operation, requests);
+            }
+        }
+    }
+
+    private void flush(Operation operation, List<WriteRequest> requests) {
+        //存储器不支持批量写入时逐个写入
+        if (requests.size() == 1 || !repository.isBatchWriteSupported()) {
+            writeOneByOne(operation, requests);
+            return;
+        }
+
+        List<Transaction> transactions = new ArrayList<Transaction>(requests.size());
+        for (WriteRequest request : requests) {
+            transactions.add(request.transaction);
+        }
+
+        int[] results;
+        try {
+            results = doWriteAll(operation, transactions);
+
+            if (results == null || results.length != requests.size()) {
+                throw new TransactionIOException("batch write result count does not match the request count");
+            }
+        } catch (Throwable batchException) {
+            //批量写入失败,逐个写入使每个调用方获得各自的结果或异常
+            logger.warn(String.format("group commit %s of %d transactions failed, fall back to write one by one.", operation, requests.size()), batchException);
+
+            writeOneByOne(operation, requests);
+            return;
+        }
+
+        for (int i = 0; i < requests.size(); i++) {
+            requests.get(i).complete(results[i]);
+        }
+    }
+
+    private void writeOneByOne(Operation operation, List<WriteRequest> requests) {
+        for (WriteRequest request : requests) {
+            try {
+                request.complete(doWrite(operation, request.transaction));
+            } catch (Throwable e) {
+                request.fail(e);
+            }
+        }
+    }
+
+    private int[] doWriteAll(Operation operation, List<Transaction> transactions) {
+        switch (operation) {
+            case CREATE:
+                return repository.doCreateAll(transactions);
+            case UPDATE:
+                return repository.doUpdateAll(transactions);
+            default:
+                return repository.doDeleteAll(transactions);
+        }
+    }
+
+    private int doWrite(Operation operation, Transaction transaction) {
+        switch (operation) {
+            case CREATE:
+                return repository.doCreate(transaction);
+            case UPDATE:
+                return repository.doUpdate(transaction);
+            default:
+                return repository.doDelete(transaction);
+        }
+    }
+
+    /**
+     * 写请求
+     */
+    static class WriteRequest {
+
+        private final Operation operation;
+
+        private final Transaction transaction;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile int result;
+
+        private volatile Throwable exception;
+
+        WriteRequest(Operation operation, Transaction transaction) {
+            this.operation = operation;
+            this.transaction = transaction;
+        }
+
+        void complete(int result) {
+            this.result = result;
+            done.countDown();
+        }
+
+        void fail(Throwable exception) {
+            this.exception = exception;
+            done.countDown();
+        }
+
+        int await() {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TransactionIOException(e);
+            }
+
+            if (exception != null) {
+                if (exception instanceof RuntimeException) {
+                    throw (RuntimeException) exception;
+                }
+                throw new TransactionIOException(exception);
+            }
+            return result;
+        }
+    }
+}
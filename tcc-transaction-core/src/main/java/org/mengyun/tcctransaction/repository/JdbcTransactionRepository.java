@@ -1,7 +1,11 @@
 package org.mengyun.tcctransaction.repository;
 
+import org.apache.log4j.Logger;
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionHeader;
 import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
 import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
 import org.mengyun.tcctransaction.utils.CollectionUtils;
@@ -12,13 +16,17 @@ import javax.transaction.xa.Xid;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * JDBC事务存储器,用于通过JDBC驱动将事务存储到MySQL/Oracle/PostgreSQL/SQLServer等关系数据库
  */
 public class JdbcTransactionRepository extends CachableTransactionRepository {
 
+    static final Logger logger = Logger.getLogger(JdbcTransactionRepository.class.getSimpleName());
+
     /**
      * 领域,用于唯一标识一个资源
      */
@@ -39,12 +47,37 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
      */
     private ObjectSerializer serializer = new JdkSerializationSerializer();
 
+    /**
+     * 恢复扫描每页事务数量,默认为200
+     */
+    private int recoveryFetchSize = 200;
+
+    /**
+     * 批量查询每条SQL语句的事务编号数量,默认为200,避免参数个数超过数据库限制(例如SQLServer单条语句最多2100个参数)
+     */
+    private int findBatchSize = 200;
+
+    /**
+     * 缓存的新增、更新、删除SQL语句,表后缀或领域变更时重置
+     */
+    private volatile String insertSql;
+
+    private volatile String updateSql;
+
+    private volatile String deleteSql;
+
+    /**
+     * 是否支持批量写入,首次判断时获取一次连接确定,数据源变更时重置
+     */
+    private volatile Boolean batchWriteSupported;
+
     public String getDomain() {
         return domain;
     }
 
     public void setDomain(String domain) {
         this.domain = domain;
+        resetSql();
     }
 
     public String getTbSuffix() {
@@ -53,6 +86,23 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
 
     public void setTbSuffix(String tbSuffix) {
         this.tbSuffix = tbSuffix;
+        resetSql();
+    }
+
+    @Override
+    protected String getDefaultMetricName() {
+        return domain != null ? domain : tbSuffix;
+    }
+
+    public void setRecoveryFetchSize(int recoveryFetchSize) {
+        this.recoveryFetchSize = recoveryFetchSize;
+    }
+
+    public void setFindBatchSize(int findBatchSize) {
+        if (findBatchSize < 1) {
+            throw new IllegalArgumentException(String.format("findBatchSize must be greater than 0, but was %d", findBatchSize));
+        }
+        this.findBatchSize = findBatchSize;
     }
 
     public void setSerializer(ObjectSerializer serializer) {
@@ -61,6 +111,7 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
 
     public void setDataSource(DataSource dataSource) {
         this.dataSource = dataSource;
+        this.batchWriteSupported = null;
     }
 
     public DataSource getDataSource() {
@@ -80,27 +131,9 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         try {
             connection = this.getConnection();
 
-            StringBuilder builder = new StringBuilder();
-            builder.append("INSERT INTO " + getTableName() +
-                    "(GLOBAL_TX_ID,BRANCH_QUALIFIER,TRANSACTION_TYPE,CONTENT,STATUS,RETRIED_COUNT,CREATE_TIME,LAST_UPDATE_TIME,VERSION");
-            builder.append(StringUtils.isNotEmpty(domain) ? ",DOMAIN ) VALUES (?,?,?,?,?,?,?,?,?,?)" : ") VALUES (?,?,?,?,?,?,?,?,?)");
-
-            stmt = connection.prepareStatement(builder.toString());
+            stmt = connection.prepareStatement(getInsertSql());
 
-            stmt.setBytes(1, transaction.getXid().getGlobalTransactionId());
-            stmt.setBytes(2, transaction.getXid().getBranchQualifier());
-            stmt.setInt(3, transaction.getTransactionType().getId());
-            //序列化事务
-            stmt.setBytes(4, serializer.serialize(transaction));
-            stmt.setInt(5, transaction.getStatus().getId());
-            stmt.setInt(6, transaction.getRetriedCount());
-            stmt.setTimestamp(7, new java.sql.Timestamp(transaction.getCreateTime().getTime()));
-            stmt.setTimestamp(8, new java.sql.Timestamp(transaction.getLastUpdateTime().getTime()));
-            stmt.setLong(9, transaction.getVersion());
-
-            if (StringUtils.isNotEmpty(domain)) {
-                stmt.setString(10, domain);
-            }
+            setCreateParameters(stmt, transaction);
 
             return stmt.executeUpdate();
         } catch (SQLException e) {
@@ -132,26 +165,9 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         try {
             connection = this.getConnection();
 
-            StringBuilder builder = new StringBuilder();
-            builder.append("UPDATE " + getTableName() + " SET " +
-                    "CONTENT = ?,STATUS = ?,LAST_UPDATE_TIME = ?, RETRIED_COUNT = ?,VERSION = VERSION+1 WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? AND VERSION = ?");
+            stmt = connection.prepareStatement(getUpdateSql());
 
-            builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
-
-            stmt = connection.prepareStatement(builder.toString());
-
-            //序列化事务
-            stmt.setBytes(1, serializer.serialize(transaction));
-            stmt.setInt(2, transaction.getStatus().getId());
-            stmt.setTimestamp(3, new Timestamp(transaction.getLastUpdateTime().getTime()));
-            stmt.setInt(4, transaction.getRetriedCount());
-            stmt.setBytes(5, transaction.getXid().getGlobalTransactionId());
-            stmt.setBytes(6, transaction.getXid().getBranchQualifier());
-            stmt.setLong(7, currentVersion);
-
-            if (StringUtils.isNotEmpty(domain)) {
-                stmt.setString(8, domain);
-            }
+            setUpdateParameters(stmt, transaction, currentVersion);
 
             int result = stmt.executeUpdate();
 
@@ -179,20 +195,9 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         try {
             connection = this.getConnection();
 
-            StringBuilder builder = new StringBuilder();
-            builder.append("DELETE FROM " + getTableName() +
-                    " WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?");
-
-            builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
-
-            stmt = connection.prepareStatement(builder.toString());
+            stmt = connection.prepareStatement(getDeleteSql());
 
-            stmt.setBytes(1, transaction.getXid().getGlobalTransactionId());
-            stmt.setBytes(2, transaction.getXid().getBranchQualifier());
-
-            if (StringUtils.isNotEmpty(domain)) {
-                stmt.setString(3, domain);
-            }
+            setDeleteParameters(stmt, transaction);
 
             return stmt.executeUpdate();
         } catch (SQLException e) {
@@ -203,6 +208,157 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
         }
     }
 
+    /**
+     * 数据源返回自动提交的连接时支持批量写入,由存储器提交或回滚批处理,保证批处理失败时批次中的写入均未生效;
+     * 连接由调用方管理事务时批处理失败无法撤销已执行的写入,写操作在调用方线程中直接执行;
+     * 每次写入都会调用该方法,因此只在首次调用时获取一次连接判断,之后每个批次在#beginBatch()中以已获取的连接再次确认
+     *
+     * @return
+     */
+    @Override
+    protected boolean isBatchWriteSupported() {
+        Boolean supported = batchWriteSupported;
+        if (supported == null) {
+            Connection connection = this.getConnection();
+            try {
+                supported = connection.getAutoCommit();
+            } catch (SQLException e) {
+                throw new TransactionIOException(e);
+            } finally {
+                this.releaseConnection(connection);
+            }
+            batchWriteSupported = supported;
+        }
+        return supported;
+    }
+
+    /**
+     * 批量新增事务,使用同一连接通过JDBC批处理执行
+     *
+     * @param transactions
+     * @return
+     */
+    @Override
+    protected int[] doCreateAll(List<Transaction> transactions) {
+        if (CollectionUtils.isEmpty(transactions)) {
+            return new int[0];
+        }
+
+        Connection connection = beginBatch();
+        if (connection == null) {
+            return super.doCreateAll(transactions);
+        }
+
+        PreparedStatement stmt = null;
+
+        try {
+            stmt = connection.prepareStatement(getInsertSql());
+
+            for (Transaction transaction : transactions) {
+                setCreateParameters(stmt, transaction);
+                stmt.addBatch();
+            }
+
+            return executeBatch(connection, stmt);
+        } catch (Throwable e) {
+            rollbackBatch(connection);
+            throw new TransactionIOException(e);
+        } finally {
+            endBatch(connection, stmt);
+        }
+    }
+
+    /**
+     * 批量更新事务,使用同一连接通过JDBC批处理执行,失败时恢复所有事务的最后更新时间和版本号
+     *
+     * @param transactions
+     * @return
+     */
+    @Override
+    protected int[] doUpdateAll(List<Transaction> transactions) {
+        if (CollectionUtils.isEmpty(transactions)) {
+            return new int[0];
+        }
+
+        Connection connection = beginBatch();
+        if (connection == null) {
+            return super.doUpdateAll(transactions);
+        }
+
+        java.util.Date[] lastUpdateTimes = new java.util.Date[transactions.size()];
+        long[] currentVersions = new long[transactions.size()];
+
+        for (int i = 0; i < transactions.size(); i++) {
+            Transaction transaction = transactions.get(i);
+            lastUpdateTimes[i] = transaction.getLastUpdateTime();
+            currentVersions[i] = transaction.getVersion();
+
+            //设置事务最后更新时间
+            transaction.updateTime();
+            //设置事务最新版本号
+            transaction.updateVersion();
+        }
+
+        PreparedStatement stmt = null;
+
+        try {
+            stmt = connection.prepareStatement(getUpdateSql());
+
+            for (int i = 0; i < transactions.size(); i++) {
+                setUpdateParameters(stmt, transactions.get(i), currentVersions[i]);
+                stmt.addBatch();
+            }
+
+            return executeBatch(connection, stmt);
+        } catch (Throwable e) {
+            rollbackBatch(connection);
+
+            for (int i = 0; i < transactions.size(); i++) {
+                transactions.get(i).setLastUpdateTime(lastUpdateTimes[i]);
+                transactions.get(i).setVersion(currentVersions[i]);
+            }
+            throw new TransactionIOException(e);
+        } finally {
+            endBatch(connection, stmt);
+        }
+    }
+
+    /**
+     * 批量删除事务,使用同一连接通过JDBC批处理执行
+     *
+     * @param transactions
+     * @return
+     */
+    @Override
+    protected int[] doDeleteAll(List<Transaction> transactions) {
+        if (CollectionUtils.isEmpty(transactions)) {
+            return new int[0];
+        }
+
+        Connection connection = beginBatch();
+        if (connection == null) {
+            return super.doDeleteAll(transactions);
+        }
+
+        PreparedStatement stmt = null;
+
+        try {
+            stmt = connection.prepareStatement(getDeleteSql());
+
+            for (Transaction transaction : transactions) {
+                setDeleteParameters(stmt, transaction);
+                stmt.addBatch();
+            }
+
+            return executeBatch(connection, stmt);
+        } catch (Throwable e) {
+            rollbackBatch(connection);
+            throw new TransactionIOException(e);
+        } finally {
+            endBatch(connection, stmt);
+        }
+    }
+
     /**
      * 根据事务编号查询事务
      *
@@ -261,11 +417,100 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
     }
 
     /**
-     * 根据事务编号集合查询事务集合
+     * 按(LAST_UPDATE_TIME, GLOBAL_TX_ID, BRANCH_QUALIFIER)键集分页扫描超过指定时间的事务,
+     * 每次只加载一页事务,迭代完当前页后再查询下一页,恢复大量积压事务时内存占用有界
+     *
+     * @param date
+     * @return
+     */
+    @Override
+    protected Iterator<Transaction> doScanAllUnmodifiedSince(java.util.Date date) {
+        return TransactionHeader.transactionsOf(new KeysetPageIterator(date, true));
+    }
+
+    /**
+     * 按键集分页扫描超过指定时间的事务头部信息,头部信息由索引列构造,不查询事务内容列,
+     * 事务内容在调用TransactionHeader#getTransaction()时才按事务编号查询并反序列化
+     *
+     * @param date
+     * @return
+     */
+    @Override
+    protected Iterator<TransactionHeader> doScanHeadersUnmodifiedSince(java.util.Date date) {
+        return new KeysetPageIterator(date, false);
+    }
+
+    /**
+     * 查询下一页超过指定时间的事务头部信息,游标为空时查询第一页
+     *
+     * @param date
+     * @param cursor
+     * @param withContent 是否同时查询事务内容列
+     * @param headers
+     * @return 本页最后一行的游标,本页为空时返回null
+     */
+    private PageCursor findPageUnmodifiedSince(java.util.Date date, PageCursor cursor, boolean withContent, List<TransactionHeader> headers) {
+        Connection connection = null;
+        PreparedStatement stmt = null;
+
+        try {
+            connection = this.getConnection();
+
+            StringBuilder builder = new StringBuilder();
+            builder.append("SELECT GLOBAL_TX_ID, BRANCH_QUALIFIER, STATUS,TRANSACTION_TYPE,CREATE_TIME,LAST_UPDATE_TIME,RETRIED_COUNT,VERSION");
+            builder.append(withContent ? ",CONTENT" : "");
+            builder.append("  FROM " + getTableName() + " WHERE LAST_UPDATE_TIME < ?");
+            builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+
+            if (cursor != null) {
+                builder.append(" AND (LAST_UPDATE_TIME > ? OR (LAST_UPDATE_TIME = ? AND (GLOBAL_TX_ID > ? OR (GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER > ?))))");
+            }
+
+            builder.append(" ORDER BY LAST_UPDATE_TIME, GLOBAL_TX_ID, BRANCH_QUALIFIER");
+
+            stmt = connection.prepareStatement(builder.toString());
+            //通过最大行数限制分页大小,避免使用数据库方言的LIMIT语法
+            stmt.setMaxRows(recoveryFetchSize);
+            stmt.setFetchSize(recoveryFetchSize);
+
+            int i = 0;
+            stmt.setTimestamp(++i, new Timestamp(date.getTime()));
+
+            if (StringUtils.isNotEmpty(domain)) {
+                stmt.setString(++i, domain);
+            }
+
+            if (cursor != null) {
+                stmt.setTimestamp(++i, cursor.lastUpdateTime);
+                stmt.setTimestamp(++i, cursor.lastUpdateTime);
+                stmt.setBytes(++i, cursor.globalTransactionId);
+                stmt.setBytes(++i, cursor.globalTransactionId);
+                stmt.setBytes(++i, cursor.branchQualifier);
+            }
+
+            ResultSet resultSet = stmt.executeQuery();
+
+            PageCursor lastCursor = null;
+            while (resultSet.next()) {
+                headers.add(constructTransactionHeader(resultSet, withContent));
+                lastCursor = new PageCursor(resultSet.getTimestamp(6), resultSet.getBytes(1), resultSet.getBytes(2));
+            }
+            return lastCursor;
+        } catch (Throwable e) {
+            throw new TransactionIOException(e);
+        } finally {
+            closeStatement(stmt);
+            this.releaseConnection(connection);
+        }
+    }
+
+    /**
+     * 根据事务编号集合查询事务集合,按每批次事务编号数量分批查询
      *
      * @param xids
      * @return
      */
+    @Override
     protected List<Transaction> doFind(List<Xid> xids) {
         List<Transaction> transactions = new ArrayList<Transaction>();
 
@@ -273,6 +518,20 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
             return transactions;
         }
 
+        for (int fromIndex = 0; fromIndex < xids.size(); fromIndex += findBatchSize) {
+            findBatch(xids.subList(fromIndex, Math.min(fromIndex + findBatchSize, xids.size())), transactions);
+        }
+
+        return transactions;
+    }
+
+    /**
+     * 单条SQL语句查询一批事务编号对应的事务,多个事务编号条件以OR连接,兼容不支持行值IN语法的数据库
+     *
+     * @param xids
+     * @param transactions
+     */
+    private void findBatch(List<Xid> xids, List<Transaction> transactions) {
         Connection connection = null;
         PreparedStatement stmt = null;
 
@@ -282,16 +541,15 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
             StringBuilder builder = new StringBuilder();
             builder.append("SELECT GLOBAL_TX_ID, BRANCH_QUALIFIER, CONTENT,STATUS,TRANSACTION_TYPE,CREATE_TIME,LAST_UPDATE_TIME,RETRIED_COUNT,VERSION");
             builder.append(StringUtils.isNotEmpty(domain) ? ",DOMAIN" : "");
-            builder.append("  FROM " + getTableName() + " WHERE");
-
-            if (!CollectionUtils.isEmpty(xids)) {
-                for (Xid xid : xids) {
-                    builder.append(" ( GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? ) OR");
-                }
+            builder.append("  FROM " + getTableName() + " WHERE (");
 
-                builder.delete(builder.length() - 2, builder.length());
+            for (int j = 0; j < xids.size(); j++) {
+                builder.append(j == 0 ? "" : " OR").append(" ( GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? )");
             }
 
+            //多个事务编号条件整体加括号,保证领域条件作用于所有事务编号
+            builder.append(" )");
+
             builder.append(StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
 
             stmt = connection.prepareStatement(builder.toString());
@@ -316,8 +574,6 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
             closeStatement(stmt);
             this.releaseConnection(connection);
         }
-
-        return transactions;
     }
 
     /**
@@ -329,16 +585,207 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
      */
     protected void constructTransactions(ResultSet resultSet, List<Transaction> transactions) throws SQLException {
         while (resultSet.next()) {
-            byte[] transactionBytes = resultSet.getBytes(3);
-            Transaction transaction = (Transaction) serializer.deserialize(transactionBytes);
-            transaction.changeStatus(TransactionStatus.valueOf(resultSet.getInt(4)));
-            transaction.setLastUpdateTime(resultSet.getDate(7));
-            transaction.setVersion(resultSet.getLong(9));
-            transaction.resetRetriedCount(resultSet.getInt(8));
-            transactions.add(transaction);
+            transactions.add(constructTransaction(resultSet));
         }
     }
 
+    /**
+     * 根据结果集当前行构造事务
+     *
+     * @param resultSet
+     * @return
+     * @throws SQLException
+     */
+    protected Transaction constructTransaction(ResultSet resultSet) throws SQLException {
+        byte[] transactionBytes = resultSet.getBytes(3);
+        Transaction transaction = (Transaction) serializer.deserialize(transactionBytes);
+        transaction.changeStatus(TransactionStatus.valueOf(resultSet.getInt(4)));
+        transaction.setLastUpdateTime(resultSet.getDate(7));
+        transaction.setVersion(resultSet.getLong(9));
+        transaction.resetRetriedCount(resultSet.getInt(8));
+        return transaction;
+    }
+
+    /**
+     * 根据结果集当前行构造事务头部信息,结果集列依次为事务编号、状态、类型、创建时间、最后更新时间、重试次数、版本号以及可选的事务内容,
+     * 查询了事务内容时只读取字节,首次获取完整事务时才反序列化,否则首次获取完整事务时按事务编号查询,事务已被删除时返回null
+     *
+     * @param resultSet
+     * @param withContent
+     * @return
+     * @throws SQLException
+     */
+    protected TransactionHeader constructTransactionHeader(ResultSet resultSet, boolean withContent) throws SQLException {
+        final TransactionXid xid = new TransactionXid(resultSet.getBytes(1), resultSet.getBytes(2));
+        final byte[] transactionBytes = withContent ? resultSet.getBytes(9) : null;
+
+        return new TransactionHeader(xid,
+                TransactionStatus.valueOf(resultSet.getInt(3)),
+                TransactionType.valueOf(resultSet.getInt(4)),
+                resultSet.getInt(7),
+                new java.util.Date(resultSet.getTimestamp(5).getTime()),
+                new java.util.Date(resultSet.getTimestamp(6).getTime()),
+                resultSet.getLong(8)) {
+            @Override
+            protected Transaction loadTransaction() {
+                if (transactionBytes != null) {
+                    return (Transaction) serializer.deserialize(transactionBytes);
+                }
+                return doFindOne(xid);
+            }
+        };
+    }
+
+    private void setCreateParameters(PreparedStatement stmt, Transaction transaction) throws SQLException {
+        stmt.setBytes(1, transaction.getXid().getGlobalTransactionId());
+        stmt.setBytes(2, transaction.getXid().getBranchQualifier());
+        stmt.setInt(3, transaction.getTransactionType().getId());
+        //序列化事务
+        byte[] content = serializer.serialize(transaction);
+        recordPayloadSize(content.length);
+        stmt.setBytes(4, content);
+        stmt.setInt(5, transaction.getStatus().getId());
+        stmt.setInt(6, transaction.getRetriedCount());
+        stmt.setTimestamp(7, new java.sql.Timestamp(transaction.getCreateTime().getTime()));
+        stmt.setTimestamp(8, new java.sql.Timestamp(transaction.getLastUpdateTime().getTime()));
+        stmt.setLong(9, transaction.getVersion());
+
+        if (StringUtils.isNotEmpty(domain)) {
+            stmt.setString(10, domain);
+        }
+    }
+
+    private void setUpdateParameters(PreparedStatement stmt, Transaction transaction, long currentVersion) throws SQLException {
+        //序列化事务
+        byte[] content = serializer.serialize(transaction);
+        recordPayloadSize(content.length);
+        stmt.setBytes(1, content);
+        stmt.setInt(2, transaction.getStatus().getId());
+        stmt.setTimestamp(3, new Timestamp(transaction.getLastUpdateTime().getTime()));
+        stmt.setInt(4, transaction.getRetriedCount());
+        stmt.setBytes(5, transaction.getXid().getGlobalTransactionId());
+        stmt.setBytes(6, transaction.getXid().getBranchQualifier());
+        stmt.setLong(7, currentVersion);
+
+        if (StringUtils.isNotEmpty(domain)) {
+            stmt.setString(8, domain);
+        }
+    }
+
+    private void setDeleteParameters(PreparedStatement stmt, Transaction transaction) throws SQLException {
+        stmt.setBytes(1, transaction.getXid().getGlobalTransactionId());
+        stmt.setBytes(2, transaction.getXid().getBranchQualifier());
+
+        if (StringUtils.isNotEmpty(domain)) {
+            stmt.setString(3, domain);
+        }
+    }
+
+    /**
+     * 开始批处理,获取连接并关闭自动提交,由存储器提交或回滚批处理,保证批处理失败时批次中的写入均未生效;
+     * 连接不是自动提交时说明由调用方管理事务(例如Spring事务同步的连接),批处理失败无法撤销已执行的写入,
+     * 释放连接并返回null,由调用方逐个写入
+     *
+     * @return
+     */
+    private Connection beginBatch() {
+        Connection connection = this.getConnection();
+        try {
+            if (connection.getAutoCommit()) {
+                connection.setAutoCommit(false);
+                return connection;
+            }
+        } catch (SQLException e) {
+            this.releaseConnection(connection);
+            throw new TransactionIOException(e);
+        }
+
+        this.releaseConnection(connection);
+        return null;
+    }
+
+    /**
+     * 执行并提交批处理,驱动返回Statement.SUCCESS_NO_INFO时视为写入一行
+     *
+     * @param connection
+     * @param stmt
+     * @return
+     * @throws SQLException
+     */
+    private int[] executeBatch(Connection connection, PreparedStatement stmt) throws SQLException {
+        int[] results = stmt.executeBatch();
+
+        connection.commit();
+
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == Statement.SUCCESS_NO_INFO) {
+                results[i] = 1;
+            }
+        }
+        return results;
+    }
+
+    private void rollbackBatch(Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            //ignore, the original exception will be thrown
+        }
+    }
+
+    /**
+     * 结束批处理,恢复连接的自动提交,无论恢复是否成功都释放连接,恢复失败不覆盖批处理的结果或异常
+     *
+     * @param connection
+     * @param stmt
+     */
+    private void endBatch(Connection connection, PreparedStatement stmt) {
+        try {
+            closeStatement(stmt);
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                logger.warn("restore auto commit of batch connection failed.", e);
+            } finally {
+                this.releaseConnection(connection);
+            }
+        }
+    }
+
+    private String getInsertSql() {
+        if (insertSql == null) {
+            insertSql = "INSERT INTO " + getTableName() +
+                    "(GLOBAL_TX_ID,BRANCH_QUALIFIER,TRANSACTION_TYPE,CONTENT,STATUS,RETRIED_COUNT,CREATE_TIME,LAST_UPDATE_TIME,VERSION" +
+                    (StringUtils.isNotEmpty(domain) ? ",DOMAIN ) VALUES (?,?,?,?,?,?,?,?,?,?)" : ") VALUES (?,?,?,?,?,?,?,?,?)");
+        }
+        return insertSql;
+    }
+
+    private String getUpdateSql() {
+        if (updateSql == null) {
+            updateSql = "UPDATE " + getTableName() + " SET " +
+                    "CONTENT = ?,STATUS = ?,LAST_UPDATE_TIME = ?, RETRIED_COUNT = ?,VERSION = VERSION+1 WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ? AND VERSION = ?" +
+                    (StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+        }
+        return updateSql;
+    }
+
+    private String getDeleteSql() {
+        if (deleteSql == null) {
+            deleteSql = "DELETE FROM " + getTableName() +
+                    " WHERE GLOBAL_TX_ID = ? AND BRANCH_QUALIFIER = ?" +
+                    (StringUtils.isNotEmpty(domain) ? " AND DOMAIN = ?" : "");
+        }
+        return deleteSql;
+    }
+
+    private void resetSql() {
+        insertSql = null;
+        updateSql = null;
+        deleteSql = null;
+    }
+
     /**
      * 获取数据源连接
      *
@@ -390,4 +837,76 @@ public class JdbcTransactionRepository extends CachableTransactionRepository {
     private String getTableName() {
         return StringUtils.isNotEmpty(tbSuffix) ? "TCC_TRANSACTION" + tbSuffix : "TCC_TRANSACTION";
     }
-}
\ No newline at end of file
+
+    /**
+     * 键集分页游标,记录上一页最后一行的排序键
+     */
+    private static class PageCursor {
+
+        private final Timestamp lastUpdateTime;
+
+        private final byte[] globalTransactionId;
+
+        private final byte[] branchQualifier;
+
+        PageCursor(Timestamp lastUpdateTime, byte[] globalTransactionId, byte[] branchQualifier) {
+            this.lastUpdateTime = lastUpdateTime;
+            this.globalTransactionId = globalTransactionId;
+            this.branchQualifier = branchQualifier;
+        }
+    }
+
+    /**
+     * 键集分页迭代器,当前页迭代完后按游标查询下一页,查询到空页时结束
+     */
+    private class KeysetPageIterator implements Iterator<TransactionHeader> {
+
+        private final java.util.Date date;
+
+        private final boolean withContent;
+
+        private PageCursor cursor;
+
+        private Iterator<TransactionHeader> page;
+
+        private boolean finished;
+
+        KeysetPageIterator(java.util.Date date, boolean withContent) {
+            this.date = date;
+            this.withContent = withContent;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (page == null || !page.hasNext()) {
+                if (finished) {
+                    return false;
+                }
+
+                List<TransactionHeader> headers = new ArrayList<TransactionHeader>(recoveryFetchSize);
+                PageCursor lastCursor = findPageUnmodifiedSince(date, cursor, withContent, headers);
+
+                if (lastCursor == null || headers.size() < recoveryFetchSize) {
+                    finished = true;
+                }
+
+                cursor = lastCursor;
+                page = headers.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public TransactionHeader next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -2,17 +2,26 @@ package org.mengyun.tcctransaction.repository;
 
 import org.apache.log4j.Logger;
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionHeader;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.repository.helper.ContentViewMode;
 import org.mengyun.tcctransaction.repository.helper.ExpandTransactionSerializer;
 import org.mengyun.tcctransaction.repository.helper.JedisCallback;
 import org.mengyun.tcctransaction.repository.helper.RedisHelper;
+import org.mengyun.tcctransaction.repository.helper.RedisScript;
 import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+import org.mengyun.tcctransaction.utils.ByteUtils;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.Tuple;
 
 import javax.transaction.xa.Xid;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Redis事务存储器,用于将事务存储到Redis,需配置redis服务器为AOF模式并在redis.conf中设置appendfsync为always以防止日志丢失
@@ -21,6 +30,13 @@ import java.util.*;
  * set below directives in your redis.conf
  * appendonly yes
  * appendfsync always
+ * <p/>
+ * 事务存储器同时维护一个按最后更新时间排序的有序集合索引,事务恢复按分值分页查询超时事务,避免使用KEYS扫描所有事务
+ * <p/>
+ * 事务Key为前缀加事务编号的规范Key,新增事务只写入规范Key;规范Key不存在时兼容读取、更新、删除升级前以MD5格式事务编号为Key的事务,
+ * 默认不重命名升级前的Key,保证共用Key前缀的旧版本节点仍能读写这些事务,所有节点升级后可开启legacyKeyMigrationEnabled将其重命名为规范Key
+ * <p/>
+ * 事务内容JSON视图(CONTENT_VIEW)默认不在写入时渲染,可通过contentViewMode配置为按采样率写入或关闭,参见ContentViewMode
  */
 public class RedisTransactionRepository extends CachableTransactionRepository {
 
@@ -40,6 +56,115 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
         this.keyPrefix = keyPrefix;
     }
 
+    @Override
+    protected String getDefaultMetricName() {
+        return keyPrefix;
+    }
+
+    /**
+     * 索引分页查询每页事务数量,默认为200
+     */
+    private int indexPageSize = 200;
+
+    public void setIndexPageSize(int indexPageSize) {
+        this.indexPageSize = indexPageSize;
+    }
+
+    /**
+     * 事务内容JSON视图模式,默认为ON_DEMAND,即写入事务时不渲染JSON,由管理后台打开事务时渲染
+     */
+    private ContentViewMode contentViewMode = ContentViewMode.ON_DEMAND;
+
+    public void setContentViewMode(ContentViewMode contentViewMode) {
+        this.contentViewMode = contentViewMode;
+    }
+
+    /**
+     * SAMPLED模式下的采样率,每N次写入渲染一次事务内容JSON视图,默认为100
+     */
+    private int contentViewSampleRate = 100;
+
+    public void setContentViewSampleRate(int contentViewSampleRate) {
+        this.contentViewSampleRate = contentViewSampleRate;
+    }
+
+    /**
+     * SAMPLED模式下的写入计数
+     */
+    private final AtomicLong contentViewWriteCount = new AtomicLong();
+
+    /**
+     * 是否将升级前的Key重命名为规范Key,默认关闭,重命名后旧版本节点无法再读写这些事务,需在所有节点升级后开启
+     */
+    private boolean legacyKeyMigrationEnabled = false;
+
+    public void setLegacyKeyMigrationEnabled(boolean legacyKeyMigrationEnabled) {
+        this.legacyKeyMigrationEnabled = legacyKeyMigrationEnabled;
+    }
+
+    /**
+     * 是否以毫秒数保存事务Hash中的创建时间与最后更新时间,默认关闭,以"yyyy-MM-dd HH:mm:ss"格式保存;
+     * 读取时两种格式均可解析,旧版本节点与管理后台只能读取后者,需在所有节点与管理后台升级后开启
+     */
+    private boolean epochMillisTimeEnabled = false;
+
+    public void setEpochMillisTimeEnabled(boolean epochMillisTimeEnabled) {
+        this.epochMillisTimeEnabled = epochMillisTimeEnabled;
+    }
+
+    /**
+     * 是否已将升级前未建立索引的事务补充到索引
+     */
+    private volatile boolean indexBackfilled = false;
+
+    /**
+     * 新增事务脚本,事务不存在时设置事务并以最后更新时间为分值加入索引,KEYS[1]为事务Key,KEYS[2]为索引Key,
+     * ARGV[1]为索引分值,其余参数为事务Hash的字段与值
+     */
+    private static final RedisScript CREATE_SCRIPT = new RedisScript("if redis.call('exists', KEYS[1]) == 0 then " +
+            "redis.call('hmset', KEYS[1], unpack(ARGV, 2)); " +
+            "redis.call('zadd', KEYS[2], ARGV[1], KEYS[1]); " +
+            "return 1; end; " +
+            "return 0;");
+
+    /**
+     * 更新事务脚本,当前版本号与期望版本号一致时更新事务并更新索引分值,实现类似乐观锁的更新,规范Key不存在时更新升级前的Key,
+     * KEYS[1]为事务Key,KEYS[2]为索引Key,KEYS[3]为升级前的事务Key,ARGV[1]为期望版本号,ARGV[2]为索引分值,
+     * ARGV[3]为1时删除之前写入的事务内容JSON视图,其余参数为事务Hash的字段与值
+     */
+    private static final RedisScript UPDATE_SCRIPT = new RedisScript("local key = KEYS[1]; " +
+            "if redis.call('exists', key) == 0 then key = KEYS[3]; end; " +
+            "if redis.call('hget', key, 'VERSION') == ARGV[1] then " +
+            "redis.call('hmset', key, unpack(ARGV, 4)); " +
+            "if ARGV[3] == '1' then redis.call('hdel', key, 'CONTENT_VIEW'); end; " +
+            "redis.call('zadd', KEYS[2], ARGV[2], key); " +
+            "return 1; end; " +
+            "return 0;");
+
+    /**
+     * 删除事务脚本,删除事务并从索引移除,同时删除升级前的Key,KEYS[1]为事务Key,KEYS[2]为索引Key,KEYS[3]为升级前的事务Key
+     */
+    private static final RedisScript DELETE_SCRIPT = new RedisScript("redis.call('zrem', KEYS[2], KEYS[1], KEYS[3]); " +
+            "if redis.call('del', KEYS[1], KEYS[3]) > 0 then return 1; end; " +
+            "return 0;");
+
+    /**
+     * 将升级前Key重命名为规范Key并迁移索引分值的脚本,KEYS[1]为旧Key,KEYS[2]为规范Key,KEYS[3]为索引Key
+     */
+    private static final RedisScript MIGRATE_KEY_SCRIPT = new RedisScript("if redis.call('exists', KEYS[1]) == 0 or redis.call('exists', KEYS[2]) == 1 then return 0; end; " +
+            "redis.call('rename', KEYS[1], KEYS[2]); " +
+            "local score = redis.call('zscore', KEYS[3], KEYS[1]); " +
+            "redis.call('zrem', KEYS[3], KEYS[1]); " +
+            "if score then redis.call('zadd', KEYS[3], score, KEYS[2]); end; " +
+            "return 1;");
+
+    /**
+     * 补充索引脚本,事务仍存在且未被索引时才加入索引,避免覆盖并发更新写入的最新分值,KEYS[1]为事务Key,KEYS[2]为索引Key,ARGV[1]为索引分值
+     */
+    private static final RedisScript BACKFILL_INDEX_SCRIPT = new RedisScript("if redis.call('exists', KEYS[1]) == 1 and not redis.call('zscore', KEYS[2], KEYS[1]) then " +
+            "redis.call('zadd', KEYS[2], ARGV[1], KEYS[1]); end; " +
+            "return 0;");
+
     /**
      * 序列化
      */
@@ -70,16 +195,11 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
 
                 @Override
                 public Long doInJedis(Jedis jedis) {
-                    List<byte[]> params = new ArrayList<byte[]>();
+                    List<byte[]> params = getIndexedParams(transaction, null);
 
-                    for (Map.Entry<byte[], byte[]> entry : ExpandTransactionSerializer.serialize(serializer, transaction).entrySet()) {
-                        params.add(entry.getKey());
-                        params.add(entry.getValue());
-                    }
-
-                    //根据Key前缀、事务编号获取Redis Key,使用 Redis HSETNX添加事务,不存在值则进行设置
-                    Object result = jedis.eval("if redis.call('exists', KEYS[1]) == 0 then redis.call('hmset', KEYS[1], unpack(ARGV)); return 1; end; return 0;".getBytes(),
-                            Arrays.asList(RedisHelper.getRedisKey(keyPrefix, transaction.getXid())), params);
+                    //根据Key前缀、事务编号获取Redis Key,事务不存在则进行设置,同时以最后更新时间为分值加入索引
+                    Object result = CREATE_SCRIPT.execute(jedis,
+                            Arrays.asList(RedisHelper.getRedisKey(keyPrefix, transaction.getXid()), RedisHelper.getIndexKey(keyPrefix)), params);
 
                     return (Long) result;
                 }
@@ -109,17 +229,12 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
                     //设置事务最新版本号
                     transaction.updateVersion();
 
-                    List<byte[]> params = new ArrayList<byte[]>();
+                    List<byte[]> params = getIndexedParams(transaction, ByteUtils.longToBytes(transaction.getVersion() - 1));
 
-                    for (Map.Entry<byte[], byte[]> entry : ExpandTransactionSerializer.serialize(serializer, transaction).entrySet()) {
-                        params.add(entry.getKey());
-                        params.add(entry.getValue());
-                    }
-
-                    //根据Key前缀、事务编号获取Redis Key,使用 Redis HSETNX更新事务,不存在当前版本的值则进行设置,实现类似乐观锁的更新
-                    Object result = jedis.eval(String.format("if redis.call('hget',KEYS[1],'VERSION') == '%s' then redis.call('hmset', KEYS[1], unpack(ARGV)); return 1; end; return 0;",
-                            transaction.getVersion() - 1).getBytes(),
-                            Arrays.asList(RedisHelper.getRedisKey(keyPrefix, transaction.getXid())), params);
+                    //根据Key前缀、事务编号获取Redis Key,当前版本号为期望版本号时更新事务,实现类似乐观锁的更新,同时更新索引分值
+                    Object result = UPDATE_SCRIPT.execute(jedis,
+                            Arrays.asList(RedisHelper.getRedisKey(keyPrefix, transaction.getXid()), RedisHelper.getIndexKey(keyPrefix),
+                                    RedisHelper.getLegacyRedisKey(keyPrefix, transaction.getXid())), params);
 
                     return (Long) result;
                 }
@@ -143,8 +258,12 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
             Long result = RedisHelper.execute(jedisPool, new JedisCallback<Long>() {
                 @Override
                 public Long doInJedis(Jedis jedis) {
-                    //根据Key前缀、事务编号获取Redis Key,按照Redis Key删除事务
-                    return jedis.del(RedisHelper.getRedisKey(keyPrefix, transaction.getXid()));
+                    //根据Key前缀、事务编号获取Redis Key,按照Redis Key删除事务并从索引移除
+                    Object result = DELETE_SCRIPT.execute(jedis,
+                            Arrays.asList(RedisHelper.getRedisKey(keyPrefix, transaction.getXid()), RedisHelper.getIndexKey(keyPrefix),
+                                    RedisHelper.getLegacyRedisKey(keyPrefix, transaction.getXid())), Collections.<byte[]>emptyList());
+
+                    return (Long) result;
                 }
             });
 
@@ -163,16 +282,25 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
     @Override
     protected Transaction doFindOne(final Xid xid) {
         try {
-            Long startTime = System.currentTimeMillis();
-
             Map<byte[], byte[]> content = RedisHelper.execute(jedisPool, new JedisCallback<Map<byte[], byte[]>>() {
                 @Override
                 public Map<byte[], byte[]> doInJedis(Jedis jedis) {
                     //根据Key前缀、事务编号获取Redis Key,使用 Redis HGETALL获取事务
-                    return jedis.hgetAll(RedisHelper.getRedisKey(keyPrefix, xid));
+                    byte[] key = RedisHelper.getRedisKey(keyPrefix, xid);
+                    Map<byte[], byte[]> content = jedis.hgetAll(key);
+                    if (content != null && content.size() > 0) {
+                        return content;
+                    }
+
+                    //规范Key不存在时兼容读取升级前的Key,开启迁移时重命名为规范Key
+                    byte[] legacyKey = RedisHelper.getLegacyRedisKey(keyPrefix, xid);
+                    content = jedis.hgetAll(legacyKey);
+                    if (legacyKeyMigrationEnabled && content != null && content.size() > 0) {
+                        MIGRATE_KEY_SCRIPT.execute(jedis, Arrays.asList(legacyKey, key, RedisHelper.getIndexKey(keyPrefix)), Collections.<byte[]>emptyList());
+                    }
+                    return content;
                 }
             });
-            logger.info("redis find cost time :" + (System.currentTimeMillis() - startTime));
 
             if (content != null && content.size() > 0) {
                 return ExpandTransactionSerializer.deserialize(serializer, content);
@@ -183,6 +311,77 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
         }
     }
 
+    /**
+     * 根据事务编号集合批量查询事务,使用 Redis Pipeline一次往返批量HGETALL规范Key,
+     * 规范Key不存在的事务再批量读取升级前的Key,开启迁移时重命名为规范Key
+     *
+     * @param xids
+     * @return
+     */
+    @Override
+    protected List<Transaction> doFind(final List<Xid> xids) {
+        try {
+            List<Map<byte[], byte[]>> contents = RedisHelper.execute(jedisPool, new JedisCallback<List<Map<byte[], byte[]>>>() {
+                @Override
+                public List<Map<byte[], byte[]>> doInJedis(Jedis jedis) {
+                    Pipeline pipeline = jedis.pipelined();
+                    for (Xid xid : xids) {
+                        pipeline.hgetAll(RedisHelper.getRedisKey(keyPrefix, xid));
+                    }
+                    List<Object> result = pipeline.syncAndReturnAll();
+
+                    List<Map<byte[], byte[]>> contents = new ArrayList<Map<byte[], byte[]>>(xids.size());
+                    List<Xid> missedXids = new ArrayList<Xid>();
+                    for (int i = 0; i < result.size(); i++) {
+                        Object data = result.get(i);
+                        if (data != null && ((Map<byte[], byte[]>) data).size() > 0) {
+                            contents.add((Map<byte[], byte[]>) data);
+                        } else {
+                            missedXids.add(xids.get(i));
+                        }
+                    }
+
+                    if (missedXids.isEmpty()) {
+                        return contents;
+                    }
+
+                    pipeline = jedis.pipelined();
+                    for (Xid xid : missedXids) {
+                        pipeline.hgetAll(RedisHelper.getLegacyRedisKey(keyPrefix, xid));
+                    }
+                    result = pipeline.syncAndReturnAll();
+
+                    List<Xid> legacyXids = new ArrayList<Xid>();
+                    for (int i = 0; i < result.size(); i++) {
+                        Object data = result.get(i);
+                        if (data != null && ((Map<byte[], byte[]>) data).size() > 0) {
+                            contents.add((Map<byte[], byte[]>) data);
+                            legacyXids.add(missedXids.get(i));
+                        }
+                    }
+
+                    if (legacyKeyMigrationEnabled && !legacyXids.isEmpty()) {
+                        MIGRATE_KEY_SCRIPT.load(jedis);
+                        pipeline = jedis.pipelined();
+                        for (Xid xid : legacyXids) {
+                            MIGRATE_KEY_SCRIPT.execute(pipeline, Arrays.asList(RedisHelper.getLegacyRedisKey(keyPrefix, xid), RedisHelper.getRedisKey(keyPrefix, xid), RedisHelper.getIndexKey(keyPrefix)), Collections.<byte[]>emptyList());
+                        }
+                        pipeline.sync();
+                    }
+                    return contents;
+                }
+            });
+
+            List<Transaction> transactions = new ArrayList<Transaction>(contents.size());
+            for (Map<byte[], byte[]> content : contents) {
+                transactions.add(ExpandTransactionSerializer.deserialize(serializer, content));
+            }
+            return transactions;
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
     /**
      * 获取超过指定时间的事务集合
      *
@@ -191,56 +390,312 @@ public class RedisTransactionRepository extends CachableTransactionRepository {
      */
     @Override
     protected List<Transaction> doFindAllUnmodifiedSince(Date date) {
-        //获取Redis存储的所有事务
-        List<Transaction> allTransactions = doFindAll();
-        //加载所有事务根据时间过滤
         List<Transaction> allUnmodifiedSince = new ArrayList<Transaction>();
-        for (Transaction transaction : allTransactions) {
-            if (transaction.getLastUpdateTime().compareTo(date) < 0) {
-                allUnmodifiedSince.add(transaction);
-            }
+
+        Iterator<Transaction> iterator = doScanAllUnmodifiedSince(date);
+        while (iterator.hasNext()) {
+            allUnmodifiedSince.add(iterator.next());
         }
 
         return allUnmodifiedSince;
     }
 
+    /**
+     * 按索引分值分页迭代超过指定时间的事务
+     *
+     * @param date
+     * @return
+     */
+    @Override
+    protected Iterator<Transaction> doScanAllUnmodifiedSince(Date date) {
+        return TransactionHeader.transactionsOf(doScanHeadersUnmodifiedSince(date));
+    }
+
+    /**
+     * 按索引分值分页迭代超过指定时间的事务头部信息,只读取头部字段与事务内容,不读取CONTENT_VIEW,
+     * 事务内容在调用TransactionHeader#getTransaction()时才反序列化
+     *
+     * @param date
+     * @return
+     */
+    @Override
+    protected Iterator<TransactionHeader> doScanHeadersUnmodifiedSince(Date date) {
+        backfillIndex();
+        return new IndexPageIterator(("(" + date.getTime()).getBytes());
+    }
+
     /**
      * 获取Redis存储的所有事务
      *
      * @return
      */
     protected List<Transaction> doFindAll() {
-        try {
-            final Set<byte[]> keys = RedisHelper.execute(jedisPool, new JedisCallback<Set<byte[]>>() {
+        backfillIndex();
 
-                @Override
-                public Set<byte[]> doInJedis(Jedis jedis) {
-                    return jedis.keys((keyPrefix + "*").getBytes());
+        List<Transaction> list = new ArrayList<Transaction>();
+
+        Iterator<Transaction> iterator = TransactionHeader.transactionsOf(new IndexPageIterator("+inf".getBytes()));
+        while (iterator.hasNext()) {
+            list.add(iterator.next());
+        }
+
+        return list;
+    }
+
+    /**
+     * 获取带索引分值的脚本参数,期望版本号不为空时(更新事务)第一个参数为期望版本号,之后为最后更新时间毫秒数,
+     * 再之后为是否删除之前写入的事务内容JSON视图,其余参数为事务Hash的字段与值
+     *
+     * @param transaction
+     * @param expectedVersion
+     * @return
+     */
+    private List<byte[]> getIndexedParams(Transaction transaction, byte[] expectedVersion) {
+        List<byte[]> params = new ArrayList<byte[]>(24);
+        boolean renderContentView = shouldRenderContentView();
+
+        if (expectedVersion != null) {
+            params.add(expectedVersion);
+        }
+        params.add(ByteUtils.longToBytes(transaction.getLastUpdateTime().getTime()));
+        if (expectedVersion != null) {
+            //SAMPLED模式未采样的写入保留上一次写入的视图,其他模式未渲染时删除升级前或切换模式前写入的视图,避免管理后台展示过期内容
+            params.add(ByteUtils.intToBytes(!renderContentView && contentViewMode != ContentViewMode.SAMPLED ? 1 : 0));
+        }
+
+        int payloadSize = ExpandTransactionSerializer.serialize(serializer, transaction, renderContentView, epochMillisTimeEnabled, params);
+        recordPayloadSize(payloadSize);
+        return params;
+    }
+
+    /**
+     * 判断本次写入是否渲染事务内容JSON视图
+     *
+     * @return
+     */
+    private boolean shouldRenderContentView() {
+        switch (contentViewMode) {
+            case SAMPLED:
+                return contentViewSampleRate <= 1 || contentViewWriteCount.getAndIncrement() % contentViewSampleRate == 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 将升级前未建立索引的事务补充到索引,开启迁移时同时将升级前Key重命名为规范Key,使用SCAN增量遍历避免阻塞Redis,每个事务存储器实例成功执行一次
+     */
+    private void backfillIndex() {
+        if (indexBackfilled) {
+            return;
+        }
+
+        synchronized (this) {
+            if (indexBackfilled) {
+                return;
+            }
+
+            try {
+                RedisHelper.execute(jedisPool, new JedisCallback<Object>() {
+                    @Override
+                    public Object doInJedis(Jedis jedis) {
+                        byte[] indexKey = RedisHelper.getIndexKey(keyPrefix);
+                        String cursor = "0";
+                        do {
+                            ScanResult<String> scanResult = jedis.scan(cursor, new ScanParams().match(keyPrefix + "*").count(indexPageSize));
+                            backfillIndex(jedis, indexKey, scanResult.getResult());
+                            cursor = scanResult.getStringCursor();
+                        } while (!cursor.equals("0"));
+                        return null;
+                    }
+                });
+
+                indexBackfilled = true;
+            } catch (Exception e) {
+                logger.warn("backfill redis transaction index failed, will try again at next recovery.", e);
+            }
+        }
+    }
+
+    private void backfillIndex(Jedis jedis, byte[] indexKey, List<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        Pipeline pipeline = jedis.pipelined();
+        for (String key : keys) {
+            pipeline.hmget(key.getBytes(), ExpandTransactionSerializer.LAST_UPDATE_TIME, ExpandTransactionSerializer.GLOBAL_TX_ID, ExpandTransactionSerializer.BRANCH_QUALIFIER);
+        }
+        List<Object> fieldValues = pipeline.syncAndReturnAll();
+
+        if (legacyKeyMigrationEnabled) {
+            MIGRATE_KEY_SCRIPT.load(jedis);
+        }
+        BACKFILL_INDEX_SCRIPT.load(jedis);
+        pipeline = jedis.pipelined();
+        for (int i = 0; i < keys.size(); i++) {
+            if (!(fieldValues.get(i) instanceof List)) {
+                continue;
+            }
+
+            List<byte[]> values = (List<byte[]>) fieldValues.get(i);
+            Object lastUpdateTime = values.get(0);
+            if (!(lastUpdateTime instanceof byte[])) {
+                continue;
+            }
+
+            byte[] key = keys.get(i).getBytes();
+            if (legacyKeyMigrationEnabled && values.get(1) != null && values.get(2) != null) {
+                byte[] canonicalKey = RedisHelper.getRedisKey(keyPrefix, new TransactionXid(values.get(1), values.get(2)));
+                if (!Arrays.equals(key, canonicalKey)) {
+                    //升级前Key重命名为规范Key,规范Key已存在时保留旧Key
+                    MIGRATE_KEY_SCRIPT.execute(pipeline, Arrays.asList(key, canonicalKey, indexKey), Collections.<byte[]>emptyList());
+                    key = canonicalKey;
                 }
-            });
+            }
 
-            return RedisHelper.execute(jedisPool, new JedisCallback<List<Transaction>>() {
-                @Override
-                public List<Transaction> doInJedis(Jedis jedis) {
-                    Pipeline pipeline = jedis.pipelined();
-                    for (final byte[] key : keys) {
-                        pipeline.hgetAll(key);
+            long score;
+            try {
+                score = ExpandTransactionSerializer.deserializeDate((byte[]) lastUpdateTime).getTime();
+            } catch (RuntimeException e) {
+                logger.warn(String.format("skip indexing transaction with illegal last update time, key:%s", keys.get(i)));
+                continue;
+            }
+
+            //事务仍存在且未被索引时才加入索引,避免覆盖并发更新写入的最新分值
+            BACKFILL_INDEX_SCRIPT.execute(pipeline, Arrays.asList(key, indexKey), Arrays.asList(ByteUtils.longToBytes(score)));
+        }
+        pipeline.sync();
+    }
+
+    /**
+     * 加载一页索引对应的事务头部信息,已不存在的事务从索引中移除
+     *
+     * @param keys
+     * @return
+     */
+    private List<TransactionHeader> loadHeaders(final List<byte[]> keys) {
+        if (keys.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        return RedisHelper.execute(jedisPool, new JedisCallback<List<TransactionHeader>>() {
+            @Override
+            public List<TransactionHeader> doInJedis(Jedis jedis) {
+                Pipeline pipeline = jedis.pipelined();
+                for (final byte[] key : keys) {
+                    pipeline.hmget(key, ExpandTransactionSerializer.HEADER_FIELDS);
+                }
+
+                List<Object> result = pipeline.syncAndReturnAll();
+                List<TransactionHeader> list = new ArrayList<TransactionHeader>();
+                List<byte[]> staleKeys = new ArrayList<byte[]>();
+                for (int i = 0; i < result.size(); i++) {
+                    Object data = result.get(i);
+                    //事务不存在时HMGET返回的字段值均为null
+                    if (data instanceof List && ((List<byte[]>) data).get(ExpandTransactionSerializer.HEADER_FIELDS.length - 1) != null) {
+                        list.add(ExpandTransactionSerializer.deserializeHeader(serializer, (List<byte[]>) data));
+                    } else {
+                        staleKeys.add(keys.get(i));
                     }
+                }
 
-                    List<Object> result = pipeline.syncAndReturnAll();
-                    List<Transaction> list = new ArrayList<Transaction>();
-                    for (Object data : result) {
-                        if (data != null && ((Map<byte[], byte[]>) data).size() > 0) {
-                            list.add(ExpandTransactionSerializer.deserialize(serializer, (Map<byte[], byte[]>) data));
-                        }
+                if (!staleKeys.isEmpty()) {
+                    jedis.zrem(RedisHelper.getIndexKey(keyPrefix), staleKeys.toArray(new byte[staleKeys.size()][]));
+                }
+
+                return list;
+            }
+        });
+    }
+
+    /**
+     * 索引分页迭代器,以上一页最后的分值作为下一页的起始分值,并跳过起始分值上已返回的成员,
+     * 迭代过程中事务被更新(分值增大)或删除不会导致遗漏
+     */
+    private class IndexPageIterator implements Iterator<TransactionHeader> {
+
+        private final byte[] maxScore;
+
+        private byte[] minScore = "-inf".getBytes();
+
+        private double boundaryScore = Double.NEGATIVE_INFINITY;
+
+        /**
+         * 分值等于起始分值且已返回的成员
+         */
+        private final Set<String> boundaryMembers = new HashSet<String>();
+
+        private Iterator<TransactionHeader> page;
+
+        private boolean finished;
+
+        IndexPageIterator(byte[] maxScore) {
+            this.maxScore = maxScore;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (page == null || !page.hasNext()) {
+                if (finished) {
+                    return false;
+                }
+                page = nextPage().iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public TransactionHeader next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private List<TransactionHeader> nextPage() {
+            final int count = Math.max(indexPageSize, 1) + boundaryMembers.size();
+
+            try {
+                Set<Tuple> tuples = RedisHelper.execute(jedisPool, new JedisCallback<Set<Tuple>>() {
+                    @Override
+                    public Set<Tuple> doInJedis(Jedis jedis) {
+                        return jedis.zrangeByScoreWithScores(RedisHelper.getIndexKey(keyPrefix), minScore, maxScore, 0, count);
                     }
+                });
 
-                    return list;
+                if (tuples.size() < count) {
+                    finished = true;
                 }
-            });
 
-        } catch (Exception e) {
-            throw new TransactionIOException(e);
+                List<byte[]> keys = new ArrayList<byte[]>();
+                for (Tuple tuple : tuples) {
+                    String member = new String(tuple.getBinaryElement());
+
+                    if (tuple.getScore() != boundaryScore) {
+                        boundaryScore = tuple.getScore();
+                        boundaryMembers.clear();
+                    } else if (boundaryMembers.contains(member)) {
+                        continue;
+                    }
+
+                    boundaryMembers.add(member);
+                    keys.add(tuple.getBinaryElement());
+                }
+
+                if (!tuples.isEmpty()) {
+                    minScore = String.valueOf((long) boundaryScore).getBytes();
+                }
+
+                return loadHeaders(keys);
+            } catch (Exception e) {
+                throw new TransactionIOException(e);
+            }
         }
     }
-}
\ No newline at end of file
+}
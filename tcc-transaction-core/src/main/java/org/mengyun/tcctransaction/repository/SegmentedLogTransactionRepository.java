@@ -0,0 +1,1270 @@
+package org.mengyun.tcctransaction.repository;
+
+import org.apache.log4j.Logger;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionHeader;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.helper.TransactionSerializer;
+import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+
+import javax.transaction.xa.Xid;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * 分段追加日志事务存储器,用于将事务的新增、更新、删除记录顺序追加到本地滚动分段文件
+ * 与FileSystemTransactionRepository一样仅适用于单节点场景,但不再为每个事务读写独立文件:
+ * 1. 所有写操作顺序追加到当前活动分段,并发写入的调用方共享一次fsync(组提交)
+ * 2. 内存中维护事务编号到最新记录位置以及事务头部信息的索引,查询事务只需一次定位读取,恢复扫描头部信息不读取记录
+ * 3. 后台线程从最老的分段开始合并压缩存活比例较低的已滚动分段,不持有追加写锁将仍存活的记录复制到临时文件并刷盘,只在替换分段文件与索引时短暂持有追加写锁
+ * 4. 启动时按顺序内存映射所有分段,只读取记录头部重建索引,截断活动分段尾部未完整写入的记录,已滚动的分段损坏时启动失败
+ * <p/>
+ * 记录格式: [int 记录体长度][int 记录体CRC32][byte 类型][long 版本号][long 最后更新时间毫秒数][long 创建时间毫秒数][byte 事务状态][byte 事务类型][int 重试次数]
+ * [short 全局事务编号长度][全局事务编号][short 分支事务编号长度][分支事务编号][事务内容]
+ */
+public class SegmentedLogTransactionRepository extends CachableTransactionRepository {
+
+    static final Logger logger = Logger.getLogger(SegmentedLogTransactionRepository.class.getSimpleName());
+
+    private static final String SEGMENT_FILE_SUFFIX = ".log";
+
+    /**
+     * 压缩中的临时分段文件后缀
+     */
+    private static final String COMPACTING_FILE_SUFFIX = ".compacting";
+
+    private static final byte RECORD_TYPE_PUT = 1;
+
+    private static final byte RECORD_TYPE_DELETE = 2;
+
+    /**
+     * 基准标记,位于压缩合并结果的开头,表示编号更小的分段已被合并,回放时丢弃
+     */
+    private static final byte RECORD_TYPE_BASE = 3;
+
+    /**
+     * 记录长度与CRC32所占字节数
+     */
+    private static final int RECORD_PREFIX_LENGTH = 8;
+
+    /**
+     * 记录体中事务编号之前的头部字节数:类型、版本号、最后更新时间、创建时间、事务状态、事务类型以及重试次数
+     */
+    private static final int RECORD_HEADER_LENGTH = 1 + 8 + 8 + 8 + 1 + 1 + 4;
+
+    /**
+     * 基准标记记录长度:记录长度、CRC32、头部以及两个空事务编号的长度
+     */
+    private static final int BASE_MARKER_LENGTH = RECORD_PREFIX_LENGTH + RECORD_HEADER_LENGTH + 2 + 2;
+
+    /**
+     * 存储文件根目录
+     */
+    private String rootPath = "/tcc";
+
+    /**
+     * 单个分段文件大小上限,超过后滚动到新分段,默认64M,启动时分段需整体内存映射,因此不能超过Integer.MAX_VALUE
+     */
+    private long segmentSize = 64 * 1024 * 1024;
+
+    /**
+     * 分段存活数据比例低于该值时进行压缩,默认0.5
+     */
+    private double compactionLiveRatio = 0.5;
+
+    /**
+     * 压缩检查间隔,单位秒,默认60秒
+     */
+    private int compactionIntervalSeconds = 60;
+
+    private ObjectSerializer serializer = new JdkSerializationSerializer();
+
+    /**
+     * 事务编号与最新记录位置索引
+     */
+    private final ConcurrentHashMap<Xid, RecordLocation> index = new ConcurrentHashMap<Xid, RecordLocation>();
+
+    /**
+     * 分段编号与分段映射,按分段编号升序排列
+     */
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<Long, Segment>();
+
+    /**
+     * 追加写锁,保证记录追加与索引更新的顺序一致
+     */
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    /**
+     * 刷盘锁,持有该锁的线程为所有已追加的记录执行一次fsync
+     */
+    private final ReentrantLock syncLock = new ReentrantLock();
+
+    /**
+     * 当前活动分段
+     */
+    private volatile Segment activeSegment;
+
+    private volatile boolean initialized;
+
+    private ScheduledExecutorService compactionExecutor;
+
+    public void setSerializer(ObjectSerializer serializer) {
+        this.serializer = serializer;
+    }
+
+    public void setRootPath(String rootPath) {
+        this.rootPath = rootPath;
+    }
+
+    @Override
+    protected String getDefaultMetricName() {
+        return rootPath;
+    }
+
+    public void setSegmentSize(long segmentSize) {
+        if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("segmentSize must be between 1 and %d, but was %d", Integer.MAX_VALUE, segmentSize));
+        }
+        this.segmentSize = segmentSize;
+    }
+
+    public void setCompactionLiveRatio(double compactionLiveRatio) {
+        this.compactionLiveRatio = compactionLiveRatio;
+    }
+
+    public void setCompactionIntervalSeconds(int compactionIntervalSeconds) {
+        this.compactionIntervalSeconds = compactionIntervalSeconds;
+    }
+
+    /**
+     * 新增事务,事务已存在时返回0
+     *
+     * @param transaction
+     * @return
+     */
+    @Override
+    protected int doCreate(Transaction transaction) {
+        initIfNecessary();
+
+        Xid xid = getIndexKey(transaction.getXid());
+        byte[] record = encodeRecord(RECORD_TYPE_PUT, transaction, TransactionSerializer.serialize(serializer, transaction));
+        recordPayloadSize(record.length);
+
+        AppendResult appendResult;
+        appendLock.lock();
+        try {
+            if (index.containsKey(xid)) {
+                return 0;
+            }
+            appendResult = appendAndIndex(xid, record, transaction);
+        } finally {
+            appendLock.unlock();
+        }
+
+        sync(appendResult);
+        return 1;
+    }
+
+    /**
+     * 更新事务,存储的版本号与事务当前版本号不一致时返回0,实现乐观锁更新;
+     * 在追加写锁外递增版本号并序列化,持有追加写锁时再次校验版本号后只追加记录
+     *
+     * @param transaction
+     * @return
+     */
+    @Override
+    protected int doUpdate(Transaction transaction) {
+        initIfNecessary();
+
+        Xid xid = getIndexKey(transaction.getXid());
+
+        RecordLocation location = index.get(xid);
+        if (location == null || location.version != transaction.getVersion()) {
+            return 0;
+        }
+
+        Date lastUpdateTime = transaction.getLastUpdateTime();
+        long currentVersion = transaction.getVersion();
+
+        //设置事务最后更新时间
+        transaction.updateTime();
+        //设置事务最新版本号
+        transaction.updateVersion();
+
+        AppendResult appendResult = null;
+        try {
+            byte[] record = encodeRecord(RECORD_TYPE_PUT, transaction, TransactionSerializer.serialize(serializer, transaction));
+            recordPayloadSize(record.length);
+
+            appendLock.lock();
+            try {
+                //序列化期间其他线程可能已更新或删除该事务
+                location = index.get(xid);
+                if (location != null && location.version == currentVersion) {
+                    appendResult = appendAndIndex(xid, record, transaction);
+                }
+            } finally {
+                appendLock.unlock();
+            }
+        } finally {
+            if (appendResult == null) {
+                //记录未追加,恢复事务最后更新时间与版本号
+                transaction.setLastUpdateTime(lastUpdateTime);
+                transaction.setVersion(currentVersion);
+            }
+        }
+
+        if (appendResult == null) {
+            return 0;
+        }
+
+        sync(appendResult);
+        return 1;
+    }
+
+    /**
+     * 删除事务,追加删除记录
+     *
+     * @param transaction
+     * @return
+     */
+    @Override
+    protected int doDelete(Transaction transaction) {
+        initIfNecessary();
+
+        Xid xid = getIndexKey(transaction.getXid());
+        byte[] record = encodeRecord(RECORD_TYPE_DELETE, transaction, new byte[0]);
+
+        AppendResult appendResult;
+        appendLock.lock();
+        try {
+            RecordLocation location = index.get(xid);
+            if (location == null) {
+                return 0;
+            }
+
+            appendResult = append(record);
+            index.remove(xid);
+            location.segment.liveBytes.addAndGet(-location.length);
+        } finally {
+            appendLock.unlock();
+        }
+
+        sync(appendResult);
+        return 1;
+    }
+
+    /**
+     * 根据事务编号获取事务
+     *
+     * @param xid
+     * @return
+     */
+    @Override
+    protected Transaction doFindOne(Xid xid) {
+        initIfNecessary();
+
+        Xid indexKey = getIndexKey(xid);
+        while (true) {
+            RecordLocation location = index.get(indexKey);
+            if (location == null) {
+                return null;
+            }
+
+            try {
+                return readTransaction(location);
+            } catch (ClosedChannelException e) {
+                //读取过程中分段被压缩替换时索引项已更新,重新定位;
+                //其他线程读写时被中断关闭了共享的文件通道时重新打开分段后重试,当前线程被中断时直接失败
+                if (index.get(indexKey) == location
+                        && (!reopen(location.segment) || e instanceof ClosedByInterruptException)) {
+                    throw new TransactionIOException(e);
+                }
+            } catch (IOException e) {
+                throw new TransactionIOException(e);
+            }
+        }
+    }
+
+    /**
+     * 获取超过指定时间的事务集合
+     *
+     * @param date
+     * @return
+     */
+    @Override
+    protected List<Transaction> doFindAllUnmodifiedSince(Date date) {
+        List<Transaction> allUnmodifiedSince = new ArrayList<Transaction>();
+
+        Iterator<Transaction> iterator = doScanAllUnmodifiedSince(date);
+        while (iterator.hasNext()) {
+            allUnmodifiedSince.add(iterator.next());
+        }
+
+        return allUnmodifiedSince;
+    }
+
+    /**
+     * 根据内存索引筛选超过指定时间的事务,迭代时再逐个读取事务内容,迭代过程中已删除的事务跳过
+     *
+     * @param date
+     * @return
+     */
+    @Override
+    protected Iterator<Transaction> doScanAllUnmodifiedSince(Date date) {
+        final Iterator<TransactionHeader> headers = doScanHeadersUnmodifiedSince(date);
+
+        return new Iterator<Transaction>() {
+
+            private Transaction next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && headers.hasNext()) {
+                    next = headers.next().getTransaction();
+                }
+                return next != null;
+            }
+
+            @Override
+            public Transaction next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Transaction transaction = next;
+                next = null;
+                return transaction;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * 根据内存索引构造超过指定时间的事务头部信息,不读取记录,事务内容在调用TransactionHeader#getTransaction()时才读取
+     *
+     * @param date
+     * @return
+     */
+    @Override
+    protected Iterator<TransactionHeader> doScanHeadersUnmodifiedSince(Date date) {
+        initIfNecessary();
+
+        List<TransactionHeader> headers = new ArrayList<TransactionHeader>();
+        for (Map.Entry<Xid, RecordLocation> entry : index.entrySet()) {
+            RecordLocation location = entry.getValue();
+            if (location.lastUpdateTime < date.getTime()) {
+                headers.add(newTransactionHeader((TransactionXid) entry.getKey(), location));
+            }
+        }
+        return headers.iterator();
+    }
+
+    private TransactionHeader newTransactionHeader(final TransactionXid xid, RecordLocation location) {
+        return new TransactionHeader(xid, location.status, location.transactionType, location.retriedCount,
+                new Date(location.createTime), new Date(location.lastUpdateTime), location.version) {
+            @Override
+            protected Transaction loadTransaction() {
+                return doFindOne(xid);
+            }
+        };
+    }
+
+    /**
+     * 关闭存储器,停止压缩线程并关闭所有分段文件
+     */
+    @Override
+    public void close() {
+        super.close();
+
+        if (compactionExecutor != null) {
+            compactionExecutor.shutdownNow();
+        }
+
+        appendLock.lock();
+        try {
+            closeSegments();
+            initialized = false;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void closeSegments() {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+        index.clear();
+        activeSegment = null;
+    }
+
+    /**
+     * 压缩已滚动的分段,从最老的分段开始选择一段连续的已滚动分段,合并后的存活数据比例不高于compactionLiveRatio时压缩:
+     * 1. 合并结果沿用所选最新分段的编号,且不存在更老的分段,因此可以安全丢弃所选分段中的删除记录;
+     * 最老的分段因长期未完成的事务始终存活时,其存活记录随之后的稀疏分段一起合并,之后的分段仍可被回收
+     * 2. 不持有追加写锁,将仍指向所选分段的存活记录复制到临时文件并刷盘,已滚动的分段不会再追加记录,复制期间写线程不受影响
+     * 3. 持有追加写锁,以临时文件替换所选最新分段文件,并移除更老的分段;
+     * 复制期间被更新或删除的事务保留原索引项,其已复制的记录在回放时会被更新的分段覆盖
+     * 4. 释放追加写锁后关闭所选分段,删除更老的分段文件
+     */
+    protected void compact() {
+        while (true) {
+            List<Segment> compacting;
+            appendLock.lock();
+            try {
+                compacting = selectCompactingSegments();
+            } finally {
+                appendLock.unlock();
+            }
+
+            if (compacting == null || !compact(compacting)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 从最老的分段开始累加已滚动分段的存活字节数与文件大小,返回第一个存活比例不高于compactionLiveRatio且存在可回收数据的分段前缀,
+     * 不存在时返回null,调用方需持有追加写锁
+     *
+     * @return
+     */
+    private List<Segment> selectCompactingSegments() {
+        List<Segment> selected = new ArrayList<Segment>();
+        long liveBytes = 0;
+        long size = 0;
+
+        for (Segment segment : segments.values()) {
+            if (segment == activeSegment) {
+                return null;
+            }
+
+            selected.add(segment);
+            liveBytes += segment.liveBytes.get();
+            size += segment.size;
+
+            if (liveBytes + BASE_MARKER_LENGTH > Integer.MAX_VALUE) {
+                //合并结果超过内存映射上限
+                return null;
+            }
+
+            if (liveBytes < size && liveBytes <= size * compactionLiveRatio) {
+                return selected;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 合并压缩指定的连续分段,分段已被关闭或无法替换分段文件时返回false
+     *
+     * @param compactingSegments 从最老的分段开始的连续已滚动分段
+     * @return
+     */
+    private boolean compact(List<Segment> compactingSegments) {
+        Segment newest = compactingSegments.get(compactingSegments.size() - 1);
+        Set<Segment> compactingSet = new HashSet<Segment>(compactingSegments);
+
+        File compactingFile = getCompactingFile(newest.id);
+        if (compactingFile.exists() && !compactingFile.delete()) {
+            throw new TransactionIOException("cannot delete compacting file:" + compactingFile.getPath());
+        }
+
+        //复制存活记录,记录复制前的索引项与在临时文件中的偏移量
+        List<Xid> movedXids = new ArrayList<Xid>();
+        List<RecordLocation> movedLocations = new ArrayList<RecordLocation>();
+        List<Long> movedOffsets = new ArrayList<Long>();
+
+        Segment compacting = null;
+        try {
+            for (Map.Entry<Xid, RecordLocation> indexEntry : index.entrySet()) {
+                RecordLocation location = indexEntry.getValue();
+                if (!compactingSet.contains(location.segment)) {
+                    continue;
+                }
+
+                byte[] record = location.segment.read(location.offset, location.length);
+                if (compacting == null) {
+                    compacting = new Segment(newest.id, compactingFile);
+                    //合并结果以基准标记开头,重启回放时丢弃更老的分段,即使替换后未来得及删除更老的分段文件
+                    compacting.append(encodeBaseMarker());
+                }
+                movedXids.add(indexEntry.getKey());
+                movedLocations.add(location);
+                movedOffsets.add(compacting.size);
+                compacting.append(record);
+            }
+
+            if (compacting != null) {
+                compacting.force();
+                compacting.close();
+            }
+        } catch (IOException e) {
+            if (compacting != null) {
+                compacting.close();
+            }
+            deleteQuietly(compactingFile);
+            if (segments.get(newest.id) != newest) {
+                //压缩过程中存储器已关闭
+                return false;
+            }
+            throw new TransactionIOException(e);
+        }
+
+        Segment compacted = null;
+        appendLock.lock();
+        try {
+            for (Segment segment : compactingSegments) {
+                if (segments.get(segment.id) != segment) {
+                    deleteQuietly(compactingFile);
+                    return false;
+                }
+            }
+
+            if (compacting != null) {
+                if (!replaceFile(compactingFile, newest.file)) {
+                    logger.warn("cannot replace segment file " + newest.file.getPath() + " with compacting file " + compactingFile.getPath());
+                    deleteQuietly(compactingFile);
+                    return false;
+                }
+
+                compacted = new Segment(newest.id, newest.file);
+                compacted.liveBytes.addAndGet(BASE_MARKER_LENGTH);
+                for (int i = 0; i < movedXids.size(); i++) {
+                    RecordLocation location = movedLocations.get(i);
+                    RecordLocation movedLocation = location.moveTo(compacted, movedOffsets.get(i));
+                    //复制期间已被更新或删除的事务不更新索引
+                    if (index.replace(movedXids.get(i), location, movedLocation)) {
+                        compacted.liveBytes.addAndGet(location.length);
+                    }
+                }
+            }
+
+            //没有存活记录时按从老到新的顺序删除所选分段,任一时刻中断都不会使已删除的事务重新出现
+            for (Segment segment : compactingSegments) {
+                segments.remove(segment.id);
+            }
+            if (compacted != null) {
+                segments.put(compacted.id, compacted);
+            }
+        } catch (IOException e) {
+            throw new TransactionIOException(e);
+        } finally {
+            appendLock.unlock();
+        }
+
+        //原分段文件已被替换或即将删除,正在读取原分段的线程会根据更新后的索引重新定位
+        for (Segment segment : compactingSegments) {
+            segment.close();
+            if ((compacted == null || segment != newest) && !segment.file.delete()) {
+                logger.warn("cannot delete compacted segment file:" + segment.file.getPath());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 初始化根目录、重建索引并启动压缩线程
+     */
+    private void initIfNecessary() {
+        if (!initialized) {
+            synchronized (this) {
+                if (!initialized) {
+                    File rootPathFile = new File(rootPath);
+                    if (!rootPathFile.exists() && !rootPathFile.mkdirs()) {
+                        throw new TransactionIOException("cannot create root path, the path to create is:" + rootPath);
+                    } else if (!rootPathFile.isDirectory()) {
+                        throw new TransactionIOException("rootPath is not directory");
+                    }
+
+                    try {
+                        recover(rootPathFile);
+                    } catch (IOException e) {
+                        closeSegments();
+                        throw new TransactionIOException(e);
+                    } catch (RuntimeException e) {
+                        closeSegments();
+                        throw e;
+                    }
+
+                    startCompaction();
+                    initialized = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * 按分段编号顺序扫描所有分段重建索引
+     *
+     * @param rootPathFile
+     * @throws IOException
+     */
+    private void recover(File rootPathFile) throws IOException {
+        recoverCompactingFiles(rootPathFile);
+
+        File[] files = rootPathFile.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SEGMENT_FILE_SUFFIX);
+            }
+        });
+
+        List<Long> segmentIds = new ArrayList<Long>();
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                segmentIds.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_FILE_SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                logger.warn("skip unknown file in root path:" + file.getPath());
+            }
+        }
+        Collections.sort(segmentIds);
+
+        for (int i = 0; i < segmentIds.size(); i++) {
+            Segment segment = new Segment(segmentIds.get(i), getSegmentFile(segmentIds.get(i)));
+            segments.put(segment.id, segment);
+
+            boolean tail = i == segmentIds.size() - 1;
+            long validSize = replay(segment, tail);
+            if (validSize < segment.size) {
+                //已滚动的分段在滚动前已刷盘,存在无法解析的记录说明文件已损坏,截断会丢失已提交的记录
+                if (!tail) {
+                    throw new TransactionIOException(String.format("sealed segment %s is corrupted at offset %d, size:%d", segment.file.getPath(), validSize, segment.size));
+                }
+                logger.warn(String.format("segment %s has %d corrupted or incomplete bytes at offset %d, truncate it.", segment.file.getPath(), segment.size - validSize, validSize));
+                segment.truncate(validSize);
+            }
+
+            if (i == segmentIds.size() - 1) {
+                activeSegment = segment;
+            }
+        }
+
+        if (activeSegment == null) {
+            long nextId = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+            activeSegment = new Segment(nextId, getSegmentFile(nextId));
+            segments.put(activeSegment.id, activeSegment);
+        }
+    }
+
+    /**
+     * 处理压缩中断遗留的临时文件:原分段文件存在时说明替换未完成,删除临时文件;
+     * 原分段文件不存在时说明已在替换过程中删除了原分段文件,临时文件已刷盘,以临时文件作为该分段
+     *
+     * @param rootPathFile
+     */
+    private void recoverCompactingFiles(File rootPathFile) {
+        File[] files = rootPathFile.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(COMPACTING_FILE_SUFFIX);
+            }
+        });
+
+        for (File file : files) {
+            String name = file.getName();
+            File segmentFile = new File(file.getParentFile(), name.substring(0, name.length() - COMPACTING_FILE_SUFFIX.length()) + SEGMENT_FILE_SUFFIX);
+            if (segmentFile.exists()) {
+                deleteQuietly(file);
+            } else if (!file.renameTo(segmentFile)) {
+                throw new TransactionIOException("cannot rename compacting file " + file.getPath() + " to " + segmentFile.getPath());
+            }
+        }
+    }
+
+    /**
+     * 回放分段中的所有记录,返回最后一条完整记录的结束位置
+     * 通过内存映射只读取记录头部(类型、版本号、最后更新时间、事务编号)重建索引,事务内容在事务恢复实际需要时才读取并反序列化;
+     * 已滚动的分段在滚动前已刷盘,只有最后一个分段可能存在未完整写入的记录,因此只对最后一个分段校验CRC32;
+     * 返回前释放内存映射,保证之后可以截断分段文件
+     *
+     * @param segment
+     * @param verifyChecksum
+     * @return
+     * @throws IOException
+     */
+    private long replay(Segment segment, boolean verifyChecksum) throws IOException {
+        if (segment.size == 0) {
+            return 0;
+        }
+
+        if (segment.size > Integer.MAX_VALUE) {
+            throw new TransactionIOException(String.format("segment %s is too large to map, size:%d", segment.file.getPath(), segment.size));
+        }
+
+        MappedByteBuffer buffer = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.size);
+        try {
+            return replay(segment, buffer, verifyChecksum);
+        } finally {
+            unmap(buffer);
+        }
+    }
+
+    private int replay(Segment segment, MappedByteBuffer buffer, boolean verifyChecksum) {
+        int limit = buffer.limit();
+        int position = 0;
+
+        while (position + RECORD_PREFIX_LENGTH <= limit) {
+            int bodyLength = buffer.getInt(position);
+            int crc = buffer.getInt(position + 4);
+            if (bodyLength <= 0 || bodyLength > limit - position - RECORD_PREFIX_LENGTH) {
+                break;
+            }
+
+            if (verifyChecksum) {
+                byte[] body = new byte[bodyLength];
+                buffer.position(position + RECORD_PREFIX_LENGTH);
+                buffer.get(body);
+                if (crc != crc32(body, 0, bodyLength)) {
+                    break;
+                }
+            }
+
+            buffer.position(position + RECORD_PREFIX_LENGTH);
+            byte type = buffer.get();
+            long version = buffer.getLong();
+            long lastUpdateTime = buffer.getLong();
+            long createTime = buffer.getLong();
+            byte status = buffer.get();
+            byte transactionType = buffer.get();
+            int retriedCount = buffer.getInt();
+            Xid xid = readXid(buffer);
+            int length = RECORD_PREFIX_LENGTH + bodyLength;
+
+            if (type == RECORD_TYPE_BASE) {
+                discardOlderSegments(segment);
+                segment.liveBytes.addAndGet(length);
+                position += length;
+                continue;
+            }
+
+            RecordLocation previous;
+            if (type == RECORD_TYPE_PUT) {
+                previous = index.put(xid, new RecordLocation(segment, position, length, version, lastUpdateTime, createTime,
+                        TransactionStatus.valueOf(status), TransactionType.valueOf(transactionType), retriedCount));
+                segment.liveBytes.addAndGet(length);
+            } else {
+                previous = index.remove(xid);
+            }
+
+            if (previous != null) {
+                previous.segment.liveBytes.addAndGet(-previous.length);
+            }
+
+            position += length;
+        }
+
+        return position;
+    }
+
+    /**
+     * 释放内存映射,内存映射默认在缓冲区被GC回收时才释放,映射期间部分平台无法截断或删除文件,
+     * Java 9以上通过Unsafe#invokeCleaner释放,Java 8及以下通过DirectBuffer#cleaner释放,释放失败时等待GC回收
+     *
+     * @param buffer
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (NoSuchMethodException e) {
+            //Java 8及以下
+        } catch (Throwable e) {
+            logger.warn("cannot unmap segment buffer", e);
+            return;
+        }
+
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Throwable e) {
+            logger.warn("cannot unmap segment buffer", e);
+        }
+    }
+
+    private void startCompaction() {
+        compactionExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "tcc-segment-log-compaction");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        compactionExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (Throwable e) {
+                    logger.error("compact segment log failed.", e);
+                }
+            }
+        }, compactionIntervalSeconds, compactionIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 追加记录并更新索引,调用方需持有追加写锁
+     *
+     * @param xid
+     * @param record
+     * @param transaction
+     * @return
+     */
+    private AppendResult appendAndIndex(Xid xid, byte[] record, Transaction transaction) {
+        AppendResult appendResult = append(record);
+        Segment segment = appendResult.segment;
+
+        RecordLocation previous = index.put(xid, new RecordLocation(segment, appendResult.position - record.length, record.length,
+                transaction.getVersion(), transaction.getLastUpdateTime().getTime(), transaction.getCreateTime().getTime(),
+                transaction.getStatus(), transaction.getTransactionType(), transaction.getRetriedCount()));
+        segment.liveBytes.addAndGet(record.length);
+
+        if (previous != null) {
+            previous.segment.liveBytes.addAndGet(-previous.length);
+        }
+        return appendResult;
+    }
+
+    /**
+     * 追加记录到活动分段,活动分段超过大小上限时先滚动到新分段,调用方需持有追加写锁
+     *
+     * @param record
+     * @return
+     */
+    private AppendResult append(byte[] record) {
+        try {
+            try {
+                return appendToActiveSegment(record);
+            } catch (ClosedChannelException e) {
+                //其他线程读写时被中断关闭了共享的文件通道时重新打开活动分段后重试一次,当前线程被中断时直接失败
+                if (!reopen(activeSegment) || e instanceof ClosedByInterruptException) {
+                    throw e;
+                }
+                return appendToActiveSegment(record);
+            }
+        } catch (IOException e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
+    private AppendResult appendToActiveSegment(byte[] record) throws IOException {
+        Segment segment = activeSegment;
+        if (segment.size > 0 && segment.size + record.length > segmentSize) {
+            //滚动前将旧分段刷盘,之后只需对新分段执行fsync
+            segment.force();
+            segment.syncedSize = segment.size;
+            segment = new Segment(segment.id + 1, getSegmentFile(segment.id + 1));
+            segments.put(segment.id, segment);
+            activeSegment = segment;
+        }
+
+        segment.append(record);
+        return new AppendResult(segment, segment.size);
+    }
+
+    /**
+     * 组提交刷盘,已被其他线程的fsync覆盖的记录直接返回,否则由获得刷盘锁的线程为所有已追加的记录执行一次fsync
+     *
+     * @param appendResult
+     */
+    private void sync(AppendResult appendResult) {
+        Segment segment = appendResult.segment;
+        if (segment.syncedSize >= appendResult.position) {
+            return;
+        }
+
+        syncLock.lock();
+        try {
+            if (segment.syncedSize < appendResult.position) {
+                long size = segment.size;
+                try {
+                    segment.force();
+                } catch (ClosedChannelException e) {
+                    //重新打开的文件通道刷盘同样会将之前通过已关闭的文件通道写入的数据落盘
+                    if (!reopen(segment) || e instanceof ClosedByInterruptException) {
+                        throw e;
+                    }
+                    segment.force();
+                }
+                segment.syncedSize = size;
+            }
+        } catch (IOException e) {
+            throw new TransactionIOException(e);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * 重新打开被关闭的分段文件通道,FileChannel在读写线程被中断时会关闭,分段共享同一个文件通道,
+     * 不重新打开时该分段之后的所有读写都会失败;
+     * 持有追加写锁重新打开,截断被中断的追加遗留在已写入字节数之后的不完整记录,分段已被压缩替换或存储器已关闭时返回false
+     *
+     * @param segment
+     * @return
+     */
+    private boolean reopen(Segment segment) {
+        appendLock.lock();
+        //清除当前线程的中断状态,避免重新打开的文件通道再次被关闭
+        boolean interrupted = Thread.interrupted();
+        try {
+            if (segments.get(segment.id) != segment) {
+                return false;
+            }
+            return segment.reopen();
+        } catch (IOException e) {
+            throw new TransactionIOException(e);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            appendLock.unlock();
+        }
+    }
+
+    private Transaction readTransaction(RecordLocation location) throws IOException {
+        ByteBuffer body = ByteBuffer.wrap(location.segment.read(location.offset, location.length));
+        body.position(RECORD_PREFIX_LENGTH + RECORD_HEADER_LENGTH);
+        readXid(body);
+
+        byte[] content = new byte[body.remaining()];
+        body.get(content);
+        return TransactionSerializer.deserialize(serializer, content);
+    }
+
+    private byte[] encodeRecord(byte type, Transaction transaction, byte[] content) {
+        byte[] globalTransactionId = transaction.getXid().getGlobalTransactionId();
+        byte[] branchQualifier = transaction.getXid().getBranchQualifier();
+
+        int bodyLength = RECORD_HEADER_LENGTH + 2 + globalTransactionId.length + 2 + branchQualifier.length + content.length;
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_PREFIX_LENGTH + bodyLength);
+        buffer.putInt(bodyLength);
+        buffer.putInt(0);
+        buffer.put(type);
+        buffer.putLong(transaction.getVersion());
+        buffer.putLong(transaction.getLastUpdateTime().getTime());
+        buffer.putLong(transaction.getCreateTime().getTime());
+        buffer.put((byte) transaction.getStatus().getId());
+        buffer.put((byte) transaction.getTransactionType().getId());
+        buffer.putInt(transaction.getRetriedCount());
+        buffer.putShort((short) globalTransactionId.length);
+        buffer.put(globalTransactionId);
+        buffer.putShort((short) branchQualifier.length);
+        buffer.put(branchQualifier);
+        buffer.put(content);
+
+        byte[] record = buffer.array();
+        buffer.putInt(4, crc32(record, RECORD_PREFIX_LENGTH, bodyLength));
+        return record;
+    }
+
+    private byte[] encodeBaseMarker() {
+        ByteBuffer buffer = ByteBuffer.allocate(BASE_MARKER_LENGTH);
+        buffer.putInt(BASE_MARKER_LENGTH - RECORD_PREFIX_LENGTH);
+        buffer.putInt(0);
+        buffer.put(RECORD_TYPE_BASE);
+        buffer.put(new byte[RECORD_HEADER_LENGTH - 1]);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+
+        byte[] record = buffer.array();
+        buffer.putInt(4, crc32(record, RECORD_PREFIX_LENGTH, BASE_MARKER_LENGTH - RECORD_PREFIX_LENGTH));
+        return record;
+    }
+
+    /**
+     * 回放到基准标记时丢弃编号更小的分段及其索引项,并删除这些分段文件,它们是压缩合并后未来得及删除的分段
+     *
+     * @param base
+     */
+    private void discardOlderSegments(Segment base) {
+        Map<Long, Segment> olderSegments = segments.headMap(base.id);
+        if (olderSegments.isEmpty()) {
+            return;
+        }
+
+        Iterator<RecordLocation> iterator = index.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().segment.id < base.id) {
+                iterator.remove();
+            }
+        }
+
+        for (Segment segment : new ArrayList<Segment>(olderSegments.values())) {
+            logger.warn("discard segment " + segment.file.getPath() + " which has been merged into " + base.file.getPath());
+            segments.remove(segment.id);
+            segment.close();
+            deleteQuietly(segment.file);
+        }
+    }
+
+    private Xid readXid(ByteBuffer body) {
+        byte[] globalTransactionId = new byte[body.getShort()];
+        body.get(globalTransactionId);
+        byte[] branchQualifier = new byte[body.getShort()];
+        body.get(branchQualifier);
+        return new TransactionXid(globalTransactionId, branchQualifier);
+    }
+
+    /**
+     * 统一索引Key类型,保证不同Xid实现的相同事务编号命中同一索引项
+     *
+     * @param xid
+     * @return
+     */
+    private Xid getIndexKey(Xid xid) {
+        if (xid instanceof TransactionXid) {
+            return xid;
+        }
+        return new TransactionXid(xid.getGlobalTransactionId(), xid.getBranchQualifier());
+    }
+
+    private File getSegmentFile(long segmentId) {
+        return new File(rootPath, String.format("%020d%s", segmentId, SEGMENT_FILE_SUFFIX));
+    }
+
+    private File getCompactingFile(long segmentId) {
+        return new File(rootPath, String.format("%020d%s", segmentId, COMPACTING_FILE_SUFFIX));
+    }
+
+    /**
+     * 以源文件替换目标文件,部分平台不支持重命名覆盖已存在的文件,此时先删除目标文件再重命名,
+     * 两步之间中断时重启会以已刷盘的源文件作为该分段
+     *
+     * @param source
+     * @param target
+     * @return
+     */
+    private static boolean replaceFile(File source, File target) {
+        if (source.renameTo(target)) {
+            return true;
+        }
+        return target.delete() && source.renameTo(target);
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file.exists() && !file.delete()) {
+            logger.warn("cannot delete file:" + file.getPath());
+        }
+    }
+
+    private static int crc32(byte[] bytes, int offset, int length) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, offset, length);
+        return (int) crc32.getValue();
+    }
+
+    /**
+     * 记录位置以及记录中的事务头部信息
+     */
+    private static class RecordLocation {
+
+        /**
+         * 记录所在分段,分段被压缩替换后索引项指向新的分段
+         */
+        private final Segment segment;
+
+        private final long offset;
+
+        private final int length;
+
+        private final long version;
+
+        private final long lastUpdateTime;
+
+        private final long createTime;
+
+        private final TransactionStatus status;
+
+        private final TransactionType transactionType;
+
+        private final int retriedCount;
+
+        RecordLocation(Segment segment, long offset, int length, long version, long lastUpdateTime, long createTime,
+                       TransactionStatus status, TransactionType transactionType, int retriedCount) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.version = version;
+            this.lastUpdateTime = lastUpdateTime;
+            this.createTime = createTime;
+            this.status = status;
+            this.transactionType = transactionType;
+            this.retriedCount = retriedCount;
+        }
+
+        RecordLocation moveTo(Segment segment, long offset) {
+            return new RecordLocation(segment, offset, length, version, lastUpdateTime, createTime, status, transactionType, retriedCount);
+        }
+    }
+
+    /**
+     * 追加结果,记录追加后分段的写入位置,用于判断是否已被刷盘
+     */
+    private static class AppendResult {
+
+        private final Segment segment;
+
+        private final long position;
+
+        AppendResult(Segment segment, long position) {
+            this.segment = segment;
+            this.position = position;
+        }
+    }
+
+    /**
+     * 日志分段
+     */
+    private static class Segment {
+
+        private final long id;
+
+        private final File file;
+
+        private volatile RandomAccessFile raf;
+
+        /**
+         * 文件通道,读写线程被中断时会被关闭,通过#reopen()重新打开
+         */
+        private volatile FileChannel channel;
+
+        /**
+         * 是否已主动关闭,主动关闭的分段不再重新打开
+         */
+        private volatile boolean closed;
+
+        /**
+         * 已写入字节数
+         */
+        private volatile long size;
+
+        /**
+         * 已刷盘字节数
+         */
+        private volatile long syncedSize;
+
+        /**
+         * 存活记录字节数
+         */
+        private final AtomicLong liveBytes = new AtomicLong();
+
+        Segment(long id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+            this.channel = raf.getChannel();
+            this.size = channel.size();
+            this.syncedSize = this.size;
+        }
+
+        void append(byte[] record) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            long position = size;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            size = position;
+        }
+
+        byte[] read(long offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            readFully(buffer, offset);
+            return buffer.array();
+        }
+
+        void readFully(ByteBuffer buffer, long offset) throws IOException {
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException(String.format("unexpected end of segment %s at offset %d", file.getPath(), position));
+                }
+                position += read;
+            }
+        }
+
+        void force() throws IOException {
+            channel.force(false);
+        }
+
+        void truncate(long validSize) throws IOException {
+            channel.truncate(validSize);
+            channel.force(false);
+            size = validSize;
+            syncedSize = validSize;
+        }
+
+        /**
+         * 文件通道被关闭且分段未主动关闭时重新打开,截断已写入字节数之后的数据,返回分段是否可用
+         *
+         * @return
+         * @throws IOException
+         */
+        synchronized boolean reopen() throws IOException {
+            if (closed) {
+                return false;
+            }
+            if (channel.isOpen()) {
+                return true;
+            }
+
+            logger.warn("segment file channel was closed by an interrupted thread, reopen it:" + file.getPath());
+            RandomAccessFile reopenedRaf = new RandomAccessFile(file, "rw");
+            FileChannel reopenedChannel = reopenedRaf.getChannel();
+            if (reopenedChannel.size() > size) {
+                reopenedChannel.truncate(size);
+            }
+            raf = reopenedRaf;
+            channel = reopenedChannel;
+            return true;
+        }
+
+        synchronized void close() {
+            closed = true;
+            try {
+                channel.close();
+                raf.close();
+            } catch (IOException e) {
+                logger.warn("close segment file failed:" + file.getPath(), e);
+            }
+        }
+    }
+}
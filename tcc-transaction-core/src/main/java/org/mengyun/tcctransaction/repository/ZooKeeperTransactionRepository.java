@@ -3,6 +3,7 @@ package org.mengyun.tcctransaction.repository;
 import org.apache.zookeeper.*;
 import org.apache.zookeeper.data.Stat;
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionXid;
 import org.mengyun.tcctransaction.common.TransactionType;
 import org.mengyun.tcctransaction.repository.helper.TransactionSerializer;
 import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
@@ -12,11 +13,14 @@ import javax.transaction.xa.Xid;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * ZooKeeper事务存储器,用于将事务存储到Zookeeper,不支持乐观锁更新
  * 生产上不建议使用ZooKeeperTransactionRepository,原因有两点:1.不支持 ZooKeeper安全认证;2.使用ZooKeeper时,未考虑断网重连等情况
  * 使用 ZooKeeper进行事务的存储考虑使用Apache Curator操作 Zookeeper,重写 ZooKeeperTransactionRepository
+ * 事务节点名为事务编号的规范Key,节点版本与事务版本关联无法重命名,升级前以MD5格式事务编号命名的节点在规范节点不存在时继续读写
  */
 public class ZooKeeperTransactionRepository extends CachableTransactionRepository {
 
@@ -57,6 +61,11 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
         this.zkRootPath = zkRootPath;
     }
 
+    @Override
+    protected String getDefaultMetricName() {
+        return zkRootPath;
+    }
+
     public void setZkServers(String zkServers) {
         this.zkServers = zkServers;
     }
@@ -74,8 +83,10 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
     @Override
     protected int doCreate(Transaction transaction) {
         try {
+            byte[] content = TransactionSerializer.serialize(serializer, transaction);
+            recordPayloadSize(content.length);
             getZk().create(getTxidPath(transaction.getXid()),
-                    TransactionSerializer.serialize(serializer, transaction), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+                    content, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
             return 1;
         } catch (Exception e) {
             throw new TransactionIOException(e);
@@ -97,7 +108,13 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
             transaction.updateVersion();
 
             //-2的原因是Transaction版本从1开始,Zookeeper数据节点版本从0开始,调用transaction.updateVersion()版本号+1
-            Stat stat = getZk().setData(getTxidPath(transaction.getXid()), TransactionSerializer.serialize(serializer, transaction), (int) transaction.getVersion() - 2);
+            byte[] content = TransactionSerializer.serialize(serializer, transaction);
+            recordPayloadSize(content.length);
+            try {
+                getZk().setData(getTxidPath(transaction.getXid()), content, (int) transaction.getVersion() - 2);
+            } catch (KeeperException.NoNodeException e) {
+                getZk().setData(getLegacyTxidPath(transaction.getXid()), content, (int) transaction.getVersion() - 2);
+            }
             return 1;
         } catch (Exception e) {
             throw new TransactionIOException(e);
@@ -114,7 +131,11 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
     protected int doDelete(Transaction transaction) {
         try {
             //-1的原因是Transaction版本从1开始,Zookeeper数据节点版本从0开始
-            getZk().delete(getTxidPath(transaction.getXid()), (int) transaction.getVersion() - 1);
+            try {
+                getZk().delete(getTxidPath(transaction.getXid()), (int) transaction.getVersion() - 1);
+            } catch (KeeperException.NoNodeException e) {
+                getZk().delete(getLegacyTxidPath(transaction.getXid()), (int) transaction.getVersion() - 1);
+            }
             return 1;
         } catch (Exception e) {
             throw new TransactionIOException(e);
@@ -132,7 +153,12 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
         byte[] content = null;
         try {
             Stat stat = new Stat();
-            content = getZk().getData(getTxidPath(xid), false, stat);
+            try {
+                content = getZk().getData(getTxidPath(xid), false, stat);
+            } catch (KeeperException.NoNodeException e) {
+                //规范节点不存在时兼容读取升级前的节点
+                content = getZk().getData(getLegacyTxidPath(xid), false, stat);
+            }
             Transaction transaction = TransactionSerializer.deserialize(serializer, content);
 
             return transaction;
@@ -144,6 +170,81 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
         return null;
     }
 
+    /**
+     * 根据事务编号集合批量查询事务,ZooKeeper多操作事务不支持读操作,使用异步getData并发读取所有节点,一次等待全部回调,
+     * 规范节点不存在时兼容读取升级前的节点
+     *
+     * @param xids
+     * @return
+     */
+    @Override
+    protected List<Transaction> doFind(List<Xid> xids) {
+        final byte[][] contents = new byte[xids.size()][];
+        final int[] resultCodes = new int[xids.size()];
+        final CountDownLatch latch = new CountDownLatch(xids.size());
+
+        ZooKeeper zooKeeper = getZk();
+        for (int i = 0; i < xids.size(); i++) {
+            final int index = i;
+            zooKeeper.getData(getTxidPath(xids.get(i)), false, new AsyncCallback.DataCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+                    resultCodes[index] = rc;
+                    contents[index] = data;
+                    latch.countDown();
+                }
+            }, null);
+        }
+
+        try {
+            boolean completed = true;
+            if (zkTimeout > 0) {
+                completed = latch.await(zkTimeout, TimeUnit.MILLISECONDS);
+            } else {
+                latch.await();
+            }
+            if (!completed) {
+                throw new TransactionIOException(String.format("find %d transactions from zookeeper timeout", xids.size()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionIOException(e);
+        }
+
+        List<Transaction> transactions = new ArrayList<Transaction>(xids.size());
+        for (int i = 0; i < xids.size(); i++) {
+            KeeperException.Code code = KeeperException.Code.get(resultCodes[i]);
+            if (code == KeeperException.Code.OK) {
+                transactions.add(TransactionSerializer.deserialize(serializer, contents[i]));
+            } else if (code == KeeperException.Code.NONODE) {
+                Transaction transaction = findLegacy(xids.get(i));
+                if (transaction != null) {
+                    transactions.add(transaction);
+                }
+            } else {
+                throw new TransactionIOException(KeeperException.create(code, getTxidPath(xids.get(i))));
+            }
+        }
+        return transactions;
+    }
+
+    /**
+     * 根据事务编号从升级前的节点获取事务
+     *
+     * @param xid
+     * @return
+     */
+    private Transaction findLegacy(Xid xid) {
+        try {
+            byte[] content = getZk().getData(getLegacyTxidPath(xid), false, new Stat());
+            return TransactionSerializer.deserialize(serializer, content);
+        } catch (KeeperException.NoNodeException e) {
+            return null;
+        } catch (Exception e) {
+            throw new TransactionIOException(e);
+        }
+    }
+
     /**
      * 获取超过指定时间的事务集合
      *
@@ -235,6 +336,16 @@ public class ZooKeeperTransactionRepository extends CachableTransactionRepositor
      * @return
      */
     private String getTxidPath(Xid xid) {
+        return String.format("%s/%s", zkRootPath, TransactionXid.keyOf(xid));
+    }
+
+    /**
+     * 根据事务编号获取升级前的事务路径
+     *
+     * @param xid
+     * @return
+     */
+    private String getLegacyTxidPath(Xid xid) {
         return String.format("%s/%s", zkRootPath, xid);
     }
 
@@ -0,0 +1,21 @@
+package org.mengyun.tcctransaction.repository.helper;
+
+/**
+ * 事务内容JSON视图(CONTENT_VIEW)模式,事务内容JSON视图只用于管理后台展示,
+ * 每次写入事务都渲染JSON需遍历所有参与者的方法参数,开销往往超过事务本身的序列化
+ */
+public enum ContentViewMode {
+
+    /**
+     * 不写入事务内容JSON视图,管理后台也不展示事务内容
+     */
+    OFF,
+    /**
+     * 按采样率写入事务内容JSON视图,未采样的写入保留上一次写入的视图,管理后台展示的视图可能落后于事务当前内容
+     */
+    SAMPLED,
+    /**
+     * 不写入事务内容JSON视图,管理后台打开事务时反序列化事务内容再渲染JSON
+     */
+    ON_DEMAND
+}
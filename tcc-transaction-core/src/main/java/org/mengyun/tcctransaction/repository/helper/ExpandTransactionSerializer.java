@@ -5,19 +5,68 @@ import org.apache.commons.lang3.time.DateFormatUtils;
 import org.apache.commons.lang3.time.DateUtils;
 import org.mengyun.tcctransaction.SystemException;
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionHeader;
 import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
 import org.mengyun.tcctransaction.utils.ByteUtils;
 
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
- * 拓展事务序列化
+ * 拓展事务序列化,事务以Hash字段保存:
+ * 1. 字段名预先编码为常量,避免每次序列化重新编码
+ * 2. 创建时间与最后更新时间默认仍以"yyyy-MM-dd HH:mm:ss"格式保存,读取时同时兼容两种格式;
+ * 旧版本节点与管理后台无法读取以毫秒数保存的时间,所有节点与管理后台升级后可通过RedisTransactionRepository#setEpochMillisTimeEnabled改为以毫秒数保存
  */
 public class ExpandTransactionSerializer {
 
+    public static final byte[] GLOBAL_TX_ID = "GLOBAL_TX_ID".getBytes();
+
+    public static final byte[] BRANCH_QUALIFIER = "BRANCH_QUALIFIER".getBytes();
+
+    public static final byte[] STATUS = "STATUS".getBytes();
+
+    public static final byte[] TRANSACTION_TYPE = "TRANSACTION_TYPE".getBytes();
+
+    public static final byte[] RETRIED_COUNT = "RETRIED_COUNT".getBytes();
+
+    public static final byte[] CREATE_TIME = "CREATE_TIME".getBytes();
+
+    public static final byte[] LAST_UPDATE_TIME = "LAST_UPDATE_TIME".getBytes();
+
+    public static final byte[] VERSION = "VERSION".getBytes();
+
+    public static final byte[] CONTENT = "CONTENT".getBytes();
+
+    public static final byte[] CONTENT_VIEW = "CONTENT_VIEW".getBytes();
+
+    /**
+     * 升级前的时间格式
+     */
+    private static final String LEGACY_DATE_PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+    /**
+     * 构造事务头部信息需读取的Hash字段,不包含CONTENT_VIEW,读取结果按该顺序传入#deserializeHeader(...)方法
+     */
+    public static final byte[][] HEADER_FIELDS = new byte[][]{
+            GLOBAL_TX_ID,
+            BRANCH_QUALIFIER,
+            STATUS,
+            TRANSACTION_TYPE,
+            RETRIED_COUNT,
+            CREATE_TIME,
+            LAST_UPDATE_TIME,
+            VERSION,
+            CONTENT
+    };
+
     /**
      * 事务序列化
      *
@@ -26,21 +75,74 @@ public class ExpandTransactionSerializer {
      * @return
      */
     public static Map<byte[], byte[]> serialize(ObjectSerializer serializer, Transaction transaction) {
-        Map<byte[], byte[]> map = new HashMap<byte[], byte[]>();
+        return serialize(serializer, transaction, true);
+    }
+
+    /**
+     * 事务序列化
+     *
+     * @param serializer
+     * @param transaction
+     * @param withContentView 是否渲染事务内容JSON视图
+     * @return
+     */
+    public static Map<byte[], byte[]> serialize(ObjectSerializer serializer, Transaction transaction, boolean withContentView) {
+        List<byte[]> fieldsAndValues = new ArrayList<byte[]>(20);
+        serialize(serializer, transaction, withContentView, fieldsAndValues);
 
-        map.put("GLOBAL_TX_ID".getBytes(), transaction.getXid().getGlobalTransactionId());
-        map.put("BRANCH_QUALIFIER".getBytes(), transaction.getXid().getBranchQualifier());
-        map.put("STATUS".getBytes(), ByteUtils.intToBytes(transaction.getStatus().getId()));
-        map.put("TRANSACTION_TYPE".getBytes(), ByteUtils.intToBytes(transaction.getTransactionType().getId()));
-        map.put("RETRIED_COUNT".getBytes(), ByteUtils.intToBytes(transaction.getRetriedCount()));
-        map.put("CREATE_TIME".getBytes(), DateFormatUtils.format(transaction.getCreateTime(), "yyyy-MM-dd HH:mm:ss").getBytes());
-        map.put("LAST_UPDATE_TIME".getBytes(), DateFormatUtils.format(transaction.getLastUpdateTime(), "yyyy-MM-dd HH:mm:ss").getBytes());
-        map.put("VERSION".getBytes(), ByteUtils.longToBytes(transaction.getVersion()));
-        map.put("CONTENT".getBytes(), serializer.serialize(transaction));
-        map.put("CONTENT_VIEW".getBytes(), JSON.toJSONString(transaction).getBytes());
+        Map<byte[], byte[]> map = new HashMap<byte[], byte[]>();
+        for (int i = 0; i < fieldsAndValues.size(); i += 2) {
+            map.put(fieldsAndValues.get(i), fieldsAndValues.get(i + 1));
+        }
         return map;
     }
 
+    /**
+     * 事务序列化,按字段、值交替追加到列表,可直接作为HMSET参数
+     *
+     * @param serializer
+     * @param transaction
+     * @param withContentView 是否渲染事务内容JSON视图
+     * @param fieldsAndValues
+     * @return 追加的字段与值的总字节数
+     */
+    public static int serialize(ObjectSerializer serializer, Transaction transaction, boolean withContentView, List<byte[]> fieldsAndValues) {
+        return serialize(serializer, transaction, withContentView, false, fieldsAndValues);
+    }
+
+    /**
+     * 事务序列化,按字段、值交替追加到列表,可直接作为HMSET参数
+     *
+     * @param serializer
+     * @param transaction
+     * @param withContentView 是否渲染事务内容JSON视图
+     * @param epochMillisTime 是否以毫秒数保存创建时间与最后更新时间
+     * @param fieldsAndValues
+     * @return 追加的字段与值的总字节数
+     */
+    public static int serialize(ObjectSerializer serializer, Transaction transaction, boolean withContentView, boolean epochMillisTime, List<byte[]> fieldsAndValues) {
+        int size = 0;
+        size += add(fieldsAndValues, GLOBAL_TX_ID, transaction.getXid().getGlobalTransactionId());
+        size += add(fieldsAndValues, BRANCH_QUALIFIER, transaction.getXid().getBranchQualifier());
+        size += add(fieldsAndValues, STATUS, ByteUtils.intToBytes(transaction.getStatus().getId()));
+        size += add(fieldsAndValues, TRANSACTION_TYPE, ByteUtils.intToBytes(transaction.getTransactionType().getId()));
+        size += add(fieldsAndValues, RETRIED_COUNT, ByteUtils.intToBytes(transaction.getRetriedCount()));
+        size += add(fieldsAndValues, CREATE_TIME, serializeDate(transaction.getCreateTime(), epochMillisTime));
+        size += add(fieldsAndValues, LAST_UPDATE_TIME, serializeDate(transaction.getLastUpdateTime(), epochMillisTime));
+        size += add(fieldsAndValues, VERSION, ByteUtils.longToBytes(transaction.getVersion()));
+        size += add(fieldsAndValues, CONTENT, serializer.serialize(transaction));
+        if (withContentView) {
+            size += add(fieldsAndValues, CONTENT_VIEW, JSON.toJSONString(transaction).getBytes());
+        }
+        return size;
+    }
+
+    private static int add(List<byte[]> fieldsAndValues, byte[] field, byte[] value) {
+        fieldsAndValues.add(field);
+        fieldsAndValues.add(value);
+        return field.length + value.length;
+    }
+
     /**
      * 事务反序列化
      *
@@ -60,13 +162,89 @@ public class ExpandTransactionSerializer {
         transaction.changeStatus(TransactionStatus.valueOf(ByteUtils.bytesToInt(propertyMap.get("STATUS"))));
         transaction.resetRetriedCount(ByteUtils.bytesToInt(propertyMap.get("RETRIED_COUNT")));
 
+        transaction.setLastUpdateTime(deserializeDate(propertyMap.get("LAST_UPDATE_TIME")));
+        transaction.setVersion(ByteUtils.bytesToLong(propertyMap.get("VERSION")));
+        return transaction;
+    }
+
+    /**
+     * 事务头部信息反序列化,事务内容在首次获取完整事务时才反序列化
+     *
+     * @param serializer
+     * @param values     按HEADER_FIELDS顺序读取的字段值
+     * @return
+     */
+    public static TransactionHeader deserializeHeader(final ObjectSerializer serializer, List<byte[]> values) {
+        final byte[] content = values.get(8);
+
+        return new TransactionHeader(new TransactionXid(values.get(0), values.get(1)),
+                TransactionStatus.valueOf(ByteUtils.bytesToInt(values.get(2))),
+                TransactionType.valueOf(ByteUtils.bytesToInt(values.get(3))),
+                ByteUtils.bytesToInt(values.get(4)),
+                deserializeDate(values.get(5)),
+                deserializeDate(values.get(6)),
+                ByteUtils.bytesToLong(values.get(7))) {
+            @Override
+            protected Transaction loadTransaction() {
+                return (Transaction) serializer.deserialize(content);
+            }
+        };
+    }
+
+    /**
+     * 时间序列化,以"yyyy-MM-dd HH:mm:ss"格式保存
+     *
+     * @param date
+     * @return
+     */
+    public static byte[] serializeDate(Date date) {
+        return serializeDate(date, false);
+    }
+
+    /**
+     * 时间序列化
+     *
+     * @param date
+     * @param epochMillisTime 是否以毫秒数保存,否则以"yyyy-MM-dd HH:mm:ss"格式保存
+     * @return
+     */
+    public static byte[] serializeDate(Date date, boolean epochMillisTime) {
+        if (epochMillisTime) {
+            return ByteUtils.longToBytes(date.getTime());
+        }
+        return DateFormatUtils.format(date, LEGACY_DATE_PATTERN).getBytes();
+    }
+
+    /**
+     * 时间反序列化,以毫秒数保存的时间直接解析,兼容升级前以"yyyy-MM-dd HH:mm:ss"格式保存的时间
+     *
+     * @param value
+     * @return
+     */
+    public static Date deserializeDate(byte[] value) {
+        if (!isLegacyDate(value)) {
+            return new Date(ByteUtils.bytesToLong(value));
+        }
+
         try {
-            transaction.setLastUpdateTime(DateUtils.parseDate(new String(propertyMap.get("LAST_UPDATE_TIME")), "yyyy-MM-dd HH:mm:ss"));
+            return DateUtils.parseDate(new String(value), LEGACY_DATE_PATTERN);
         } catch (ParseException e) {
             throw new SystemException(e);
         }
+    }
 
-        transaction.setVersion(ByteUtils.bytesToLong(propertyMap.get("VERSION")));
-        return transaction;
+    /**
+     * 判断时间是否以升级前的格式保存,毫秒数只由数字组成(首位可能为负号),升级前的格式包含'-'、空格与':'
+     *
+     * @param value
+     * @return
+     */
+    private static boolean isLegacyDate(byte[] value) {
+        for (int i = 1; i < value.length; i++) {
+            if (value[i] < '0' || value[i] > '9') {
+                return true;
+            }
+        }
+        return false;
     }
 }
\ No newline at end of file
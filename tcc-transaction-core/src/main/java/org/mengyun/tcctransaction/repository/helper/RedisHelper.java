@@ -1,5 +1,6 @@
 package org.mengyun.tcctransaction.repository.helper;
 
+import org.mengyun.tcctransaction.api.TransactionXid;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 
@@ -11,13 +12,24 @@ import javax.transaction.xa.Xid;
 public class RedisHelper {
 
     /**
-     * 根据Key前缀、事务编号获取Redis Key
+     * 根据Key前缀、事务编号获取Redis Key,Key为前缀加事务编号的规范Key
      *
      * @param keyPrefix
      * @param xid
      * @return
      */
     public static byte[] getRedisKey(String keyPrefix, Xid xid) {
+        return new StringBuilder().append(keyPrefix).append(TransactionXid.keyOf(xid)).toString().getBytes();
+    }
+
+    /**
+     * 根据Key前缀、事务编号获取升级前的Redis Key,Key为前缀加基于MD5的UUID格式事务编号,用于兼容读取与迁移旧事务
+     *
+     * @param keyPrefix
+     * @param xid
+     * @return
+     */
+    public static byte[] getLegacyRedisKey(String keyPrefix, Xid xid) {
         return new StringBuilder().append(keyPrefix).append(xid.toString()).toString().getBytes();
     }
 
@@ -41,6 +53,16 @@ public class RedisHelper {
         return new StringBuilder().append("VER:").append(keyPrefix).append(globalTransactionId).append(":").append(branchQualifier).toString().getBytes();
     }
 
+    /**
+     * 根据Key前缀获取按最后更新时间排序的事务索引Key,索引为有序集合,成员为事务Redis Key,分值为最后更新时间毫秒数
+     *
+     * @param keyPrefix
+     * @return
+     */
+    public static byte[] getIndexKey(String keyPrefix) {
+        return new StringBuilder().append("IDX:").append(keyPrefix).toString().getBytes();
+    }
+
     /**
      * 通过Jedis池执行Jedis回调
      *
@@ -0,0 +1,82 @@
+package org.mengyun.tcctransaction.repository.helper;
+
+import org.mengyun.tcctransaction.SystemException;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Redis Lua脚本,脚本内容固定,参数通过KEYS与ARGV传入,按SHA1摘要以EVALSHA执行,
+ * 避免每次调用传输脚本内容,Redis端每个脚本只编译缓存一次;
+ * 脚本未缓存(Redis重启或执行了SCRIPT FLUSH)时以EVAL执行,同时将脚本加入Redis脚本缓存
+ */
+public class RedisScript {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final byte[] script;
+
+    private final byte[] sha1;
+
+    public RedisScript(String script) {
+        this.script = script.getBytes();
+        this.sha1 = sha1Hex(this.script);
+    }
+
+    /**
+     * 执行脚本
+     *
+     * @param jedis
+     * @param keys
+     * @param args
+     * @return
+     */
+    public Object execute(Jedis jedis, List<byte[]> keys, List<byte[]> args) {
+        try {
+            return jedis.evalsha(sha1, keys, args);
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")) {
+                throw e;
+            }
+            return jedis.eval(script, keys, args);
+        }
+    }
+
+    /**
+     * 在Pipeline中执行脚本,Pipeline中无法在脚本未缓存时重试,调用前需通过#load(...)方法加载脚本
+     *
+     * @param pipeline
+     * @param keys
+     * @param args
+     */
+    public void execute(Pipeline pipeline, List<byte[]> keys, List<byte[]> args) {
+        pipeline.evalsha(sha1, keys, args);
+    }
+
+    /**
+     * 加载脚本到Redis脚本缓存,已缓存时不会重复编译
+     *
+     * @param jedis
+     */
+    public void load(Jedis jedis) {
+        jedis.scriptLoad(script);
+    }
+
+    private static byte[] sha1Hex(byte[] script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(script);
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0x0F];
+                hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0x0F];
+            }
+            return new String(hex).getBytes();
+        } catch (NoSuchAlgorithmException e) {
+            throw new SystemException(e);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.mengyun.tcctransaction.repository.helper;
 
 import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.serializer.CompactTransactionSerializer;
 import org.mengyun.tcctransaction.serializer.ObjectSerializer;
 
 import java.util.Date;
@@ -8,7 +9,10 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
- * 事务序列化
+ * 事务序列化,ZooKeeper、文件系统以及分段追加日志事务存储器共用:
+ * 1. 序列化器为紧凑二进制事务序列化器时,紧凑格式已包含重试次数、最后更新时间以及版本号,直接以紧凑格式保存事务,不再外包一层Map
+ * 2. 其他序列化器以Map保存事务编号、状态等字段以及序列化后的事务内容
+ * 反序列化时按数据是否为紧凑格式选择读取方式,因此切换为紧凑二进制事务序列化器后,已保存的Map格式数据仍可读取
  */
 public class TransactionSerializer {
 
@@ -20,6 +24,10 @@ public class TransactionSerializer {
      * @return
      */
     public static byte[] serialize(ObjectSerializer serializer, Transaction transaction) {
+        if (serializer instanceof CompactTransactionSerializer) {
+            return serializer.serialize(transaction);
+        }
+
         Map<String, Object> map = new HashMap<String, Object>();
 
         map.put("GLOBAL_TX_ID", transaction.getXid().getGlobalTransactionId());
@@ -43,6 +51,10 @@ public class TransactionSerializer {
      * @return
      */
     public static Transaction deserialize(ObjectSerializer serializer, byte[] value) {
+        if (CompactTransactionSerializer.isCompactFormat(value)) {
+            return (Transaction) serializer.deserialize(value);
+        }
+
         Map<String, Object> map = (Map<String, Object>) serializer.deserialize(value);
 
         byte[] content = (byte[]) map.get("CONTENT");
@@ -0,0 +1,378 @@
+package org.mengyun.tcctransaction.serializer;
+
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.SystemException;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionContextEditor;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
+import org.mengyun.tcctransaction.common.TransactionType;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑二进制事务序列化,手工编码Transaction、Participant、InvocationContext以及TransactionXid:
+ * 1. 事务编号按原始字节写入,枚举按编号写入单个字节,时间按毫秒数写入
+ * 2. 类名、方法名在同一序列化结果内按字典编号引用,重复出现时只写入编号
+ * 3. 方法参数与附带属性通过可插拔的参数序列化器序列化
+ * 4. 序列化结果以魔数开头,反序列化时不以魔数开头的数据交给兼容序列化器处理,非事务对象也交给兼容序列化器序列化,
+ * 因此可直接替换已有存储器的序列化器,旧格式数据仍可读取
+ * <p/>
+ * 格式: [魔数 4字节][格式版本 1字节][事务编号][事务状态][事务类型][重试次数][版本号][创建时间][最后更新时间][参与者集合][附带属性]
+ */
+public class CompactTransactionSerializer<T> implements ObjectSerializer<T> {
+
+    /**
+     * 魔数,不可能是JDK序列化(0xACED)或Kryo序列化数据的开头
+     */
+    private static final byte[] MAGIC = new byte[]{(byte) 0xC0, (byte) 0xDE, 'T', 'X'};
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final Map<String, Class> PRIMITIVE_CLASSES = new HashMap<String, Class>();
+
+    static {
+        for (Class primitiveClass : new Class[]{boolean.class, byte.class, char.class, short.class, int.class, long.class, float.class, double.class, void.class}) {
+            PRIMITIVE_CLASSES.put(primitiveClass.getName(), primitiveClass);
+        }
+    }
+
+    /**
+     * 类名与类缓存
+     */
+    private final ConcurrentHashMap<String, Class> classCache = new ConcurrentHashMap<String, Class>();
+
+    /**
+     * 兼容序列化器,用于非事务对象以及旧格式数据
+     */
+    private ObjectSerializer compatibleSerializer = new JdkSerializationSerializer();
+
+    /**
+     * 方法参数与附带属性序列化器
+     */
+    private ObjectSerializer argSerializer = new JdkSerializationSerializer();
+
+    public void setCompatibleSerializer(ObjectSerializer compatibleSerializer) {
+        this.compatibleSerializer = compatibleSerializer;
+    }
+
+    public void setArgSerializer(ObjectSerializer argSerializer) {
+        this.argSerializer = argSerializer;
+    }
+
+    @Override
+    public byte[] serialize(T object) {
+        if (!(object instanceof Transaction)) {
+            return compatibleSerializer.serialize(object);
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream output = new DataOutputStream(bytes);
+
+            output.write(MAGIC);
+            output.writeByte(FORMAT_VERSION);
+            writeTransaction(output, (Transaction) object, new HashMap<String, Integer>());
+            output.flush();
+
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new SystemException(e);
+        }
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+
+        if (!isCompactFormat(bytes)) {
+            return (T) compatibleSerializer.deserialize(bytes);
+        }
+
+        if (bytes[MAGIC.length] != FORMAT_VERSION) {
+            throw new SystemException(String.format("unsupported transaction format version:%d", bytes[MAGIC.length]));
+        }
+
+        try {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes, MAGIC.length + 1, bytes.length - MAGIC.length - 1));
+            return (T) readTransaction(input, new ArrayList<String>());
+        } catch (IOException e) {
+            throw new SystemException(e);
+        }
+    }
+
+    @Override
+    public T clone(T object) {
+        return deserialize(serialize(object));
+    }
+
+    /**
+     * 判断数据是否为紧凑格式
+     *
+     * @param bytes
+     * @return
+     */
+    public static boolean isCompactFormat(byte[] bytes) {
+        if (bytes == null || bytes.length <= MAGIC.length) {
+            return false;
+        }
+
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeTransaction(DataOutputStream output, Transaction transaction, Map<String, Integer> dictionary) throws IOException {
+        writeXid(output, (TransactionXid) transaction.getXid());
+        output.writeByte(transaction.getStatus().getId());
+        output.writeByte(transaction.getTransactionType().getId());
+        writeVarInt(output, transaction.getRetriedCount());
+        writeVarLong(output, transaction.getVersion());
+        output.writeLong(transaction.getCreateTime().getTime());
+        output.writeLong(transaction.getLastUpdateTime().getTime());
+
+        List<Participant> participants = transaction.getParticipants();
+        writeVarInt(output, participants.size());
+        for (Participant participant : participants) {
+            writeParticipant(output, participant, dictionary);
+        }
+
+        Map<String, Object> attachments = transaction.getAttachments();
+        writeBlob(output, attachments.isEmpty() ? null : argSerializer.serialize(new HashMap<String, Object>(attachments)));
+    }
+
+    private Transaction readTransaction(DataInputStream input, List<String> dictionary) throws IOException {
+        TransactionXid xid = readXid(input);
+        TransactionStatus status = TransactionStatus.valueOf(input.readByte());
+        TransactionType transactionType = TransactionType.valueOf(input.readByte());
+        int retriedCount = readVarInt(input);
+        long version = readVarLong(input);
+        Date createTime = new Date(input.readLong());
+        Date lastUpdateTime = new Date(input.readLong());
+
+        Transaction transaction = new Transaction(xid, status, transactionType, createTime);
+        transaction.resetRetriedCount(retriedCount);
+        transaction.setVersion(version);
+        transaction.setLastUpdateTime(lastUpdateTime);
+
+        int participantCount = readVarInt(input);
+        for (int i = 0; i < participantCount; i++) {
+            transaction.enlistParticipant(readParticipant(input, dictionary));
+        }
+
+        byte[] attachments = readBlob(input);
+        if (attachments != null) {
+            transaction.getAttachments().putAll((Map<String, Object>) argSerializer.deserialize(attachments));
+        }
+        return transaction;
+    }
+
+    private void writeParticipant(DataOutputStream output, Participant participant, Map<String, Integer> dictionary) throws IOException {
+        writeXid(output, participant.getXid());
+        output.writeByte(participant.getStatus().getId());
+        writeInvocationContext(output, participant.getConfirmInvocationContext(), dictionary);
+        writeInvocationContext(output, participant.getCancelInvocationContext(), dictionary);
+
+        Class editorClass = participant.getTransactionContextEditorClass();
+        writeName(output, editorClass == null ? null : editorClass.getName(), dictionary);
+    }
+
+    private Participant readParticipant(DataInputStream input, List<String> dictionary) throws IOException {
+        TransactionXid xid = readXid(input);
+        ParticipantStatus status = ParticipantStatus.valueOf(input.readByte());
+        InvocationContext confirmInvocationContext = readInvocationContext(input, dictionary);
+        InvocationContext cancelInvocationContext = readInvocationContext(input, dictionary);
+
+        String editorClassName = readName(input, dictionary);
+        Class<? extends TransactionContextEditor> editorClass = editorClassName == null ? null : (Class<? extends TransactionContextEditor>) resolveClass(editorClassName);
+
+        Participant participant = new Participant(xid, confirmInvocationContext, cancelInvocationContext, editorClass);
+        participant.setStatus(status);
+        return participant;
+    }
+
+    private void writeInvocationContext(DataOutputStream output, InvocationContext invocationContext, Map<String, Integer> dictionary) throws IOException {
+        if (invocationContext == null) {
+            output.writeBoolean(false);
+            return;
+        }
+
+        output.writeBoolean(true);
+        writeName(output, invocationContext.getTargetClass().getName(), dictionary);
+        writeName(output, invocationContext.getMethodName(), dictionary);
+
+        Class[] parameterTypes = invocationContext.getParameterTypes();
+        writeVarInt(output, parameterTypes == null ? 0 : parameterTypes.length);
+        if (parameterTypes != null) {
+            for (Class parameterType : parameterTypes) {
+                writeName(output, parameterType.getName(), dictionary);
+            }
+        }
+
+        Object[] args = invocationContext.getArgs();
+        writeBlob(output, args == null || args.length == 0 ? null : argSerializer.serialize(args));
+    }
+
+    private InvocationContext readInvocationContext(DataInputStream input, List<String> dictionary) throws IOException {
+        if (!input.readBoolean()) {
+            return null;
+        }
+
+        Class targetClass = resolveClass(readName(input, dictionary));
+        String methodName = readName(input, dictionary);
+
+        Class[] parameterTypes = new Class[readVarInt(input)];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            parameterTypes[i] = resolveClass(readName(input, dictionary));
+        }
+
+        byte[] args = readBlob(input);
+        return new InvocationContext(targetClass, methodName, parameterTypes, args == null ? new Object[0] : (Object[]) argSerializer.deserialize(args));
+    }
+
+    private void writeXid(DataOutputStream output, TransactionXid xid) throws IOException {
+        writeBytes(output, xid.getGlobalTransactionId());
+        writeBytes(output, xid.getBranchQualifier());
+    }
+
+    private TransactionXid readXid(DataInputStream input) throws IOException {
+        return new TransactionXid(readBytes(input), readBytes(input));
+    }
+
+    /**
+     * 写入名称,首次出现时写入0和名称并加入字典,再次出现时写入字典编号+1,名称为空时写入0和false
+     *
+     * @param output
+     * @param name
+     * @param dictionary
+     * @throws IOException
+     */
+    private void writeName(DataOutputStream output, String name, Map<String, Integer> dictionary) throws IOException {
+        if (name == null) {
+            writeVarInt(output, 0);
+            output.writeBoolean(false);
+            return;
+        }
+
+        Integer id = dictionary.get(name);
+        if (id != null) {
+            writeVarInt(output, id + 1);
+        } else {
+            writeVarInt(output, 0);
+            output.writeBoolean(true);
+            output.writeUTF(name);
+            dictionary.put(name, dictionary.size());
+        }
+    }
+
+    private String readName(DataInputStream input, List<String> dictionary) throws IOException {
+        int id = readVarInt(input);
+        if (id > 0) {
+            return dictionary.get(id - 1);
+        }
+
+        if (!input.readBoolean()) {
+            return null;
+        }
+
+        String name = input.readUTF();
+        dictionary.add(name);
+        return name;
+    }
+
+    private Class resolveClass(String name) {
+        Class clazz = classCache.get(name);
+        if (clazz != null) {
+            return clazz;
+        }
+
+        clazz = PRIMITIVE_CLASSES.get(name);
+        if (clazz == null) {
+            try {
+                ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+                clazz = Class.forName(name, false, classLoader != null ? classLoader : CompactTransactionSerializer.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new SystemException(e);
+            }
+        }
+
+        classCache.put(name, clazz);
+        return clazz;
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+        writeVarInt(output, bytes.length);
+        output.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[readVarInt(input)];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * 写入可为空的字节数组,长度+1写入,0表示空
+     *
+     * @param output
+     * @param bytes
+     * @throws IOException
+     */
+    private static void writeBlob(DataOutputStream output, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            writeVarInt(output, 0);
+            return;
+        }
+
+        writeVarInt(output, bytes.length + 1);
+        output.write(bytes);
+    }
+
+    private static byte[] readBlob(DataInputStream input) throws IOException {
+        int length = readVarInt(input);
+        if (length == 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length - 1];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeVarInt(DataOutputStream output, int value) throws IOException {
+        writeVarLong(output, value & 0xFFFFFFFFL);
+    }
+
+    private static int readVarInt(DataInputStream input) throws IOException {
+        return (int) readVarLong(input);
+    }
+
+    private static void writeVarLong(DataOutputStream output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = input.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed variable length number");
+    }
+}
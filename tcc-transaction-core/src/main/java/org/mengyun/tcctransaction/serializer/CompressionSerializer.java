@@ -0,0 +1,215 @@
+package org.mengyun.tcctransaction.serializer;
+
+import org.mengyun.tcctransaction.SystemException;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 压缩序列化装饰器,委托序列化器序列化后,超过阈值的结果使用Deflate压缩,可包装任意序列化器配置到各事务存储器:
+ * 1. 压缩结果带自描述头,未压缩的结果原样保存,反序列化时按头部识别,压缩与未压缩数据可以共存,开启或关闭压缩无需迁移数据
+ * 2. 压缩后未变小的结果(例如已压缩的数据)原样保存
+ * 3. 每个线程复用一个Deflater与Inflater,避免每次压缩分配本地内存
+ * <p/>
+ * 格式: [魔数 4字节][压缩算法 1字节][原始长度 4字节][压缩数据]
+ */
+public class CompressionSerializer<T> implements ObjectSerializer<T> {
+
+    /**
+     * 魔数,不可能是JDK序列化(0xACED)、Kryo序列化以及其他事务序列化数据的开头
+     */
+    private static final byte[] MAGIC = new byte[]{(byte) 0xC0, (byte) 0xDE, 'Z', 'P'};
+
+    /**
+     * Deflate压缩算法
+     */
+    private static final byte CODEC_DEFLATE = 1;
+
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 4;
+
+    /**
+     * Deflate压缩比上限,原始长度超过压缩数据长度乘以该值的数据必然已损坏
+     */
+    private static final int MAX_DEFLATE_RATIO = 1032;
+
+    private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.BEST_SPEED, true);
+        }
+    };
+
+    private static final ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    /**
+     * 委托序列化器
+     */
+    private ObjectSerializer<T> delegate;
+
+    /**
+     * 压缩阈值,序列化结果不小于该字节数时压缩,默认为1024字节
+     */
+    private int threshold = 1024;
+
+    /**
+     * 解压后最大字节数,头部记录的原始长度超过该值时拒绝解压,避免损坏数据导致分配超大数组,默认为64MB
+     */
+    private int maxOriginalLength = 64 * 1024 * 1024;
+
+    public CompressionSerializer() {
+        this(new JdkSerializationSerializer());
+    }
+
+    public CompressionSerializer(ObjectSerializer<T> delegate) {
+        this.delegate = delegate;
+    }
+
+    public void setDelegate(ObjectSerializer<T> delegate) {
+        this.delegate = delegate;
+    }
+
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public void setMaxOriginalLength(int maxOriginalLength) {
+        this.maxOriginalLength = maxOriginalLength;
+    }
+
+    @Override
+    public byte[] serialize(T object) {
+        byte[] bytes = delegate.serialize(object);
+        if (bytes == null || bytes.length < threshold) {
+            return bytes;
+        }
+
+        byte[] compressed = compress(bytes);
+        return compressed != null ? compressed : bytes;
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) {
+        if (!isCompressed(bytes)) {
+            return delegate.deserialize(bytes);
+        }
+
+        return delegate.deserialize(decompress(bytes));
+    }
+
+    @Override
+    public T clone(T object) {
+        return delegate.clone(object);
+    }
+
+    /**
+     * 判断数据是否为压缩格式
+     *
+     * @param bytes
+     * @return
+     */
+    public static boolean isCompressed(byte[] bytes) {
+        if (bytes == null || bytes.length < HEADER_LENGTH) {
+            return false;
+        }
+
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 压缩数据,压缩后加上头部未变小时返回null
+     *
+     * @param bytes
+     * @return
+     */
+    private byte[] compress(byte[] bytes) {
+        Deflater deflater = DEFLATERS.get();
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+
+            //压缩结果需小于原始数据才保存,输出缓冲区以原始长度为上限
+            byte[] output = new byte[bytes.length];
+            int length = HEADER_LENGTH;
+            while (!deflater.finished() && length < output.length) {
+                length += deflater.deflate(output, length, output.length - length);
+            }
+
+            if (!deflater.finished()) {
+                return null;
+            }
+
+            System.arraycopy(MAGIC, 0, output, 0, MAGIC.length);
+            output[MAGIC.length] = CODEC_DEFLATE;
+            writeInt(output, MAGIC.length + 1, bytes.length);
+
+            byte[] result = new byte[length];
+            System.arraycopy(output, 0, result, 0, length);
+            return result;
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private byte[] decompress(byte[] bytes) {
+        byte codec = bytes[MAGIC.length];
+        if (codec != CODEC_DEFLATE) {
+            throw new SystemException(String.format("unsupported compression codec:%d", codec));
+        }
+
+        //分配输出数组前校验头部记录的原始长度
+        int originalLength = readInt(bytes, MAGIC.length + 1);
+        long compressedLength = bytes.length - HEADER_LENGTH;
+        if (originalLength < 0 || originalLength > maxOriginalLength || originalLength > compressedLength * MAX_DEFLATE_RATIO) {
+            throw new SystemException(String.format("illegal original length:%d, compressed length:%d, max original length:%d", originalLength, compressedLength, maxOriginalLength));
+        }
+
+        Inflater inflater = INFLATERS.get();
+        try {
+            inflater.setInput(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+
+            byte[] output = new byte[originalLength];
+            int length = 0;
+            while (length < originalLength) {
+                int inflated = inflater.inflate(output, length, originalLength - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+
+            if (length != originalLength) {
+                throw new SystemException(String.format("compressed data is truncated, expected %d bytes but got %d", originalLength, length));
+            }
+            return output;
+        } catch (DataFormatException e) {
+            throw new SystemException(e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24
+                | (bytes[offset + 1] & 0xFF) << 16
+                | (bytes[offset + 2] & 0xFF) << 8
+                | (bytes[offset + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,363 @@
+package org.mengyun.tcctransaction.serializer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.ByteBufferOutput;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.pool.KryoFactory;
+import com.esotericsoftware.kryo.pool.KryoPool;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Terminator;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Kryo序列化引擎,KryoPoolSerializer、KryoThreadLocalSerializer以及KryoTransactionSerializer共用:
+ * 1. Kryo实例池按需创建实例,并发线程数增加时自动扩容,以软引用持有空闲实例,内存紧张时由GC回收,不再在启动时预创建
+ * 2. 每个线程复用一个Output与Input,Output按需扩容,序列化后超过保留上限的缓冲区被替换为初始大小的缓冲区,
+ * Input直接引用调用方的字节数组,反序列化不复制数据
+ * 3. 反序列化与复制始终使用预注册了Transaction、Participant、InvocationContext、TransactionXid以及相关枚举的Kryo实例,
+ * 既可读取以固定编号写入的数据,也可读取以类名写入的数据;序列化默认仍以类名写入,旧版本节点可以读取,
+ * 所有节点升级后可通过序列化器的preregisterEnabled属性开启以固定编号写入
+ * 4. 支持直接序列化到调用方提供的ByteBuffer
+ * 5. Participant使用KryoParticipantSerializer,可读取增加参与者状态前写入的数据
+ */
+public final class KryoEngine {
+
+    /**
+     * 预注册类的起始编号,避开Kryo默认注册的基本类型编号
+     */
+    private static final int REGISTRATION_ID_OFFSET = 100;
+
+    /**
+     * 预注册类,编号按数组顺序分配,只能在末尾追加
+     */
+    private static final Class[] REGISTERED_CLASSES = new Class[]{
+            Transaction.class,
+            Participant.class,
+            InvocationContext.class,
+            TransactionXid.class,
+            TransactionStatus.class,
+            TransactionType.class,
+            ParticipantStatus.class,
+            Terminator.class,
+            Class[].class,
+            Object[].class
+    };
+
+    /**
+     * 线程复用Output的初始大小
+     */
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+
+    /**
+     * 线程复用Output保留的最大缓冲区大小,超过后序列化结束时缩容
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    /**
+     * 预注册类的Kryo实例池,用于反序列化、复制以及开启预注册时的序列化
+     */
+    private static final KryoPool POOL = new KryoPool.Builder(new KryoFactory() {
+        @Override
+        public Kryo create() {
+            return newKryo(true);
+        }
+    }).softReferences().build();
+
+    /**
+     * 未预注册类的Kryo实例池,用于未开启预注册时的序列化
+     */
+    private static final KryoPool UNREGISTERED_POOL = new KryoPool.Builder(new KryoFactory() {
+        @Override
+        public Kryo create() {
+            return newKryo(false);
+        }
+    }).softReferences().build();
+
+    private static final ThreadLocal<Buffers> BUFFERS = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    private KryoEngine() {
+
+    }
+
+    /**
+     * 创建按统一配置且预注册类的Kryo实例,可读取以固定编号或类名写入的数据
+     *
+     * @return
+     */
+    public static Kryo newKryo() {
+        return newKryo(true);
+    }
+
+    /**
+     * 创建按统一配置的Kryo实例
+     *
+     * @param preregister 是否预注册类,预注册后序列化以固定编号代替类名写入
+     * @return
+     */
+    public static Kryo newKryo(boolean preregister) {
+        Kryo kryo = new Kryo();
+        kryo.setReferences(true);
+        kryo.setRegistrationRequired(false);
+        //Fix the NPE bug when deserializing Collections.
+        ((Kryo.DefaultInstantiatorStrategy) kryo.getInstantiatorStrategy())
+                .setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
+        kryo.addDefaultSerializer(Participant.class, new KryoParticipantSerializer(kryo));
+
+        if (preregister) {
+            for (int i = 0; i < REGISTERED_CLASSES.length; i++) {
+                kryo.register(REGISTERED_CLASSES[i], REGISTRATION_ID_OFFSET + i);
+            }
+        }
+        return kryo;
+    }
+
+    /**
+     * 预创建指定数量的Kryo实例放入实例池
+     *
+     * @param size
+     */
+    public static void warmUp(int size) {
+        warmUp(POOL, size);
+        warmUp(UNREGISTERED_POOL, size);
+    }
+
+    private static void warmUp(KryoPool pool, int size) {
+        Kryo[] kryos = new Kryo[size];
+        for (int i = 0; i < size; i++) {
+            kryos[i] = pool.borrow();
+        }
+        for (Kryo kryo : kryos) {
+            pool.release(kryo);
+        }
+    }
+
+    /**
+     * 序列化对象,以类名写入
+     *
+     * @param object
+     * @return
+     */
+    public static byte[] serialize(Object object) {
+        return serialize(object, false);
+    }
+
+    /**
+     * 序列化对象
+     *
+     * @param object
+     * @param preregister 是否以预注册类的固定编号代替类名写入
+     * @return
+     */
+    public static byte[] serialize(Object object, boolean preregister) {
+        KryoPool pool = preregister ? POOL : UNREGISTERED_POOL;
+        Buffers buffers = BUFFERS.get();
+        Output output = buffers.acquireOutput();
+        Kryo kryo = pool.borrow();
+        try {
+            kryo.writeClassAndObject(output, object);
+            return output.toBytes();
+        } finally {
+            pool.release(kryo);
+            buffers.releaseOutput(output);
+        }
+    }
+
+    /**
+     * 序列化对象到ByteBuffer,以类名写入
+     *
+     * @param object
+     * @param buffer
+     * @return 写入的字节数
+     */
+    public static int serialize(Object object, ByteBuffer buffer) {
+        return serialize(object, buffer, false);
+    }
+
+    /**
+     * 序列化对象到ByteBuffer,从ByteBuffer当前位置开始写入,写入后位置移动到序列化结果末尾,
+     * 剩余空间不足时抛出BufferOverflowException,ByteBuffer位置保持不变
+     *
+     * @param object
+     * @param buffer
+     * @param preregister 是否以预注册类的固定编号代替类名写入
+     * @return 写入的字节数
+     */
+    public static int serialize(Object object, ByteBuffer buffer, boolean preregister) {
+        KryoPool pool = preregister ? POOL : UNREGISTERED_POOL;
+        int start = buffer.position();
+        ByteBufferOutput output = new ByteBufferOutput();
+        output.setBuffer(buffer, buffer.limit());
+
+        Kryo kryo = pool.borrow();
+        try {
+            kryo.writeClassAndObject(output, object);
+            output.flush();
+            buffer.position(output.position());
+            return output.position() - start;
+        } catch (KryoException e) {
+            buffer.position(start);
+            if (e.getMessage() != null && e.getMessage().startsWith("Buffer overflow")) {
+                throw new BufferOverflowException();
+            }
+            throw e;
+        } catch (BufferOverflowException e) {
+            buffer.position(start);
+            throw e;
+        } finally {
+            pool.release(kryo);
+        }
+    }
+
+    /**
+     * 反序列化对象
+     *
+     * @param bytes
+     * @param <T>
+     * @return
+     */
+    public static <T> T deserialize(byte[] bytes) {
+        return deserialize(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 反序列化字节数组指定区间内的对象,不复制数据
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @param <T>
+     * @return
+     */
+    public static <T> T deserialize(byte[] bytes, int offset, int length) {
+        Buffers buffers = BUFFERS.get();
+        Input input = buffers.acquireInput();
+        input.setBuffer(bytes, offset, length);
+        Kryo kryo = POOL.borrow();
+        try {
+            return (T) kryo.readClassAndObject(input);
+        } finally {
+            POOL.release(kryo);
+            buffers.releaseInput(input);
+        }
+    }
+
+    /**
+     * 从ByteBuffer当前位置反序列化对象,读取后位置移动到序列化结果末尾,堆内ByteBuffer不复制数据
+     *
+     * @param buffer
+     * @param <T>
+     * @return
+     */
+    public static <T> T deserialize(ByteBuffer buffer) {
+        byte[] bytes;
+        int offset;
+        if (buffer.hasArray()) {
+            bytes = buffer.array();
+            offset = buffer.arrayOffset() + buffer.position();
+        } else {
+            bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            offset = 0;
+        }
+
+        Buffers buffers = BUFFERS.get();
+        Input input = buffers.acquireInput();
+        input.setBuffer(bytes, offset, buffer.remaining());
+        Kryo kryo = POOL.borrow();
+        try {
+            T object = (T) kryo.readClassAndObject(input);
+            buffer.position(buffer.position() + input.position() - offset);
+            return object;
+        } finally {
+            POOL.release(kryo);
+            buffers.releaseInput(input);
+        }
+    }
+
+    /**
+     * 深度复制对象
+     *
+     * @param object
+     * @param <T>
+     * @return
+     */
+    public static <T> T copy(T object) {
+        Kryo kryo = POOL.borrow();
+        try {
+            return kryo.copy(object);
+        } finally {
+            POOL.release(kryo);
+        }
+    }
+
+    /**
+     * 线程复用的Output与Input,序列化过程中重入(例如自定义Kryo序列化器内部再次序列化)时使用临时实例
+     */
+    private static class Buffers {
+
+        private final Output output = new Output(INITIAL_BUFFER_SIZE, -1);
+
+        private final Input input = new Input();
+
+        private boolean outputInUse;
+
+        private boolean inputInUse;
+
+        Output acquireOutput() {
+            if (outputInUse) {
+                return new Output(INITIAL_BUFFER_SIZE, -1);
+            }
+            outputInUse = true;
+            return output;
+        }
+
+        void releaseOutput(Output released) {
+            if (released != output) {
+                return;
+            }
+
+            if (output.getBuffer().length > MAX_RETAINED_BUFFER_SIZE) {
+                output.setBuffer(new byte[INITIAL_BUFFER_SIZE], -1);
+            } else {
+                output.clear();
+            }
+            outputInUse = false;
+        }
+
+        Input acquireInput() {
+            if (inputInUse) {
+                return new Input();
+            }
+            inputInUse = true;
+            return input;
+        }
+
+        void releaseInput(Input released) {
+            if (released != input) {
+                return;
+            }
+
+            //不保留对调用方字节数组的引用
+            input.setBuffer(EMPTY_BYTES);
+            inputInUse = false;
+        }
+    }
+}
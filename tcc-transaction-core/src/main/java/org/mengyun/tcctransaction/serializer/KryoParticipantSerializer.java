@@ -0,0 +1,58 @@
+package org.mengyun.tcctransaction.serializer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
+
+/**
+ * Participant的Kryo序列化器,兼容增加status字段前以FieldSerializer写入的数据:
+ * 1. 写入时以格式标记开头,随后写入参与者状态,其余字段仍按不含status字段的FieldSerializer布局写入
+ * 2. 读取时没有格式标记的数据按旧布局读取,参与者状态为TRYING
+ * <p>
+ * 旧布局第一个字段cancelInvocationContext以类编号开头,取值为0(null)、1(类名)或注册编号加2,不会是格式标记
+ */
+class KryoParticipantSerializer extends Serializer<Participant> {
+
+    private static final byte FORMAT_MARKER = (byte) 0xFF;
+
+    /**
+     * 不含status字段的FieldSerializer,字段按名称排序,与增加status字段前的布局一致
+     */
+    private final FieldSerializer<Participant> fieldSerializer;
+
+    KryoParticipantSerializer(Kryo kryo) {
+        fieldSerializer = new FieldSerializer<Participant>(kryo, Participant.class);
+        fieldSerializer.removeField("status");
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, Participant participant) {
+        output.writeByte(FORMAT_MARKER);
+        output.writeVarInt(participant.getStatus().getId(), true);
+        fieldSerializer.write(kryo, output, participant);
+    }
+
+    @Override
+    public Participant read(Kryo kryo, Input input, Class<Participant> type) {
+        if (input.readByte() != FORMAT_MARKER) {
+            input.setPosition(input.position() - 1);
+            return fieldSerializer.read(kryo, input, type);
+        }
+
+        ParticipantStatus status = ParticipantStatus.valueOf(input.readVarInt(true));
+        Participant participant = fieldSerializer.read(kryo, input, type);
+        participant.setStatus(status);
+        return participant;
+    }
+
+    @Override
+    public Participant copy(Kryo kryo, Participant original) {
+        Participant participant = fieldSerializer.copy(kryo, original);
+        participant.setStatus(original.getStatus());
+        return participant;
+    }
+}
@@ -1,92 +1,50 @@
 package org.mengyun.tcctransaction.serializer;
 
-import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
-import com.esotericsoftware.kryo.pool.KryoCallback;
-import com.esotericsoftware.kryo.pool.KryoFactory;
-import com.esotericsoftware.kryo.pool.KryoPool;
-import org.objenesis.strategy.StdInstantiatorStrategy;
-
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-
 /**
  * Created by changming.xie on 9/18/17.
+ * 基于KryoEngine实例池的Kryo序列化,Kryo实例按需创建,不再在构造时预创建
  */
 public class KryoPoolSerializer<T> implements ObjectSerializer<T> {
 
-
-    static KryoFactory factory = new KryoFactory() {
-        public Kryo create() {
-            Kryo kryo = new Kryo();
-            kryo.setReferences(true);
-            kryo.setRegistrationRequired(false);
-            //Fix the NPE bug when deserializing Collections.
-            ((Kryo.DefaultInstantiatorStrategy) kryo.getInstantiatorStrategy())
-                    .setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
-
-            return kryo;
-        }
-    };
-
-
-    KryoPool pool = new KryoPool.Builder(factory).softReferences().build();
-
-    private int initPoolSize = 300;
+    /**
+     * 是否以预注册类的固定编号代替类名写入,默认关闭
+     */
+    private boolean preregisterEnabled = false;
+
+    /**
+     * 开启后序列化结果更小,但旧版本节点无法读取以固定编号写入的数据,所有节点升级到可读取两种写入方式的版本后再开启
+     *
+     * @param preregisterEnabled
+     */
+    public void setPreregisterEnabled(boolean preregisterEnabled) {
+        this.preregisterEnabled = preregisterEnabled;
+    }
 
     public KryoPoolSerializer() {
-        init();
-    }
 
-    public KryoPoolSerializer(int initPoolSize) {
-        this.initPoolSize = initPoolSize;
-        init();
     }
 
-    private void init() {
-
-        for (int i = 0; i < initPoolSize; i++) {
-            Kryo kryo = pool.borrow();
-            pool.release(kryo);
-        }
+    /**
+     * 预创建指定数量的Kryo实例,仅在需要避免首批请求创建Kryo实例的开销时使用
+     *
+     * @param initPoolSize
+     */
+    public KryoPoolSerializer(int initPoolSize) {
+        KryoEngine.warmUp(initPoolSize);
     }
 
     @Override
     public byte[] serialize(final T object) {
-
-        return pool.run(new KryoCallback<byte[]>() {
-            public byte[] execute(Kryo kryo) {
-                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                Output output = new Output(byteArrayOutputStream);
-
-                kryo.writeClassAndObject(output, object);
-                output.flush();
-
-                return byteArrayOutputStream.toByteArray();
-            }
-        });
+        return KryoEngine.serialize(object, preregisterEnabled);
     }
 
     @Override
     public T deserialize(final byte[] bytes) {
-
-        return pool.run(new KryoCallback<T>() {
-            public T execute(Kryo kryo) {
-                ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
-                Input input = new Input(byteArrayInputStream);
-
-                return (T) kryo.readClassAndObject(input);
-            }
-        });
+        return KryoEngine.deserialize(bytes);
     }
 
     @Override
     public T clone(final T object) {
-        return pool.run(new KryoCallback<T>() {
-            public T execute(Kryo kryo) {
-                return kryo.copy(object);
-            }
-        });
+        return KryoEngine.copy(object);
     }
 }
@@ -1,56 +1,48 @@
 package org.mengyun.tcctransaction.serializer;
 
 import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
-import org.mengyun.tcctransaction.serializer.ObjectSerializer;
-import org.objenesis.strategy.StdInstantiatorStrategy;
-
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 
+/**
+ * 基于KryoEngine的Kryo序列化,与KryoPoolSerializer使用相同的Kryo配置、实例池以及线程复用缓冲区
+ */
 public class KryoTransactionSerializer<T> implements ObjectSerializer<T> {
 
     private static final ThreadLocal<Kryo> AGG_KRYO_LOCAL = new ThreadLocal<Kryo>() {
         @Override
         protected Kryo initialValue() {
-            Kryo kryo = new Kryo();
-            kryo.setReferences(true);
-            kryo.setRegistrationRequired(false);
-            //Fix the NPE bug when deserializing Collections.
-            ((Kryo.DefaultInstantiatorStrategy) kryo.getInstantiatorStrategy())
-                    .setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
-
-            return kryo;
+            return KryoEngine.newKryo();
         }
     };
 
+    /**
+     * 是否以预注册类的固定编号写入,默认关闭,参见KryoPoolSerializer#setPreregisterEnabled
+     */
+    private boolean preregisterEnabled = false;
+
+    public void setPreregisterEnabled(boolean preregisterEnabled) {
+        this.preregisterEnabled = preregisterEnabled;
+    }
+
+    /**
+     * 获取线程绑定的Kryo实例,序列化与反序列化已改为使用KryoEngine实例池,仅为兼容直接使用Kryo实例的调用方保留
+     *
+     * @return
+     */
     public static Kryo getInstance() {
         return AGG_KRYO_LOCAL.get();
     }
 
     public static <T> byte[] writeToByteArray(T obj) {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        Output output = new Output(byteArrayOutputStream);
-
-        Kryo kryo = getInstance();
-        kryo.writeClassAndObject(output, obj);
-        output.flush();
-
-        return byteArrayOutputStream.toByteArray();
+        return KryoEngine.serialize(obj);
     }
 
     public static <T> T readFromByteArray(byte[] byteArray) {
-        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(byteArray);
-        Input input = new Input(byteArrayInputStream);
-
-        Kryo kryo = getInstance();
-        return (T) kryo.readClassAndObject(input);
+        return KryoEngine.deserialize(byteArray);
     }
 
     @Override
     public byte[] serialize(T t) {
-        return writeToByteArray(t);
+        return KryoEngine.serialize(t, preregisterEnabled);
     }
 
     @Override
@@ -60,6 +52,6 @@ public class KryoTransactionSerializer<T> implements ObjectSerializer<T> {
 
     @Override
     public T clone(T object) {
-        return getInstance().copy(object);
+        return KryoEngine.copy(object);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,137 @@
+package org.mengyun.tcctransaction.serializer;
+
+import io.protostuff.LinkedBuffer;
+import io.protostuff.ProtostuffIOUtil;
+import io.protostuff.Schema;
+import io.protostuff.runtime.DefaultIdStrategy;
+import io.protostuff.runtime.IdStrategy;
+import io.protostuff.runtime.RuntimeSchema;
+import org.mengyun.tcctransaction.SystemException;
+import org.mengyun.tcctransaction.Transaction;
+
+/**
+ * Protostuff事务序列化,基于运行时Schema按字段编号序列化Transaction:
+ * 1. 运行时Schema按类解析一次后缓存,Participant、InvocationContext、TransactionXid等嵌套类型同样按类缓存
+ * 2. 每个线程复用一个LinkedBuffer,序列化后清空,避免每次序列化分配缓冲区
+ * 3. Date按毫秒数写入,Class与Class[]按类名写入,附带属性与方法参数等Object类型字段按实际类型多态写入
+ * 4. 按字段编号读写,新增字段追加在类末尾时旧数据仍可读取,未知字段被跳过,比未注册的Kryo更能容忍类结构变化
+ * 5. 序列化结果以魔数开头,反序列化时不以魔数开头的数据交给兼容序列化器处理,非事务对象也交给兼容序列化器序列化,
+ * 因此可直接替换已有存储器的序列化器,旧格式数据仍可读取
+ * <p/>
+ * 注意:事务Schema使用独立的IdStrategy开启保留数组中的null元素,不修改JVM全局的protostuff.runtime.*系统属性,
+ * 不影响同一进程内其他组件使用的Protostuff运行时;
+ * 字段编号按字段声明顺序分配,调整或删除已有字段会导致旧数据无法正确读取,新增字段只能追加在类末尾,
+ * 单元测试SerializerCompatibilityTest固定了当前字段顺序;枚举按序号写入,只能在末尾追加枚举值
+ * <p/>
+ * 格式: [魔数 4字节][格式版本 1字节][Protostuff编码的事务]
+ */
+public class ProtostuffSerializer<T> implements ObjectSerializer<T> {
+
+    /**
+     * 魔数,不可能是JDK序列化(0xACED)、Kryo序列化或紧凑二进制事务序列化数据的开头
+     */
+    private static final byte[] MAGIC = new byte[]{(byte) 0xC0, (byte) 0xDE, 'P', 'S'};
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final int HEADER_LENGTH = MAGIC.length + 1;
+
+    /**
+     * 事务Schema专用IdStrategy,方法参数数组中的null元素默认被跳过,导致反序列化后参数错位,需开启保留null元素
+     */
+    private static final IdStrategy ID_STRATEGY = new DefaultIdStrategy(IdStrategy.DEFAULT_FLAGS | IdStrategy.ALLOW_NULL_ARRAY_ELEMENT);
+
+    /**
+     * 事务运行时Schema
+     */
+    private static final Schema<Transaction> TRANSACTION_SCHEMA = RuntimeSchema.getSchema(Transaction.class, ID_STRATEGY);
+
+    /**
+     * 线程复用的序列化缓冲区
+     */
+    private static final ThreadLocal<LinkedBuffer> BUFFERS = new ThreadLocal<LinkedBuffer>() {
+        @Override
+        protected LinkedBuffer initialValue() {
+            return LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * 兼容序列化器,用于非事务对象以及旧格式数据
+     */
+    private ObjectSerializer compatibleSerializer = new JdkSerializationSerializer();
+
+    public void setCompatibleSerializer(ObjectSerializer compatibleSerializer) {
+        this.compatibleSerializer = compatibleSerializer;
+    }
+
+    @Override
+    public byte[] serialize(T object) {
+        if (!(object instanceof Transaction)) {
+            return compatibleSerializer.serialize(object);
+        }
+
+        LinkedBuffer buffer = BUFFERS.get();
+        byte[] body;
+        try {
+            body = ProtostuffIOUtil.toByteArray((Transaction) object, TRANSACTION_SCHEMA, buffer);
+        } catch (RuntimeException e) {
+            throw new SystemException(e);
+        } finally {
+            buffer.clear();
+        }
+
+        byte[] bytes = new byte[HEADER_LENGTH + body.length];
+        System.arraycopy(MAGIC, 0, bytes, 0, MAGIC.length);
+        bytes[MAGIC.length] = FORMAT_VERSION;
+        System.arraycopy(body, 0, bytes, HEADER_LENGTH, body.length);
+        return bytes;
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+
+        if (!isProtostuffFormat(bytes)) {
+            return (T) compatibleSerializer.deserialize(bytes);
+        }
+
+        if (bytes[MAGIC.length] != FORMAT_VERSION) {
+            throw new SystemException(String.format("unsupported transaction format version:%d", bytes[MAGIC.length]));
+        }
+
+        Transaction transaction = TRANSACTION_SCHEMA.newMessage();
+        try {
+            ProtostuffIOUtil.mergeFrom(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH, transaction, TRANSACTION_SCHEMA);
+        } catch (RuntimeException e) {
+            throw new SystemException(e);
+        }
+        return (T) transaction;
+    }
+
+    @Override
+    public T clone(T object) {
+        return deserialize(serialize(object));
+    }
+
+    /**
+     * 判断数据是否为Protostuff格式
+     *
+     * @param bytes
+     * @return
+     */
+    public static boolean isProtostuffFormat(byte[] bytes) {
+        if (bytes == null || bytes.length < HEADER_LENGTH) {
+            return false;
+        }
+
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,8 +1,11 @@
 package org.mengyun.tcctransaction.support;
 
-import java.util.ArrayList;
+import org.apache.log4j.Logger;
+
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * 工厂构造器
@@ -13,47 +16,77 @@ public final class FactoryBuilder {
 
     }
 
+    static final Logger logger = Logger.getLogger(FactoryBuilder.class.getSimpleName());
+
     /**
-     * Bean工厂集合
+     * Bean工厂集合,注册发生在启动阶段,读取远多于写入
      */
-    private static List<BeanFactory> beanFactories = new ArrayList<BeanFactory>();
+    private static final List<BeanFactory> beanFactories = new CopyOnWriteArrayList<BeanFactory>();
 
     /**
      * 类与单例工厂映射
      */
-    private static ConcurrentHashMap<Class, SingeltonFactory> classFactoryMap = new ConcurrentHashMap<Class, SingeltonFactory>();
+    private static final ConcurrentHashMap<Class, SingeltonFactory> classFactoryMap = new ConcurrentHashMap<Class, SingeltonFactory>();
 
     /**
-     * 获取指定类单例工厂
+     * 获取指定类单例工厂,已存在时只需一次无锁查找
      *
      * @param clazz
      * @param <T>
      * @return
      */
     public static <T> SingeltonFactory<T> factoryOf(Class<T> clazz) {
-        if (!classFactoryMap.containsKey(clazz)) {
-            //遍历Bean工厂集合,判断是否为指定类工厂,是则按照指定类与Bean实例创建单例工厂新增映射关联
-            for (BeanFactory beanFactory : beanFactories) {
-                if (beanFactory.isFactoryOf(clazz)) {
-                    classFactoryMap.putIfAbsent(clazz, new SingeltonFactory<T>(clazz, beanFactory.getBean(clazz)));
-                }
-            }
-            //类与单例工厂映射不包含指定类的键,按照指定类创建单例工厂新增指定类与新建单例工厂映射
-            if (!classFactoryMap.containsKey(clazz)) {
-                classFactoryMap.putIfAbsent(clazz, new SingeltonFactory<T>(clazz));
+        SingeltonFactory<T> factory = classFactoryMap.get(clazz);
+        if (factory != null) {
+            return factory;
+        }
+
+        factory = createFactory(clazz);
+        SingeltonFactory<T> existing = classFactoryMap.putIfAbsent(clazz, factory);
+        return existing != null ? existing : factory;
+    }
+
+    /**
+     * 创建指定类单例工厂,存在可提供该类实例的Bean工厂时使用第一个Bean工厂的实例,否则延迟反射创建实例
+     *
+     * @param clazz
+     * @param <T>
+     * @return
+     */
+    private static <T> SingeltonFactory<T> createFactory(Class<T> clazz) {
+        for (BeanFactory beanFactory : beanFactories) {
+            if (beanFactory.isFactoryOf(clazz)) {
+                return new SingeltonFactory<T>(clazz, beanFactory.getBean(clazz));
             }
         }
+        return new SingeltonFactory<T>(clazz);
+    }
 
-        return classFactoryMap.get(clazz);
+    /**
+     * 预热指定类集合的单例,在Bean工厂注册完成后调用,避免应用启动后首批事务集中解析单例,预热失败的类在首次使用时再次解析
+     *
+     * @param classes
+     */
+    public static void prewarm(Collection<Class> classes) {
+        for (Class clazz : classes) {
+            try {
+                factoryOf(clazz).getInstance();
+            } catch (Throwable e) {
+                classFactoryMap.remove(clazz);
+                logger.warn("prewarm singleton failed, class:" + clazz.getName(), e);
+            }
+        }
     }
 
     /**
-     * 注册指定Bean工厂到工厂构造器Bean工厂集合
+     * 注册指定Bean工厂到工厂构造器Bean工厂集合,重复注册同一Bean工厂时忽略
      *
      * @param beanFactory
      */
     public static void registerBeanFactory(BeanFactory beanFactory) {
-        beanFactories.add(beanFactory);
+        if (!beanFactories.contains(beanFactory)) {
+            beanFactories.add(beanFactory);
+        }
     }
 
     /**
@@ -88,7 +121,8 @@ public final class FactoryBuilder {
          */
         public T getInstance() {
             if (instance == null) {
-                synchronized (SingeltonFactory.class) {
+                //只锁定当前类的单例工厂,不同类的首次解析互不阻塞
+                synchronized (this) {
                     if (instance == null) {
                         try {
                             ClassLoader loader = Thread.currentThread().getContextClassLoader();
@@ -0,0 +1,299 @@
+package org.mengyun.tcctransaction.support;
+
+import org.mengyun.tcctransaction.metrics.Gauge;
+import org.mengyun.tcctransaction.metrics.Histogram;
+import org.mengyun.tcctransaction.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步终结线程池,用于asyncConfirm、asyncCancel异步提交或回滚事务,
+ * 线程数与等待队列均有上限,队列满时按拒绝策略处理,默认拒绝并交由恢复Job稍后终结事务,不阻塞调用线程,
+ * 按域隔离,同一JVM内不同域使用各自的线程池,避免某个域下游故障耗尽其他域的终结线程,
+ * 同时统计队列深度、提交/拒绝/完成数以及任务排队与执行耗时,并以executor.terminate.{域}为前缀注册到度量指标注册表
+ */
+public class TerminateExecutor extends ThreadPoolExecutor {
+
+    /**
+     * 默认域
+     */
+    public static final String DEFAULT_DOMAIN = "default";
+
+    /**
+     * 按域注册的异步终结线程池
+     */
+    private static final ConcurrentHashMap<String, TerminateExecutor> EXECUTORS = new ConcurrentHashMap<String, TerminateExecutor>();
+
+    /**
+     * 拒绝策略
+     */
+    public enum RejectedPolicy {
+
+        /**
+         * 拒绝任务,事务已持久化为CONFIRMING/CANCELLING状态,由恢复Job稍后终结
+         */
+        RECOVERY,
+
+        /**
+         * 由调用线程同步终结事务
+         */
+        CALLER_RUNS
+    }
+
+    private final String domain;
+
+    private final RejectedPolicy rejectedPolicy;
+
+    private final AtomicLong submittedCount = new AtomicLong();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * 任务排队、执行耗时直方图,单位纳秒
+     */
+    private final Histogram queueWaitLatency;
+
+    private final Histogram executeLatency;
+
+    public TerminateExecutor(String domain, int poolSize, int queueSize, RejectedPolicy rejectedPolicy) {
+        super(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new TerminateThreadFactory(domain),
+                new TerminateRejectedHandler());
+
+        this.domain = domain;
+        this.rejectedPolicy = rejectedPolicy == null ? RejectedPolicy.RECOVERY : rejectedPolicy;
+        //空闲线程超时回收,避免按峰值创建的线程常驻
+        allowCoreThreadTimeOut(true);
+
+        String metricPrefix = "executor.terminate." + domain;
+        this.queueWaitLatency = Metrics.histogram(metricPrefix + ".queueWait.latency");
+        this.executeLatency = Metrics.histogram(metricPrefix + ".execute.latency");
+    }
+
+    /**
+     * 获取域对应的异步终结线程池,不存在时按参数创建,同一域只创建一次
+     *
+     * @param domain
+     * @param poolSize
+     * @param queueSize
+     * @param rejectedPolicy
+     * @return
+     */
+    public static TerminateExecutor getInstance(String domain, int poolSize, int queueSize, RejectedPolicy rejectedPolicy) {
+        String key = domain == null ? DEFAULT_DOMAIN : domain;
+
+        TerminateExecutor executor = EXECUTORS.get(key);
+        if (executor == null) {
+            TerminateExecutor created = new TerminateExecutor(key, poolSize, queueSize, rejectedPolicy);
+            executor = EXECUTORS.putIfAbsent(key, created);
+            if (executor == null) {
+                executor = created;
+                //只为注册成功的线程池注册瞬时值指标
+                executor.registerGauges("executor.terminate." + key);
+            } else {
+                created.shutdown();
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * 获取已注册的所有异步终结线程池
+     *
+     * @return
+     */
+    public static Collection<TerminateExecutor> getInstances() {
+        return Collections.unmodifiableCollection(new ArrayList<TerminateExecutor>(EXECUTORS.values()));
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        submittedCount.incrementAndGet();
+        super.execute(new TimedTask(command));
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public RejectedPolicy getRejectedPolicy() {
+        return rejectedPolicy;
+    }
+
+    /**
+     * 获取当前队列深度
+     *
+     * @return
+     */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /**
+     * 获取队列剩余容量
+     *
+     * @return
+     */
+    public int getQueueRemainingCapacity() {
+        return getQueue().remainingCapacity();
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getFinishedCount() {
+        return executeLatency.getCount();
+    }
+
+    /**
+     * 获取任务平均排队耗时,单位毫秒
+     *
+     * @return
+     */
+    public double getAverageQueueWaitMillis() {
+        return queueWaitLatency.getMean() / 1000000d;
+    }
+
+    public double getMaxQueueWaitMillis() {
+        return queueWaitLatency.getMax() / 1000000d;
+    }
+
+    /**
+     * 获取任务平均执行耗时,单位毫秒
+     *
+     * @return
+     */
+    public double getAverageExecuteMillis() {
+        return executeLatency.getMean() / 1000000d;
+    }
+
+    public double getMaxExecuteMillis() {
+        return executeLatency.getMax() / 1000000d;
+    }
+
+    @Override
+    public String toString() {
+        return "TerminateExecutor[domain=" + domain
+                + ", poolSize=" + getPoolSize()
+                + ", active=" + getActiveCount()
+                + ", queueDepth=" + getQueueDepth()
+                + ", submitted=" + getSubmittedCount()
+                + ", rejected=" + getRejectedCount()
+                + ", finished=" + getFinishedCount() + "]";
+    }
+
+    /**
+     * 注册队列深度、活动线程数、拒绝数以及饱和度(活动线程数/最大线程数)瞬时值指标
+     *
+     * @param metricPrefix
+     */
+    private void registerGauges(String metricPrefix) {
+        Metrics.gauge(metricPrefix + ".queueDepth", new Gauge() {
+            @Override
+            public double getValue() {
+                return getQueueDepth();
+            }
+        });
+        Metrics.gauge(metricPrefix + ".activeThreads", new Gauge() {
+            @Override
+            public double getValue() {
+                return getActiveCount();
+            }
+        });
+        Metrics.gauge(metricPrefix + ".rejected", new Gauge() {
+            @Override
+            public double getValue() {
+                return getRejectedCount();
+            }
+        });
+        Metrics.gauge(metricPrefix + ".saturation", new Gauge() {
+            @Override
+            public double getValue() {
+                return (double) getActiveCount() / getMaximumPoolSize();
+            }
+        });
+    }
+
+    /**
+     * 记录排队与执行耗时的任务
+     */
+    private final class TimedTask implements Runnable {
+
+        private final Runnable delegate;
+
+        private final long enqueueTime = System.nanoTime();
+
+        TimedTask(Runnable delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void run() {
+            long startTime = System.nanoTime();
+            try {
+                delegate.run();
+            } finally {
+                queueWaitLatency.record(startTime - enqueueTime);
+                executeLatency.record(System.nanoTime() - startTime);
+            }
+        }
+    }
+
+    /**
+     * 队列满或线程池关闭时的拒绝处理,按线程池配置的拒绝策略拒绝或由调用线程执行
+     */
+    private static class TerminateRejectedHandler implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            TerminateExecutor terminateExecutor = (TerminateExecutor) executor;
+            terminateExecutor.rejectedCount.incrementAndGet();
+
+            if (terminateExecutor.rejectedPolicy == RejectedPolicy.CALLER_RUNS && !executor.isShutdown()) {
+                task.run();
+                return;
+            }
+
+            throw new RejectedExecutionException("terminate executor of domain " + terminateExecutor.domain
+                    + " is full, queue depth:" + terminateExecutor.getQueueDepth());
+        }
+    }
+
+    /**
+     * 按域命名的守护线程工厂
+     */
+    private static class TerminateThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        private final String namePrefix;
+
+        TerminateThreadFactory(String domain) {
+            this.namePrefix = "tcc-terminate-" + domain + "-";
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
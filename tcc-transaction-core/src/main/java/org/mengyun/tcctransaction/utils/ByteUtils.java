@@ -1,26 +1,70 @@
 package org.mengyun.tcctransaction.utils;
 
-import org.apache.commons.lang3.math.NumberUtils;
-
 /**
  * Created by changming.xie on 2/14/16.
+ * <p/>
+ * 整数与十进制数字字节数组相互转换,直接读写ASCII数字,不经过中间字符串
  */
 public class ByteUtils {
 
     public static byte[] longToBytes(long num) {
-        return String.valueOf(num).getBytes();
+        if (num == Long.MIN_VALUE) {
+            return String.valueOf(num).getBytes();
+        }
+
+        boolean negative = num < 0;
+        long value = negative ? -num : num;
+
+        int length = negative ? 2 : 1;
+        for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+            length++;
+        }
+
+        byte[] bytes = new byte[length];
+        for (int i = length - 1; i >= (negative ? 1 : 0); i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        if (negative) {
+            bytes[0] = '-';
+        }
+        return bytes;
     }
 
     public static long bytesToLong(byte[] bytes) {
-        return Long.valueOf(new String(bytes));
+        int length = bytes.length;
+        if (length == 0 || length > 18) {
+            //超过18位可能溢出,交给Long.valueOf处理
+            return Long.valueOf(new String(bytes));
+        }
+
+        boolean negative = bytes[0] == '-';
+        int start = negative || bytes[0] == '+' ? 1 : 0;
+        if (start == length) {
+            throw new NumberFormatException("For input string: \"" + new String(bytes) + "\"");
+        }
+
+        long value = 0;
+        for (int i = start; i < length; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + new String(bytes) + "\"");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
     }
 
     public static byte[] intToBytes(int num) {
-        return String.valueOf(num).getBytes();
+        return longToBytes(num);
     }
 
     public static int bytesToInt(byte[] bytes) {
-        return Integer.valueOf(new String(bytes));
+        long value = bytesToLong(bytes);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("For input string: \"" + new String(bytes) + "\"");
+        }
+        return (int) value;
     }
 
 }
@@ -5,4 +5,9 @@ package org.mengyun.tcctransaction.dubbo.constants;
  */
 public class TransactionContextConstants {
     public static final String TRANSACTION_CONTEXT = "TRANSACTION_CONTEXT";
+
+    /**
+     * 调用上下文中缓存已解码事务上下文的键
+     */
+    public static final String DECODED_TRANSACTION_CONTEXT = "TCC_DECODED_TRANSACTION_CONTEXT";
 }
@@ -10,16 +10,46 @@ import org.mengyun.tcctransaction.dubbo.constants.TransactionContextConstants;
 import java.lang.reflect.Method;
 
 /**
- * Dubbo事务上下文编辑器
+ * Dubbo事务上下文编辑器,事务上下文以隐式参数传递,接收时同时支持JSON格式与TransactionContextCodec紧凑编码;
+ * 默认发送JSON格式,保证未升级的服务提供者可以解码,所有节点均已升级后可在Spring中声明该编辑器Bean并开启紧凑编码:
+ * <pre>
+ * &lt;bean class="org.mengyun.tcctransaction.dubbo.context.DubboTransactionContextEditor"&gt;
+ *     &lt;property name="compactFormatEnabled" value="true"/&gt;
+ * &lt;/bean&gt;
+ * </pre>
  */
 public class DubboTransactionContextEditor implements TransactionContextEditor {
 
+    /**
+     * 是否以紧凑编码发送事务上下文,默认关闭,以JSON格式发送
+     */
+    private volatile boolean compactFormatEnabled = false;
+
+    public void setCompactFormatEnabled(boolean compactFormatEnabled) {
+        this.compactFormatEnabled = compactFormatEnabled;
+    }
+
+    public boolean isCompactFormatEnabled() {
+        return compactFormatEnabled;
+    }
+
     @Override
     public TransactionContext get(Object target, Method method, Object[] args) {
-        String context = RpcContext.getContext().getAttachment(TransactionContextConstants.TRANSACTION_CONTEXT);
+        RpcContext rpcContext = RpcContext.getContext();
+        String context = rpcContext.getAttachment(TransactionContextConstants.TRANSACTION_CONTEXT);
 
         if (StringUtils.isNotEmpty(context)) {
-            return JSON.parseObject(context, TransactionContext.class);
+            //同一次调用中可补偿事务拦截器与资源协调者拦截器都会获取事务上下文,解码结果缓存在调用上下文中,随调用结束清理
+            DecodedContext decoded = (DecodedContext) rpcContext.get(TransactionContextConstants.DECODED_TRANSACTION_CONTEXT);
+            if (decoded != null && decoded.encoded == context) {
+                return decoded.transactionContext;
+            }
+
+            TransactionContext transactionContext = TransactionContextCodec.isJson(context)
+                    ? JSON.parseObject(context, TransactionContext.class)
+                    : TransactionContextCodec.decode(context);
+            rpcContext.set(TransactionContextConstants.DECODED_TRANSACTION_CONTEXT, new DecodedContext(context, transactionContext));
+            return transactionContext;
         }
 
         return null;
@@ -27,7 +57,23 @@ public class DubboTransactionContextEditor implements TransactionContextEditor {
 
     @Override
     public void set(TransactionContext transactionContext, Object target, Method method, Object[] args) {
+        String context = compactFormatEnabled ? TransactionContextCodec.encode(transactionContext) : JSON.toJSONString(transactionContext);
         //通过 Dubbo的隐式传参的方式避免在 Dubbo Service接口上声明TransactionContext参数对接口产生入侵
-        RpcContext.getContext().setAttachment(TransactionContextConstants.TRANSACTION_CONTEXT, JSON.toJSONString(transactionContext));
+        RpcContext.getContext().setAttachment(TransactionContextConstants.TRANSACTION_CONTEXT, context);
+    }
+
+    /**
+     * 已解码的事务上下文,与编码字符串按引用比较,附带属性被替换时重新解码
+     */
+    private static class DecodedContext {
+
+        private final String encoded;
+
+        private final TransactionContext transactionContext;
+
+        DecodedContext(String encoded, TransactionContext transactionContext) {
+            this.encoded = encoded;
+            this.transactionContext = transactionContext;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,227 @@
+package org.mengyun.tcctransaction.dubbo.context;
+
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionXid;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 事务上下文紧凑编码,用于Dubbo隐式传参,格式为:
+ * [版本号][全局事务编号长度][全局事务编号][分支事务编号长度][分支事务编号][事务状态][附带属性个数]{[键长度][键][值长度][值]}*,
+ * 长度与个数为变长整数,字符串为UTF-8编码,编码结果为不带填充的base64url字符串,不会以JSON的'{'开头,可与旧版JSON格式区分
+ */
+public final class TransactionContextCodec {
+
+    /**
+     * 编码格式版本号
+     */
+    static final byte VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final char[] BASE64_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private static final int[] BASE64_INDEX = new int[128];
+
+    static {
+        for (int i = 0; i < BASE64_INDEX.length; i++) {
+            BASE64_INDEX[i] = -1;
+        }
+        for (int i = 0; i < BASE64_ALPHABET.length; i++) {
+            BASE64_INDEX[BASE64_ALPHABET[i]] = i;
+        }
+    }
+
+    private TransactionContextCodec() {
+
+    }
+
+    /**
+     * 判断字符串是否为旧版JSON格式事务上下文
+     *
+     * @param value
+     * @return
+     */
+    public static boolean isJson(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '{';
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 编码事务上下文
+     *
+     * @param transactionContext
+     * @return
+     */
+    public static String encode(TransactionContext transactionContext) {
+        TransactionXid xid = transactionContext.getXid();
+        Map<String, String> attachments = transactionContext.getAttachments();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(48);
+        output.write(VERSION);
+        writeBytes(output, xid.getGlobalTransactionId());
+        writeBytes(output, xid.getBranchQualifier());
+        output.write(transactionContext.getStatus());
+
+        writeVarInt(output, attachments.size());
+        for (Map.Entry<String, String> entry : attachments.entrySet()) {
+            writeBytes(output, entry.getKey().getBytes(UTF_8));
+            writeBytes(output, entry.getValue().getBytes(UTF_8));
+        }
+
+        return encodeBase64(output.toByteArray());
+    }
+
+    /**
+     * 解码事务上下文
+     *
+     * @param value
+     * @return
+     */
+    public static TransactionContext decode(String value) {
+        Reader reader = new Reader(decodeBase64(value));
+
+        int version = reader.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unsupported transaction context version:" + version);
+        }
+
+        byte[] globalTransactionId = reader.readBytes();
+        byte[] branchQualifier = reader.readBytes();
+        int status = reader.readByte();
+
+        TransactionContext transactionContext = new TransactionContext(new TransactionXid(globalTransactionId, branchQualifier), status);
+
+        int attachmentCount = reader.readVarInt();
+        if (attachmentCount > 0) {
+            Map<String, String> attachments = new HashMap<String, String>(attachmentCount * 2);
+            for (int i = 0; i < attachmentCount; i++) {
+                String key = new String(reader.readBytes(), UTF_8);
+                attachments.put(key, new String(reader.readBytes(), UTF_8));
+            }
+            transactionContext.setAttachments(attachments);
+        }
+
+        return transactionContext;
+    }
+
+    private static void writeBytes(ByteArrayOutputStream output, byte[] bytes) {
+        writeVarInt(output, bytes.length);
+        output.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream output, int value) {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    static String encodeBase64(byte[] bytes) {
+        char[] chars = new char[(bytes.length * 4 + 2) / 3];
+        int index = 0;
+        int i = 0;
+
+        for (; i + 2 < bytes.length; i += 3) {
+            int bits = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+            chars[index++] = BASE64_ALPHABET[bits >>> 18];
+            chars[index++] = BASE64_ALPHABET[(bits >>> 12) & 0x3F];
+            chars[index++] = BASE64_ALPHABET[(bits >>> 6) & 0x3F];
+            chars[index++] = BASE64_ALPHABET[bits & 0x3F];
+        }
+
+        int remaining = bytes.length - i;
+        if (remaining == 1) {
+            int bits = (bytes[i] & 0xFF) << 16;
+            chars[index++] = BASE64_ALPHABET[bits >>> 18];
+            chars[index] = BASE64_ALPHABET[(bits >>> 12) & 0x3F];
+        } else if (remaining == 2) {
+            int bits = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8;
+            chars[index++] = BASE64_ALPHABET[bits >>> 18];
+            chars[index++] = BASE64_ALPHABET[(bits >>> 12) & 0x3F];
+            chars[index] = BASE64_ALPHABET[(bits >>> 6) & 0x3F];
+        }
+
+        return new String(chars);
+    }
+
+    static byte[] decodeBase64(String value) {
+        int length = value.length();
+        if (length % 4 == 1) {
+            throw new IllegalArgumentException("illegal transaction context length:" + length);
+        }
+
+        byte[] bytes = new byte[length * 3 / 4];
+        int index = 0;
+        int bits = 0;
+        int bitCount = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            int digit = c < BASE64_INDEX.length ? BASE64_INDEX[c] : -1;
+            if (digit < 0) {
+                throw new IllegalArgumentException("illegal transaction context character:" + c);
+            }
+
+            bits = (bits << 6) | digit;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                bytes[index++] = (byte) (bits >>> bitCount);
+            }
+        }
+
+        return bytes;
+    }
+
+    private static class Reader {
+
+        private final byte[] bytes;
+
+        private int position;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int readByte() {
+            if (position >= bytes.length) {
+                throw new IllegalArgumentException("transaction context is truncated");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("malformed transaction context length");
+        }
+
+        byte[] readBytes() {
+            int length = readVarInt();
+            if (length < 0 || length > bytes.length - position) {
+                throw new IllegalArgumentException("transaction context is truncated");
+            }
+
+            byte[] result = new byte[length];
+            System.arraycopy(bytes, position, result, 0, length);
+            position += length;
+            return result;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import org.mengyun.tcctransaction.server.vo.TransactionVo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
@@ -77,6 +78,30 @@ public class TransactionController {
         return modelAndView;
     }
 
+    /**
+     * 查看事务内容,事务内容JSON视图在打开事务时才获取
+     *
+     * @param domain
+     * @param globalTxId
+     * @param branchQualifier
+     * @return
+     */
+    @RequestMapping(value = "/content", method = RequestMethod.GET)
+    @ResponseBody
+    public CommonResponse<String> content(String domain, String globalTxId, String branchQualifier) {
+
+        logger.info("request /content with domain: {} globalTxId: {} branchQualifier: {} ",
+                new Object[]{domain, globalTxId, branchQualifier});
+
+        try {
+            return new CommonResponse<String>(HttpStatus.OK.value(), null,
+                    daoRepository.getDao(domain).findContentView(globalTxId, branchQualifier));
+        } catch (Exception e) {
+            logger.warn("render transaction content failed", e);
+            return new CommonResponse<String>(HttpStatus.INTERNAL_SERVER_ERROR.value(), e.getMessage(), null);
+        }
+    }
+
     /**
      * 重置事务恢复重试次数
      *
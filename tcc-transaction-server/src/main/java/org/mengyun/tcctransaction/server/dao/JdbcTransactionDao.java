@@ -201,6 +201,18 @@ public class JdbcTransactionDao implements TransactionDao {
         return domain;
     }
 
+    /**
+     * JDBC事务Dao不展示事务内容
+     *
+     * @param globalTxId
+     * @param branchQualifier
+     * @return
+     */
+    @Override
+    public String findContentView(String globalTxId, String branchQualifier) {
+        return null;
+    }
+
     private void releaseConnection(Connection connection) {
         try {
             if (connection != null && !connection.isClosed()) {
@@ -1,10 +1,14 @@
 package org.mengyun.tcctransaction.server.dao;
 
-import org.apache.commons.lang3.time.DateUtils;
-import org.mengyun.tcctransaction.SystemException;
+import com.alibaba.fastjson.JSON;
+import org.mengyun.tcctransaction.api.TransactionXid;
 import org.mengyun.tcctransaction.repository.TransactionIOException;
+import org.mengyun.tcctransaction.repository.helper.ContentViewMode;
+import org.mengyun.tcctransaction.repository.helper.ExpandTransactionSerializer;
 import org.mengyun.tcctransaction.repository.helper.JedisCallback;
 import org.mengyun.tcctransaction.repository.helper.RedisHelper;
+import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
 import org.mengyun.tcctransaction.server.dto.PageDto;
 import org.mengyun.tcctransaction.server.vo.TransactionVo;
 import org.mengyun.tcctransaction.utils.ByteUtils;
@@ -13,11 +17,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import redis.clients.jedis.*;
 
-import java.text.ParseException;
+import javax.xml.bind.DatatypeConverter;
 import java.util.*;
 
 /**
- * Redis事务Dao
+ * Redis事务Dao,全局事务编号与分支事务编号以十六进制展示,与JdbcTransactionDao一致,
+ * 可由其还原事务编号得到规范Redis Key,规范Key不存在时兼容操作升级前的Key
+ * <p/>
+ * 事务列表只读取头部字段与已写入的事务内容JSON视图,不读取事务内容;ON_DEMAND模式下未写入视图的事务在打开时反序列化事务内容再渲染JSON,
+ * 序列化器需与事务存储器一致,且参与者方法参数的类需在管理后台的类路径中
  */
 public class RedisTransactionDao implements TransactionDao {
 
@@ -31,6 +39,30 @@ public class RedisTransactionDao implements TransactionDao {
 
     private String domain;
 
+    /**
+     * 事务列表读取的Hash字段,不包含事务内容
+     */
+    private static final byte[][] VIEW_FIELDS = new byte[][]{
+            ExpandTransactionSerializer.GLOBAL_TX_ID,
+            ExpandTransactionSerializer.BRANCH_QUALIFIER,
+            ExpandTransactionSerializer.STATUS,
+            ExpandTransactionSerializer.TRANSACTION_TYPE,
+            ExpandTransactionSerializer.RETRIED_COUNT,
+            ExpandTransactionSerializer.CREATE_TIME,
+            ExpandTransactionSerializer.LAST_UPDATE_TIME,
+            ExpandTransactionSerializer.CONTENT_VIEW
+    };
+
+    /**
+     * 事务内容JSON视图模式,默认为ON_DEMAND
+     */
+    private ContentViewMode contentViewMode = ContentViewMode.ON_DEMAND;
+
+    /**
+     * 反序列化事务内容的序列化器,需与事务存储器一致
+     */
+    private ObjectSerializer serializer = new JdkSerializationSerializer();
+
     private String getKeyPrefix() {
         return KEY_NAME_SPACE + ":" + keySuffix + ":";
     }
@@ -85,37 +117,15 @@ public class RedisTransactionDao implements TransactionDao {
                             Pipeline pipeline = jedis.pipelined();
 
                             for (final String key : keys) {
-                                pipeline.hgetAll(key);
+                                pipeline.hmget(key.getBytes(), VIEW_FIELDS);
                             }
                             List<Object> result = pipeline.syncAndReturnAll();
 
                             List<TransactionVo> list = new ArrayList<TransactionVo>();
                             for (Object data : result) {
-                                try {
-
-                                    Map<byte[], byte[]> map1 = (Map<byte[], byte[]>) data;
-
-                                    Map<String, byte[]> propertyMap = new HashMap<String, byte[]>();
-
-                                    for (Map.Entry<byte[], byte[]> entry : map1.entrySet()) {
-                                        propertyMap.put(new String(entry.getKey()), entry.getValue());
-                                    }
-
-
-                                    TransactionVo transactionVo = new TransactionVo();
-                                    transactionVo.setDomain(domain);
-                                    transactionVo.setGlobalTxId(UUID.nameUUIDFromBytes(propertyMap.get("GLOBAL_TX_ID")).toString());
-                                    transactionVo.setBranchQualifier(UUID.nameUUIDFromBytes(propertyMap.get("BRANCH_QUALIFIER")).toString());
-                                    transactionVo.setStatus(ByteUtils.bytesToInt(propertyMap.get("STATUS")));
-                                    transactionVo.setTransactionType(ByteUtils.bytesToInt(propertyMap.get("TRANSACTION_TYPE")));
-                                    transactionVo.setRetriedCount(ByteUtils.bytesToInt(propertyMap.get("RETRIED_COUNT")));
-                                    transactionVo.setCreateTime(DateUtils.parseDate(new String(propertyMap.get("CREATE_TIME")), "yyyy-MM-dd HH:mm:ss"));
-                                    transactionVo.setLastUpdateTime(DateUtils.parseDate(new String(propertyMap.get("LAST_UPDATE_TIME")), "yyyy-MM-dd HH:mm:ss"));
-                                    transactionVo.setContentView(new String(propertyMap.get("CONTENT_VIEW")));
+                                TransactionVo transactionVo = toTransactionVo((List<byte[]>) data);
+                                if (transactionVo != null) {
                                     list.add(transactionVo);
-
-                                } catch (ParseException e) {
-                                    throw new SystemException(e);
                                 }
                             }
 
@@ -151,7 +161,7 @@ public class RedisTransactionDao implements TransactionDao {
             @Override
             public Boolean doInJedis(Jedis jedis) {
 
-                byte[] key = RedisHelper.getRedisKey(getKeyPrefix(), globalTxId, branchQualifier);
+                byte[] key = getRedisKey(jedis, globalTxId, branchQualifier);
                 Long result = jedis.hset(key, "RETRIED_COUNT".getBytes(), ByteUtils.intToBytes(0));
                 return result > 0;
             }
@@ -164,7 +174,8 @@ public class RedisTransactionDao implements TransactionDao {
             @Override
             public Boolean doInJedis(Jedis jedis) {
 
-                byte[] key = RedisHelper.getRedisKey(getKeyPrefix(), globalTxId, branchQualifier);
+                byte[] key = getRedisKey(jedis, globalTxId, branchQualifier);
+                jedis.zrem(RedisHelper.getIndexKey(getKeyPrefix()), key);
                 Long result = jedis.del(key);
                 return result > 0;
             }
@@ -177,7 +188,7 @@ public class RedisTransactionDao implements TransactionDao {
             @Override
             public Boolean doInJedis(Jedis jedis) {
 
-                byte[] key = RedisHelper.getRedisKey(getKeyPrefix(), globalTxId, branchQualifier);
+                byte[] key = getRedisKey(jedis, globalTxId, branchQualifier);
                 Long result = jedis.hset(key, "STATUS".getBytes(), ByteUtils.intToBytes(2));
                 return result > 0;
             }
@@ -190,7 +201,7 @@ public class RedisTransactionDao implements TransactionDao {
             @Override
             public Boolean doInJedis(Jedis jedis) {
 
-                byte[] key = RedisHelper.getRedisKey(getKeyPrefix(), globalTxId, branchQualifier);
+                byte[] key = getRedisKey(jedis, globalTxId, branchQualifier);
                 Long result = jedis.hset(key, "STATUS".getBytes(), ByteUtils.intToBytes(3));
                 return result > 0;
             }
@@ -202,6 +213,37 @@ public class RedisTransactionDao implements TransactionDao {
         return domain;
     }
 
+    /**
+     * 获取事务内容JSON视图,ON_DEMAND模式下反序列化事务内容再渲染JSON,SAMPLED模式下返回写入的视图
+     *
+     * @param globalTxId
+     * @param branchQualifier
+     * @return
+     */
+    @Override
+    public String findContentView(final String globalTxId, final String branchQualifier) {
+        if (contentViewMode == ContentViewMode.OFF) {
+            return null;
+        }
+
+        return RedisHelper.execute(jedisPool, new JedisCallback<String>() {
+            @Override
+            public String doInJedis(Jedis jedis) {
+
+                byte[] key = getRedisKey(jedis, globalTxId, branchQualifier);
+
+                //ON_DEMAND模式总是反序列化事务内容渲染,不使用升级前或SAMPLED模式写入的可能已过期的视图
+                if (contentViewMode == ContentViewMode.ON_DEMAND) {
+                    byte[] content = jedis.hget(key, ExpandTransactionSerializer.CONTENT);
+                    return content == null ? null : JSON.toJSONString(serializer.deserialize(content));
+                }
+
+                byte[] contentView = jedis.hget(key, ExpandTransactionSerializer.CONTENT_VIEW);
+                return contentView == null ? null : new String(contentView);
+            }
+        });
+    }
+
     public void setDomain(String domain) {
         this.domain = domain;
     }
@@ -210,6 +252,14 @@ public class RedisTransactionDao implements TransactionDao {
         this.jedisPool = jedisPool;
     }
 
+    public void setContentViewMode(ContentViewMode contentViewMode) {
+        this.contentViewMode = contentViewMode;
+    }
+
+    public void setSerializer(ObjectSerializer serializer) {
+        this.serializer = serializer;
+    }
+
     public String getKeySuffix() {
         return keySuffix;
     }
@@ -287,39 +337,15 @@ public class RedisTransactionDao implements TransactionDao {
                             Pipeline pipeline = jedis.pipelined();
 
                             for (final byte[] key : keys) {
-                                pipeline.hgetAll(key);
+                                pipeline.hmget(key, VIEW_FIELDS);
                             }
                             List<Object> result = pipeline.syncAndReturnAll();
 
                             List<TransactionVo> list = new ArrayList<TransactionVo>();
                             for (Object data : result) {
-                                try {
-
-                                    Map<byte[], byte[]> map1 = (Map<byte[], byte[]>) data;
-
-                                    Map<String, byte[]> propertyMap = new HashMap<String, byte[]>();
-
-                                    for (Map.Entry<byte[], byte[]> entry : map1.entrySet()) {
-
-                                        propertyMap.put(new String(entry.getKey()), entry.getValue());
-
-                                    }
-
-
-                                    TransactionVo transactionVo = new TransactionVo();
-                                    transactionVo.setDomain(domain);
-                                    transactionVo.setGlobalTxId(UUID.nameUUIDFromBytes(propertyMap.get("GLOBAL_TX_ID")).toString());
-                                    transactionVo.setBranchQualifier(UUID.nameUUIDFromBytes(propertyMap.get("BRANCH_QUALIFIER")).toString());
-                                    transactionVo.setStatus(ByteUtils.bytesToInt(propertyMap.get("STATUS")));
-                                    transactionVo.setTransactionType(ByteUtils.bytesToInt(propertyMap.get("TRANSACTION_TYPE")));
-                                    transactionVo.setRetriedCount(ByteUtils.bytesToInt(propertyMap.get("RETRIED_COUNT")));
-                                    transactionVo.setCreateTime(DateUtils.parseDate(new String(propertyMap.get("CREATE_TIME")), "yyyy-MM-dd HH:mm:ss"));
-                                    transactionVo.setLastUpdateTime(DateUtils.parseDate(new String(propertyMap.get("LAST_UPDATE_TIME")), "yyyy-MM-dd HH:mm:ss"));
-                                    transactionVo.setContentView(new String(propertyMap.get("CONTENT_VIEW")));
+                                TransactionVo transactionVo = toTransactionVo((List<byte[]>) data);
+                                if (transactionVo != null) {
                                     list.add(transactionVo);
-
-                                } catch (ParseException e) {
-                                    throw new SystemException(e);
                                 }
                             }
 
@@ -338,6 +364,54 @@ public class RedisTransactionDao implements TransactionDao {
         return pageDto;
     }
 
+    /**
+     * 根据按VIEW_FIELDS顺序读取的字段值构造事务Vo,事务已不存在时返回null
+     *
+     * @param values
+     * @return
+     */
+    private TransactionVo toTransactionVo(List<byte[]> values) {
+        if (values == null || values.get(0) == null) {
+            return null;
+        }
+
+        TransactionVo transactionVo = new TransactionVo();
+        transactionVo.setDomain(domain);
+        transactionVo.setGlobalTxId(DatatypeConverter.printHexBinary(values.get(0)));
+        transactionVo.setBranchQualifier(DatatypeConverter.printHexBinary(values.get(1)));
+        transactionVo.setStatus(ByteUtils.bytesToInt(values.get(2)));
+        transactionVo.setTransactionType(ByteUtils.bytesToInt(values.get(3)));
+        transactionVo.setRetriedCount(ByteUtils.bytesToInt(values.get(4)));
+        //兼容以毫秒数与升级前格式保存的时间
+        transactionVo.setCreateTime(ExpandTransactionSerializer.deserializeDate(values.get(5)));
+        transactionVo.setLastUpdateTime(ExpandTransactionSerializer.deserializeDate(values.get(6)));
+        if (contentViewMode == ContentViewMode.SAMPLED && values.get(7) != null) {
+            transactionVo.setContentView(new String(values.get(7)));
+        }
+        return transactionVo;
+    }
+
+    /**
+     * 根据十六进制全局事务编号以及分支事务编号获取Redis Key,规范Key不存在而升级前的Key存在时返回升级前的Key
+     *
+     * @param jedis
+     * @param globalTxId
+     * @param branchQualifier
+     * @return
+     */
+    private byte[] getRedisKey(Jedis jedis, String globalTxId, String branchQualifier) {
+        TransactionXid xid = new TransactionXid(DatatypeConverter.parseHexBinary(globalTxId), DatatypeConverter.parseHexBinary(branchQualifier));
+
+        byte[] key = RedisHelper.getRedisKey(getKeyPrefix(), xid);
+        if (!jedis.exists(key)) {
+            byte[] legacyKey = RedisHelper.getLegacyRedisKey(getKeyPrefix(), xid);
+            if (jedis.exists(legacyKey)) {
+                return legacyKey;
+            }
+        }
+        return key;
+    }
+
     private boolean isSupportScanCommand(Jedis jedis) {
 
         if (jedis == null) {
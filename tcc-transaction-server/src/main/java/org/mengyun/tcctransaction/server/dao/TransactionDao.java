@@ -42,5 +42,14 @@ public interface TransactionDao {
 
     public String getDomain();
 
+    /**
+     * 获取事务内容JSON视图,管理后台打开事务时调用
+     *
+     * @param globalTxId
+     * @param branchQualifier
+     * @return 事务不存在或不展示事务内容时返回null
+     */
+    public String findContentView(String globalTxId, String branchQualifier);
+
     public PageDto<TransactionVo> findTransactionPageDto(Integer pageNum, int pageSize);
 }
\ No newline at end of file
@@ -65,7 +65,7 @@
                     <td>[#if transactionVo.transactionType==1]Root[#else ]Branch[/#if]</td>
                     <td>${transactionVo.retriedCount}</td>
                     <td>
-                        <div style="width: 600px; height: 120px; overflow: scroll;">${transactionVo.contentView}</div>
+                        <div style="width: 600px; height: 120px; overflow: scroll;">[#if transactionVo.contentView??]${transactionVo.contentView}[#else]<button class="btn btn-info btn-xs j-content" data-url="" data-echo="">查看</button>[/#if]</div>
                     </td>
                     <td>${transactionVo.createTime?datetime}</td>
                     <td>${transactionVo.lastUpdateTime?datetime}</td>
@@ -58,6 +58,43 @@ jQuery(document).ready(function($) {
 		
 	});
 
+    $('.table > tbody').on('click', '.j-content', function () {
+        var $this = $(this),
+            globalTxId,
+            branchQualifier,
+            domain,
+            url;
+
+        globalTxId = $this.closest('td').siblings().eq(1).text();
+        branchQualifier = $this.closest('td').siblings().eq(2).text();
+        domain = (location.href.match(/domain=([^&]+)/) || [,''])[1];
+        if(!domain) {
+            return;
+        }
+
+        url = 'management/content';
+        $.ajax({
+            url: url,
+            type: 'GET',
+            dataType: 'json',
+            data: {
+                domain:domain,
+                globalTxId: globalTxId,
+                branchQualifier: branchQualifier
+            }
+        })
+            .done(function(result) {
+                if(result.code === 200) {
+                    $this.parent().text(result.data || '');
+                }
+                console.log(result.message);
+            })
+            .fail(function() {
+                console.log(arguments);
+            });
+
+    });
+
     $('.table > tbody').on('click', '.j-delete', function () {
         var $this = $(this),
             globalTxId,
@@ -11,5 +11,7 @@ CREATE TABLE `TCC_TRANSACTION` (
   `LAST_UPDATE_TIME` datetime DEFAULT NULL,
   `VERSION` int(11) DEFAULT NULL,
   PRIMARY KEY (`TRANSACTION_ID`),
-  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
+  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`),
+  KEY `IX_DOMAIN_LUT` (`DOMAIN`,`LAST_UPDATE_TIME`,`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`),
+  KEY `IX_LUT` (`LAST_UPDATE_TIME`,`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
 ) ENGINE=InnoDB AUTO_INCREMENT=1 DEFAULT CHARSET=utf8;
\ No newline at end of file
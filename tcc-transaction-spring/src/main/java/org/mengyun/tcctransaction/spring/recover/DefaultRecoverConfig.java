@@ -2,6 +2,8 @@ package org.mengyun.tcctransaction.spring.recover;
 
 import org.mengyun.tcctransaction.OptimisticLockException;
 import org.mengyun.tcctransaction.recover.RecoverConfig;
+import org.mengyun.tcctransaction.recover.TerminateRecoverConfig;
+import org.mengyun.tcctransaction.support.TerminateExecutor;
 
 import java.net.SocketTimeoutException;
 import java.util.HashSet;
@@ -10,7 +12,7 @@ import java.util.Set;
 /**
  * 默认事务恢复策略配置
  */
-public class DefaultRecoverConfig implements RecoverConfig {
+public class DefaultRecoverConfig implements TerminateRecoverConfig {
 
     public static final RecoverConfig INSTANCE = new DefaultRecoverConfig();
 
@@ -30,9 +32,25 @@ public class DefaultRecoverConfig implements RecoverConfig {
     private String cronExpression = "0 */1 * * * ?";
 
     /**
-     * 同步终结线程池大小默认为1024
+     * 异步终结线程池大小默认为CPU核数的4倍,确认、取消调用多为远程调用,线程数略多于CPU核数,
+     * 空闲线程超时回收,调用耗时较长时可按并发量调大
      */
-    private int asyncTerminateThreadPoolSize = 1024;
+    private int asyncTerminateThreadPoolSize = Runtime.getRuntime().availableProcessors() * 4;
+
+    /**
+     * 异步终结线程池等待队列大小默认为4096
+     */
+    private int asyncTerminateQueueSize = 4096;
+
+    /**
+     * 异步终结线程池拒绝策略默认为交由恢复Job终结
+     */
+    private TerminateExecutor.RejectedPolicy asyncTerminateRejectedPolicy = TerminateExecutor.RejectedPolicy.RECOVERY;
+
+    /**
+     * 参与者并行终结线程池大小默认为0,即顺序调用参与者
+     */
+    private int parallelTerminateThreadPoolSize = 0;
 
     /**
      * 延迟取消异常集合默认包括OptimisticLockException、SocketTimeoutException异常
@@ -95,4 +113,31 @@ public class DefaultRecoverConfig implements RecoverConfig {
     public void setAsyncTerminateThreadPoolSize(int asyncTerminateThreadPoolSize) {
         this.asyncTerminateThreadPoolSize = asyncTerminateThreadPoolSize;
     }
+
+    @Override
+    public int getAsyncTerminateQueueSize() {
+        return asyncTerminateQueueSize;
+    }
+
+    public void setAsyncTerminateQueueSize(int asyncTerminateQueueSize) {
+        this.asyncTerminateQueueSize = asyncTerminateQueueSize;
+    }
+
+    @Override
+    public TerminateExecutor.RejectedPolicy getAsyncTerminateRejectedPolicy() {
+        return asyncTerminateRejectedPolicy;
+    }
+
+    public void setAsyncTerminateRejectedPolicy(TerminateExecutor.RejectedPolicy asyncTerminateRejectedPolicy) {
+        this.asyncTerminateRejectedPolicy = asyncTerminateRejectedPolicy;
+    }
+
+    @Override
+    public int getParallelTerminateThreadPoolSize() {
+        return parallelTerminateThreadPoolSize;
+    }
+
+    public void setParallelTerminateThreadPoolSize(int parallelTerminateThreadPoolSize) {
+        this.parallelTerminateThreadPoolSize = parallelTerminateThreadPoolSize;
+    }
 }
\ No newline at end of file
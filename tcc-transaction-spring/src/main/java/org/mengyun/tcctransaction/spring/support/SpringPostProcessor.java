@@ -1,13 +1,17 @@
 package org.mengyun.tcctransaction.spring.support;
 
+import org.mengyun.tcctransaction.api.Compensable;
 import org.mengyun.tcctransaction.support.BeanFactory;
 import org.mengyun.tcctransaction.support.FactoryBuilder;
+import org.mengyun.tcctransaction.utils.ReflectionUtils;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ContextRefreshedEvent;
-import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
 
-import javax.annotation.PostConstruct;
+import java.lang.reflect.Method;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * Created by changmingxie on 11/20/15.
@@ -20,6 +24,37 @@ public class SpringPostProcessor implements ApplicationListener<ContextRefreshed
 
         if (applicationContext.getParent() == null) {
             FactoryBuilder.registerBeanFactory(applicationContext.getBean(BeanFactory.class));
+
+            //Bean工厂注册完成后预热可补偿事务方法的事务上下文编辑器以及参与者目标类单例
+            FactoryBuilder.prewarm(getCompensableClasses(applicationContext));
         }
     }
+
+    /**
+     * 获取应用上下文中所有带@Compensable注解方法的事务上下文编辑器类以及参与者目标类
+     *
+     * @param applicationContext
+     * @return
+     */
+    private Set<Class> getCompensableClasses(ApplicationContext applicationContext) {
+        Set<Class> classes = new LinkedHashSet<Class>();
+
+        for (String beanName : applicationContext.getBeanDefinitionNames()) {
+            Class<?> beanType = applicationContext.getType(beanName);
+            if (beanType == null) {
+                continue;
+            }
+
+            Class<?> userClass = ClassUtils.getUserClass(beanType);
+            for (Method method : userClass.getMethods()) {
+                Compensable compensable = method.getAnnotation(Compensable.class);
+                if (compensable != null) {
+                    classes.add(compensable.transactionContextEditor());
+                    classes.add(ReflectionUtils.getDeclaringType(userClass, method.getName(), method.getParameterTypes()));
+                }
+            }
+        }
+
+        return classes;
+    }
 }
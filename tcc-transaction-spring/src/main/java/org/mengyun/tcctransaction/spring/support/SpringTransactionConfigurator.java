@@ -3,20 +3,25 @@ package org.mengyun.tcctransaction.spring.support;
 import org.mengyun.tcctransaction.TransactionManager;
 import org.mengyun.tcctransaction.TransactionRepository;
 import org.mengyun.tcctransaction.recover.RecoverConfig;
+import org.mengyun.tcctransaction.recover.TerminateRecoverConfig;
 import org.mengyun.tcctransaction.repository.CachableTransactionRepository;
+import org.mengyun.tcctransaction.repository.JdbcTransactionRepository;
 import org.mengyun.tcctransaction.spring.recover.DefaultRecoverConfig;
+import org.mengyun.tcctransaction.support.TerminateExecutor;
 import org.mengyun.tcctransaction.support.TransactionConfigurator;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by changmingxie on 11/11/15.
  */
 public class SpringTransactionConfigurator implements TransactionConfigurator {
 
-    private static volatile ExecutorService executorService = null;
+    private static volatile ExecutorService participantExecutorService = null;
 
     @Autowired
     private TransactionRepository transactionRepository;
@@ -25,33 +30,94 @@ public class SpringTransactionConfigurator implements TransactionConfigurator {
     private RecoverConfig recoverConfig = DefaultRecoverConfig.INSTANCE;
 
 
+    /**
+     * 异步终结线程池所属域,为空时取JdbcTransactionRepository的domain,否则为默认域
+     */
+    private String domain;
+
+    /**
+     * 自定义异步终结线程池,为空时按域使用有界的TerminateExecutor
+     */
+    private ExecutorService asyncTerminateExecutorService;
+
     private TransactionManager transactionManager;
 
     public void init() {
         transactionManager = new TransactionManager();
         transactionManager.setTransactionRepository(transactionRepository);
 
-        if (executorService == null) {
+        TerminateRecoverConfig terminateRecoverConfig = getTerminateRecoverConfig();
 
-            synchronized (SpringTransactionConfigurator.class) {
+        if (asyncTerminateExecutorService == null) {
+            //按域隔离的有界线程池,线程数与队列满时按拒绝策略处理,避免下游故障时线程无限增长
+            asyncTerminateExecutorService = TerminateExecutor.getInstance(getDomain(),
+                    recoverConfig.getAsyncTerminateThreadPoolSize(),
+                    terminateRecoverConfig.getAsyncTerminateQueueSize(),
+                    terminateRecoverConfig.getAsyncTerminateRejectedPolicy());
+        }
 
-                if (executorService == null) {
-//                    executorService = new ThreadPoolExecutor(recoverConfig.getAsyncTerminateThreadPoolSize(),
-//                            recoverConfig.getAsyncTerminateThreadPoolSize(),
-//                            0L, TimeUnit.SECONDS,
-//                            new SynchronousQueue<Runnable>());
-                    executorService = Executors.newCachedThreadPool();
+        transactionManager.setExecutorService(asyncTerminateExecutorService);
+
+        if (terminateRecoverConfig.getParallelTerminateThreadPoolSize() > 0) {
+            if (participantExecutorService == null) {
+                synchronized (SpringTransactionConfigurator.class) {
+                    if (participantExecutorService == null) {
+                        //线程池满时由调用线程执行参与者,避免线程数无限增长
+                        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(terminateRecoverConfig.getParallelTerminateThreadPoolSize(),
+                                terminateRecoverConfig.getParallelTerminateThreadPoolSize(),
+                                60L, TimeUnit.SECONDS,
+                                new SynchronousQueue<Runnable>(),
+                                new ThreadPoolExecutor.CallerRunsPolicy());
+                        threadPoolExecutor.allowCoreThreadTimeOut(true);
+                        participantExecutorService = threadPoolExecutor;
+                    }
                 }
             }
-        }
 
-        transactionManager.setExecutorService(executorService);
+            transactionManager.setParticipantExecutorService(participantExecutorService);
+        }
 
         if (transactionRepository instanceof CachableTransactionRepository) {
             ((CachableTransactionRepository) transactionRepository).setExpireDuration(recoverConfig.getRecoverDuration());
         }
     }
 
+    /**
+     * 容器关闭时关闭事务存储器,等待组提交中已提交的写请求完成刷写
+     */
+    public void destroy() {
+        if (transactionRepository instanceof CachableTransactionRepository) {
+            ((CachableTransactionRepository) transactionRepository).close();
+        }
+    }
+
+    /**
+     * 自定义RecoverConfig未实现TerminateRecoverConfig时,队列大小、拒绝策略以及并行终结线程池大小取默认值
+     *
+     * @return
+     */
+    private TerminateRecoverConfig getTerminateRecoverConfig() {
+        if (recoverConfig instanceof TerminateRecoverConfig) {
+            return (TerminateRecoverConfig) recoverConfig;
+        }
+        return (TerminateRecoverConfig) DefaultRecoverConfig.INSTANCE;
+    }
+
+    public String getDomain() {
+        if (domain == null && transactionRepository instanceof JdbcTransactionRepository) {
+            return ((JdbcTransactionRepository) transactionRepository).getDomain();
+        }
+        return domain;
+    }
+
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    public void setAsyncTerminateExecutorService(ExecutorService asyncTerminateExecutorService) {
+        this.asyncTerminateExecutorService = asyncTerminateExecutorService;
+    }
+
     @Override
     public TransactionManager getTransactionManager() {
         return transactionManager;
@@ -12,7 +12,9 @@ CREATE TABLE `TCC_TRANSACTION_CAP` (
   `LAST_UPDATE_TIME` datetime DEFAULT NULL,
   `VERSION` int(11) DEFAULT NULL,
   PRIMARY KEY (`TRANSACTION_ID`),
-  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
+  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`),
+  KEY `IX_DOMAIN_LUT` (`DOMAIN`,`LAST_UPDATE_TIME`,`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`),
+  KEY `IX_LUT` (`LAST_UPDATE_TIME`,`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 CREATE TABLE `TCC_TRANSACTION_ORD` (
@@ -28,7 +30,9 @@ CREATE TABLE `TCC_TRANSACTION_ORD` (
   `LAST_UPDATE_TIME` datetime DEFAULT NULL,
   `VERSION` int(11) DEFAULT NULL,
   PRIMARY KEY (`TRANSACTION_ID`),
-  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
+  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`),
+  KEY `IX_DOMAIN_LUT` (`DOMAIN`,`LAST_UPDATE_TIME`,`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`),
+  KEY `IX_LUT` (`LAST_UPDATE_TIME`,`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 CREATE TABLE `TCC_TRANSACTION_RED` (
@@ -44,7 +48,9 @@ CREATE TABLE `TCC_TRANSACTION_RED` (
   `LAST_UPDATE_TIME` datetime DEFAULT NULL,
   `VERSION` int(11) DEFAULT NULL,
   PRIMARY KEY (`TRANSACTION_ID`),
-  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
+  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`),
+  KEY `IX_DOMAIN_LUT` (`DOMAIN`,`LAST_UPDATE_TIME`,`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`),
+  KEY `IX_LUT` (`LAST_UPDATE_TIME`,`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 
@@ -61,5 +67,7 @@ CREATE TABLE `TCC_TRANSACTION_UT` (
   `LAST_UPDATE_TIME` datetime DEFAULT NULL,
   `VERSION` int(11) DEFAULT NULL,
   PRIMARY KEY (`TRANSACTION_ID`),
-  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
+  UNIQUE KEY `UX_TX_BQ` (`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`),
+  KEY `IX_DOMAIN_LUT` (`DOMAIN`,`LAST_UPDATE_TIME`,`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`),
+  KEY `IX_LUT` (`LAST_UPDATE_TIME`,`GLOBAL_TX_ID`,`BRANCH_QUALIFIER`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
\ No newline at end of file
@@ -0,0 +1,122 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.helper.TransactionSerializer;
+import org.mengyun.tcctransaction.serializer.CompactTransactionSerializer;
+import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
+
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * 紧凑二进制事务序列化往返与旧格式兼容性测试
+ */
+public class CompactTransactionSerializerTest {
+
+    private CompactTransactionSerializer<Transaction> serializer = new CompactTransactionSerializer<Transaction>();
+
+    /**
+     * 序列化后反序列化,事务字段、参与者、调用上下文以及附带属性保持不变
+     */
+    @Test
+    public void roundTripsTransaction() {
+        Transaction transaction = newTransaction();
+
+        byte[] bytes = serializer.serialize(transaction);
+        Assert.assertTrue(CompactTransactionSerializer.isCompactFormat(bytes));
+
+        assertTransactionEquals(transaction, serializer.deserialize(bytes));
+    }
+
+    /**
+     * 以JDK序列化保存的事务仍可通过紧凑二进制事务序列化器读取
+     */
+    @Test
+    public void readsJdkSerializedTransaction() {
+        Transaction transaction = newTransaction();
+
+        byte[] bytes = new JdkSerializationSerializer<Transaction>().serialize(transaction);
+        Assert.assertFalse(CompactTransactionSerializer.isCompactFormat(bytes));
+
+        assertTransactionEquals(transaction, serializer.deserialize(bytes));
+    }
+
+    /**
+     * 存储器记录直接以紧凑格式保存,切换序列化器前以Map格式保存的记录仍可读取
+     */
+    @Test
+    public void readsLegacyRepositoryRecord() {
+        Transaction transaction = newTransaction();
+
+        byte[] record = TransactionSerializer.serialize(serializer, transaction);
+        Assert.assertTrue(CompactTransactionSerializer.isCompactFormat(record));
+        assertTransactionEquals(transaction, TransactionSerializer.deserialize(serializer, record));
+
+        byte[] legacyRecord = TransactionSerializer.serialize(new JdkSerializationSerializer(), transaction);
+        assertTransactionEquals(transaction, TransactionSerializer.deserialize(serializer, legacyRecord));
+    }
+
+    public void record(TransactionContext transactionContext, String orderNo) {
+
+    }
+
+    private Transaction newTransaction() {
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        transaction.changeStatus(TransactionStatus.CONFIRMING);
+        transaction.resetRetriedCount(3);
+        transaction.setVersion(7);
+        transaction.setLastUpdateTime(new Date(1500000000123L));
+        transaction.getAttachments().put("orderNo", "20170714");
+
+        Class[] parameterTypes = new Class[]{TransactionContext.class, String.class};
+        for (int i = 0; i < 2; i++) {
+            Participant participant = new Participant(new TransactionXid(transaction.getXid().getGlobalTransactionId()),
+                    new InvocationContext(CompactTransactionSerializerTest.class, "record", parameterTypes, null, "order-" + i),
+                    new InvocationContext(CompactTransactionSerializerTest.class, "record", parameterTypes, null, "order-" + i),
+                    Compensable.DefaultTransactionContextEditor.class);
+            participant.setStatus(i == 0 ? ParticipantStatus.CONFIRMED : ParticipantStatus.TRYING);
+            transaction.enlistParticipant(participant);
+        }
+        return transaction;
+    }
+
+    private void assertTransactionEquals(Transaction expected, Transaction actual) {
+        Assert.assertEquals(expected.getXid(), actual.getXid());
+        Assert.assertEquals(expected.getStatus(), actual.getStatus());
+        Assert.assertEquals(expected.getTransactionType(), actual.getTransactionType());
+        Assert.assertEquals(expected.getRetriedCount(), actual.getRetriedCount());
+        Assert.assertEquals(expected.getVersion(), actual.getVersion());
+        Assert.assertEquals(expected.getCreateTime(), actual.getCreateTime());
+        Assert.assertEquals(expected.getLastUpdateTime(), actual.getLastUpdateTime());
+        Assert.assertEquals(expected.getAttachments(), actual.getAttachments());
+
+        Assert.assertEquals(expected.getParticipants().size(), actual.getParticipants().size());
+        for (int i = 0; i < expected.getParticipants().size(); i++) {
+            Participant expectedParticipant = expected.getParticipants().get(i);
+            Participant actualParticipant = actual.getParticipants().get(i);
+
+            Assert.assertEquals(expectedParticipant.getXid(), actualParticipant.getXid());
+            Assert.assertEquals(expectedParticipant.getStatus(), actualParticipant.getStatus());
+            Assert.assertEquals(expectedParticipant.getTransactionContextEditorClass(), actualParticipant.getTransactionContextEditorClass());
+            assertInvocationContextEquals(expectedParticipant.getConfirmInvocationContext(), actualParticipant.getConfirmInvocationContext());
+            assertInvocationContextEquals(expectedParticipant.getCancelInvocationContext(), actualParticipant.getCancelInvocationContext());
+        }
+    }
+
+    private void assertInvocationContextEquals(InvocationContext expected, InvocationContext actual) {
+        Assert.assertEquals(expected.getTargetClass(), actual.getTargetClass());
+        Assert.assertEquals(expected.getMethodName(), actual.getMethodName());
+        Assert.assertTrue(Arrays.equals(expected.getParameterTypes(), actual.getParameterTypes()));
+        Assert.assertTrue(Arrays.equals(expected.getArgs(), actual.getArgs()));
+    }
+}
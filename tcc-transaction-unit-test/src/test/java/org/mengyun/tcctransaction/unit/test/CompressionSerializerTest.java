@@ -0,0 +1,95 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.SystemException;
+import org.mengyun.tcctransaction.serializer.CompressionSerializer;
+import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 压缩序列化装饰器往返、压缩阈值以及损坏数据测试
+ */
+public class CompressionSerializerTest {
+
+    private JdkSerializationSerializer<String> delegate = new JdkSerializationSerializer<String>();
+
+    private CompressionSerializer<String> serializer = new CompressionSerializer<String>(delegate);
+
+    /**
+     * 超过阈值的结果压缩保存,反序列化得到原始对象
+     */
+    @Test
+    public void roundTripsCompressedValue() {
+        String value = repeat("participant", 1000);
+
+        byte[] bytes = serializer.serialize(value);
+
+        Assert.assertTrue(CompressionSerializer.isCompressed(bytes));
+        Assert.assertTrue(bytes.length < delegate.serialize(value).length);
+        Assert.assertEquals(value, serializer.deserialize(bytes));
+    }
+
+    /**
+     * 小于阈值的结果与压缩后未变小的结果原样保存,仍可反序列化
+     */
+    @Test
+    public void keepsValueBelowThresholdOrIncompressible() {
+        String small = "participant";
+        Assert.assertTrue(Arrays.equals(delegate.serialize(small), serializer.serialize(small)));
+        Assert.assertEquals(small, serializer.deserialize(serializer.serialize(small)));
+
+        byte[] random = new byte[4096];
+        new Random(0).nextBytes(random);
+        CompressionSerializer<byte[]> bytesSerializer = new CompressionSerializer<byte[]>(new JdkSerializationSerializer<byte[]>());
+
+        byte[] bytes = bytesSerializer.serialize(random);
+        Assert.assertFalse(CompressionSerializer.isCompressed(bytes));
+        Assert.assertTrue(Arrays.equals(random, bytesSerializer.deserialize(bytes)));
+    }
+
+    /**
+     * 调整阈值后按新阈值判断是否压缩,未压缩的已有数据仍可读取
+     */
+    @Test
+    public void compressesFromThreshold() {
+        String value = repeat("a", 200);
+        byte[] uncompressed = serializer.serialize(value);
+        Assert.assertFalse(CompressionSerializer.isCompressed(uncompressed));
+
+        serializer.setThreshold(uncompressed.length);
+        Assert.assertTrue(CompressionSerializer.isCompressed(serializer.serialize(value)));
+        Assert.assertEquals(value, serializer.deserialize(uncompressed));
+    }
+
+    /**
+     * 头部记录的原始长度超过上限时分配数组前即拒绝解压
+     */
+    @Test(expected = SystemException.class)
+    public void rejectsOversizedOriginalLength() {
+        byte[] bytes = serializer.serialize(repeat("participant", 1000));
+        bytes[5] = (byte) 0x7F;
+
+        serializer.deserialize(bytes);
+    }
+
+    /**
+     * 压缩数据被截断时以异常结束
+     */
+    @Test(expected = SystemException.class)
+    public void failsOnTruncatedValue() {
+        byte[] bytes = serializer.serialize(repeat("participant", 1000));
+
+        serializer.deserialize(Arrays.copyOf(bytes, bytes.length / 2));
+    }
+
+    private String repeat(String value, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(value).append(i % 10);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,51 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.repository.helper.ExpandTransactionSerializer;
+import org.mengyun.tcctransaction.utils.ByteUtils;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Redis事务Hash时间字段格式兼容性测试
+ */
+public class ExpandTransactionSerializerTest {
+
+    /**
+     * 同时读取以毫秒数与升级前"yyyy-MM-dd HH:mm:ss"格式保存的时间
+     */
+    @Test
+    public void deserializesBothDateFormats() throws Exception {
+        Date date = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse("2017-07-14 10:40:00");
+
+        Assert.assertEquals(date, ExpandTransactionSerializer.deserializeDate("2017-07-14 10:40:00".getBytes()));
+        Assert.assertEquals(date, ExpandTransactionSerializer.deserializeDate(ByteUtils.longToBytes(date.getTime())));
+        Assert.assertEquals(new Date(1500000000123L), ExpandTransactionSerializer.deserializeDate("1500000000123".getBytes()));
+    }
+
+    /**
+     * 默认以升级前的格式写入时间,保证旧版本节点与管理后台可以读取
+     */
+    @Test
+    public void writesLegacyDateFormatByDefault() throws Exception {
+        Date date = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse("2017-07-14 10:40:00");
+        byte[] value = ExpandTransactionSerializer.serializeDate(date);
+
+        Assert.assertEquals("2017-07-14 10:40:00", new String(value));
+        Assert.assertEquals(date, ExpandTransactionSerializer.deserializeDate(value));
+    }
+
+    /**
+     * 开启以毫秒数保存后写入毫秒数,仍可读取
+     */
+    @Test
+    public void writesEpochMillisWhenEnabled() {
+        Date date = new Date(1500000000123L);
+        byte[] value = ExpandTransactionSerializer.serializeDate(date, true);
+
+        Assert.assertArrayEquals(ByteUtils.longToBytes(date.getTime()), value);
+        Assert.assertEquals(date, ExpandTransactionSerializer.deserializeDate(value));
+    }
+}
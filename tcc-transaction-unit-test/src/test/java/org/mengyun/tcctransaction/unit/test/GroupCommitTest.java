@@ -0,0 +1,197 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.CachableTransactionRepository;
+import org.mengyun.tcctransaction.repository.TransactionIOException;
+
+import javax.transaction.xa.Xid;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 组提交合并批量写入、批量失败逐个写入与关闭测试
+ */
+public class GroupCommitTest {
+
+    private MemoryTransactionRepository repository = new MemoryTransactionRepository();
+
+    @After
+    public void tearDown() {
+        repository.close();
+    }
+
+    /**
+     * 并发提交的新增合并为批量写入,每个调用方获得各自的结果
+     */
+    @Test
+    public void batchesConcurrentWrites() throws Exception {
+        repository.setGroupCommitWindowMicros(50000);
+
+        final int writerCount = 8;
+        final List<Integer> results = new CopyOnWriteArrayList<Integer>();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(writerCount);
+
+        for (int i = 0; i < writerCount; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        results.add(repository.create(new Transaction(TransactionType.ROOT)));
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        start.countDown();
+        done.await();
+
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(Collections.nCopies(writerCount, 1), results);
+        Assert.assertEquals(writerCount, repository.transactions.size());
+        Assert.assertTrue(repository.batchSizes.size() < writerCount);
+    }
+
+    /**
+     * 批量写入失败时逐个写入,失败的写请求只影响其调用方
+     */
+    @Test
+    public void fallsBackToOneByOneWhenBatchFails() throws Exception {
+        repository.setGroupCommitWindowMicros(50000);
+        repository.failBatch = true;
+
+        final Transaction failing = new Transaction(TransactionType.ROOT);
+        repository.failing = failing.getXid();
+
+        final Transaction succeeding = new Transaction(TransactionType.ROOT);
+        final AtomicReference<Throwable> failingResult = new AtomicReference<Throwable>();
+        final AtomicReference<Integer> succeedingResult = new AtomicReference<Integer>();
+        final CountDownLatch done = new CountDownLatch(2);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    repository.create(failing);
+                } catch (Throwable e) {
+                    failingResult.set(e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        }).start();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    succeedingResult.set(repository.create(succeeding));
+                } finally {
+                    done.countDown();
+                }
+            }
+        }).start();
+
+        done.await();
+
+        Assert.assertEquals(Collections.singletonList(2), repository.batchSizes);
+        Assert.assertTrue(failingResult.get() instanceof TransactionIOException);
+        Assert.assertEquals(Integer.valueOf(1), succeedingResult.get());
+        Assert.assertTrue(repository.transactions.containsKey(succeeding.getXid()));
+        Assert.assertFalse(repository.transactions.containsKey(failing.getXid()));
+    }
+
+    /**
+     * 关闭前已提交的写请求完成刷写,关闭后提交的写请求以异常结束
+     */
+    @Test
+    public void rejectsWritesAfterClose() {
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        Assert.assertEquals(1, repository.create(transaction));
+
+        repository.close();
+
+        try {
+            repository.create(new Transaction(TransactionType.ROOT));
+            Assert.fail("write after close should fail");
+        } catch (TransactionIOException e) {
+            Assert.assertEquals(1, repository.transactions.size());
+        }
+    }
+
+    /**
+     * 内存事务存储器,支持批量写入并记录每次批量写入的事务数量
+     */
+    private static class MemoryTransactionRepository extends CachableTransactionRepository {
+
+        private final Map<Xid, Transaction> transactions = new ConcurrentHashMap<Xid, Transaction>();
+
+        private final List<Integer> batchSizes = new CopyOnWriteArrayList<Integer>();
+
+        private volatile boolean failBatch;
+
+        private volatile Xid failing;
+
+        MemoryTransactionRepository() {
+            setGroupCommitEnabled(true);
+        }
+
+        @Override
+        protected boolean isBatchWriteSupported() {
+            return true;
+        }
+
+        @Override
+        protected int[] doCreateAll(List<Transaction> transactions) {
+            batchSizes.add(transactions.size());
+            if (failBatch) {
+                throw new TransactionIOException("batch write failed");
+            }
+            return super.doCreateAll(transactions);
+        }
+
+        @Override
+        protected int doCreate(Transaction transaction) {
+            if (transaction.getXid().equals(failing)) {
+                throw new TransactionIOException("write failed");
+            }
+            return transactions.put(transaction.getXid(), transaction) == null ? 1 : 0;
+        }
+
+        @Override
+        protected int doUpdate(Transaction transaction) {
+            return transactions.containsKey(transaction.getXid()) ? 1 : 0;
+        }
+
+        @Override
+        protected int doDelete(Transaction transaction) {
+            return transactions.remove(transaction.getXid()) == null ? 0 : 1;
+        }
+
+        @Override
+        protected Transaction doFindOne(Xid xid) {
+            return transactions.get(xid);
+        }
+
+        @Override
+        protected List<Transaction> doFindAllUnmodifiedSince(Date date) {
+            return new ArrayList<Transaction>(transactions.values());
+        }
+    }
+}
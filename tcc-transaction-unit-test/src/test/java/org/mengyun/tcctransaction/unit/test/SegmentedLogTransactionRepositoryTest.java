@@ -0,0 +1,472 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.TransactionHeader;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.repository.SegmentedLogTransactionRepository;
+import org.mengyun.tcctransaction.repository.TransactionIOException;
+
+import javax.transaction.xa.Xid;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 分段追加日志事务存储器回放、尾部截断、损坏检测与压缩测试
+ */
+public class SegmentedLogTransactionRepositoryTest {
+
+    private File rootPath;
+
+    private List<TestRepository> repositories = new ArrayList<TestRepository>();
+
+    @Before
+    public void setUp() throws IOException {
+        rootPath = File.createTempFile("tcc-segment-log", "");
+        Assert.assertTrue(rootPath.delete());
+        Assert.assertTrue(rootPath.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        for (TestRepository repository : repositories) {
+            repository.close();
+        }
+        for (File file : rootPath.listFiles()) {
+            file.delete();
+        }
+        rootPath.delete();
+    }
+
+    /**
+     * 新增、更新、删除后重新打开存储器,回放得到每个事务的最新记录
+     */
+    @Test
+    public void replaysLatestRecordsAfterReopen() {
+        TestRepository repository = open(64 * 1024);
+
+        Transaction created = new Transaction(TransactionType.ROOT);
+        Transaction updated = new Transaction(TransactionType.ROOT);
+        Transaction deleted = new Transaction(TransactionType.ROOT);
+        Assert.assertEquals(1, repository.create(created));
+        Assert.assertEquals(1, repository.create(updated));
+        Assert.assertEquals(1, repository.create(deleted));
+        Assert.assertEquals(0, repository.create(created));
+
+        repository.update(updated);
+        repository.update(updated);
+        Assert.assertEquals(1, repository.delete(deleted));
+        repository.close();
+
+        TestRepository reopened = open(64 * 1024);
+        Assert.assertEquals(created.getVersion(), reopened.findFromStore(created.getXid()).getVersion());
+        Assert.assertEquals(updated.getVersion(), reopened.findFromStore(updated.getXid()).getVersion());
+        Assert.assertEquals(updated.getLastUpdateTime(), reopened.findFromStore(updated.getXid()).getLastUpdateTime());
+        Assert.assertNull(reopened.findFromStore(deleted.getXid()));
+    }
+
+    /**
+     * 活动分段尾部未完整写入的记录在重新打开时被截断,之前的记录不受影响,之后仍可继续追加
+     */
+    @Test
+    public void truncatesTornTailWrite() throws IOException {
+        TestRepository repository = open(64 * 1024);
+
+        Transaction first = new Transaction(TransactionType.ROOT);
+        Transaction second = new Transaction(TransactionType.ROOT);
+        repository.create(first);
+        repository.create(second);
+        repository.close();
+
+        File tail = lastSegmentFile();
+        long validSize = tail.length();
+
+        //模拟写入记录头部后进程崩溃:记录体长度大于实际写入的字节数
+        RandomAccessFile raf = new RandomAccessFile(tail, "rw");
+        try {
+            raf.seek(validSize);
+            raf.writeInt(1024);
+            raf.writeInt(0);
+            raf.write(new byte[]{1, 0, 0, 0});
+        } finally {
+            raf.close();
+        }
+
+        TestRepository reopened = open(64 * 1024);
+        Assert.assertNotNull(reopened.findFromStore(first.getXid()));
+        Assert.assertNotNull(reopened.findFromStore(second.getXid()));
+        Assert.assertEquals(validSize, tail.length());
+
+        Transaction third = new Transaction(TransactionType.ROOT);
+        reopened.create(third);
+        reopened.close();
+
+        TestRepository reopenedAgain = open(64 * 1024);
+        Assert.assertNotNull(reopenedAgain.findFromStore(first.getXid()));
+        Assert.assertNotNull(reopenedAgain.findFromStore(third.getXid()));
+    }
+
+    /**
+     * 已滚动的分段损坏时启动失败,且不截断该分段
+     */
+    @Test
+    public void failsOnCorruptedSealedSegment() throws IOException {
+        TestRepository repository = open(1024);
+
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        repository.create(transaction);
+        for (int i = 0; i < 10; i++) {
+            repository.create(new Transaction(TransactionType.ROOT));
+        }
+        repository.close();
+
+        File[] files = segmentFiles();
+        Assert.assertTrue(files.length > 1);
+        File sealed = files[0];
+        long size = sealed.length();
+
+        RandomAccessFile raf = new RandomAccessFile(sealed, "rw");
+        try {
+            raf.writeInt(Integer.MAX_VALUE);
+        } finally {
+            raf.close();
+        }
+
+        try {
+            open(1024).findFromStore(transaction.getXid());
+            Assert.fail("corrupted sealed segment should fail startup");
+        } catch (TransactionIOException e) {
+            Assert.assertEquals(size, sealed.length());
+        }
+    }
+
+    /**
+     * 分段大小超过内存映射上限时拒绝配置
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSegmentSizeLargerThanMappableLimit() {
+        new SegmentedLogTransactionRepository().setSegmentSize(Integer.MAX_VALUE + 1L);
+    }
+
+    /**
+     * 写线程持续更新、删除事务的同时反复压缩,压缩后及重新打开后事务均为最新状态
+     */
+    @Test
+    public void compactsWhileWritersRun() throws Exception {
+        final TestRepository repository = open(4 * 1024);
+
+        int writerCount = 4;
+        final int transactionsPerWriter = 20;
+        final int updateRounds = 10;
+
+        final List<Transaction> transactions = new ArrayList<Transaction>();
+        for (int i = 0; i < writerCount * transactionsPerWriter; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            repository.create(transaction);
+            transactions.add(transaction);
+        }
+
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch done = new CountDownLatch(writerCount);
+        for (int w = 0; w < writerCount; w++) {
+            final int writer = w;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int round = 0; round < updateRounds; round++) {
+                            for (int i = 0; i < transactionsPerWriter; i++) {
+                                repository.update(transactions.get(writer * transactionsPerWriter + i));
+                            }
+                        }
+                        //每个写线程删除一半的事务
+                        for (int i = 0; i < transactionsPerWriter; i += 2) {
+                            repository.delete(transactions.get(writer * transactionsPerWriter + i));
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        while (done.getCount() > 0) {
+            repository.compactNow();
+        }
+        repository.compactNow();
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        assertLatest(repository, transactions, transactionsPerWriter);
+        repository.close();
+
+        assertLatest(open(4 * 1024), transactions, transactionsPerWriter);
+    }
+
+    /**
+     * 压缩后重新打开存储器,被压缩分段中的删除记录已丢弃,存活记录仍可读取
+     */
+    @Test
+    public void reopensAfterCompaction() {
+        TestRepository repository = open(1024);
+
+        List<Transaction> transactions = new ArrayList<Transaction>();
+        for (int i = 0; i < 20; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            repository.create(transaction);
+            transactions.add(transaction);
+        }
+        for (int i = 0; i < transactions.size(); i += 2) {
+            repository.delete(transactions.get(i));
+        }
+
+        long sizeBeforeCompaction = totalSegmentSize();
+        repository.compactNow();
+        Assert.assertTrue(totalSegmentSize() < sizeBeforeCompaction);
+        repository.close();
+
+        TestRepository reopened = open(1024);
+        for (int i = 0; i < transactions.size(); i++) {
+            Transaction found = reopened.findFromStore(transactions.get(i).getXid());
+            if (i % 2 == 0) {
+                Assert.assertNull(found);
+            } else {
+                Assert.assertEquals(transactions.get(i).getXid(), found.getXid());
+            }
+        }
+
+        Transaction transaction = transactions.get(1);
+        reopened.update(transaction);
+        reopened.close();
+
+        Assert.assertEquals(transaction.getVersion(), open(1024).findFromStore(transaction.getXid()).getVersion());
+    }
+
+    /**
+     * 最老的分段中的长期事务始终存活时,之后的稀疏分段仍与其合并压缩;
+     * 合并后更老的分段文件未来得及删除即重启,回放时丢弃该分段,已删除的事务不会重新出现
+     */
+    @Test
+    public void compactsBehindLongLivedSegment() throws IOException {
+        TestRepository repository = open(1024);
+
+        //长期事务写满最老的分段
+        List<Transaction> longLived = new ArrayList<Transaction>();
+        File oldest = null;
+        while (oldest == null || segmentFiles().length == 1) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            repository.create(transaction);
+            longLived.add(transaction);
+            oldest = segmentFiles()[0];
+        }
+        byte[] oldestContent = readFile(oldest);
+
+        List<Transaction> shortLived = new ArrayList<Transaction>();
+        for (int i = 0; i < 30; i++) {
+            Transaction transaction = new Transaction(TransactionType.ROOT);
+            repository.create(transaction);
+            shortLived.add(transaction);
+        }
+        for (Transaction transaction : shortLived) {
+            repository.delete(transaction);
+        }
+
+        int segmentCount = segmentFiles().length;
+        long sizeBeforeCompaction = totalSegmentSize();
+        repository.compactNow();
+        Assert.assertTrue(segmentFiles().length < segmentCount);
+        Assert.assertTrue(totalSegmentSize() < sizeBeforeCompaction);
+        Assert.assertFalse(oldest.exists());
+        repository.close();
+
+        writeFile(oldest, oldestContent);
+
+        TestRepository reopened = open(1024);
+        for (Transaction transaction : longLived) {
+            Assert.assertEquals(transaction.getXid(), reopened.findFromStore(transaction.getXid()).getXid());
+        }
+        for (Transaction transaction : shortLived) {
+            Assert.assertNull(reopened.findFromStore(transaction.getXid()));
+        }
+        Assert.assertFalse(oldest.exists());
+    }
+
+    /**
+     * 写线程与读线程被中断时关闭了分段共享的文件通道,被中断的调用失败,之后其他调用重新打开分段后正常读写
+     */
+    @Test
+    public void reopensSegmentAfterInterruptedWriter() throws Exception {
+        final TestRepository repository = open(64 * 1024);
+
+        final Transaction existing = new Transaction(TransactionType.ROOT);
+        repository.create(existing);
+
+        final Transaction interruptedWrite = new Transaction(TransactionType.ROOT);
+        final AtomicReference<Throwable> writeFailure = new AtomicReference<Throwable>();
+        final AtomicReference<Throwable> readFailure = new AtomicReference<Throwable>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Thread.currentThread().interrupt();
+                try {
+                    repository.create(interruptedWrite);
+                } catch (Throwable e) {
+                    writeFailure.set(e);
+                }
+
+                try {
+                    repository.findFromStore(existing.getXid());
+                } catch (Throwable e) {
+                    readFailure.set(e);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+
+        Assert.assertTrue(writeFailure.get() instanceof TransactionIOException);
+        Assert.assertTrue(readFailure.get() instanceof TransactionIOException);
+        Assert.assertNull(repository.findFromStore(interruptedWrite.getXid()));
+
+        Transaction created = new Transaction(TransactionType.ROOT);
+        Assert.assertEquals(1, repository.create(created));
+        repository.update(existing);
+        Assert.assertEquals(existing.getVersion(), repository.findFromStore(existing.getXid()).getVersion());
+        repository.close();
+
+        TestRepository reopened = open(64 * 1024);
+        Assert.assertEquals(existing.getVersion(), reopened.findFromStore(existing.getXid()).getVersion());
+        Assert.assertNotNull(reopened.findFromStore(created.getXid()));
+        Assert.assertNull(reopened.findFromStore(interruptedWrite.getXid()));
+    }
+
+    /**
+     * 重新打开后由回放重建的索引构造事务头部信息,状态、类型、重试次数与版本号为最新记录的值,首次获取完整事务时才读取记录
+     */
+    @Test
+    public void scansHeadersFromIndex() {
+        TestRepository repository = open(64 * 1024);
+
+        Transaction transaction = new Transaction(TransactionType.BRANCH);
+        repository.create(transaction);
+        transaction.changeStatus(TransactionStatus.CONFIRMING);
+        transaction.addRetriedCount();
+        repository.update(transaction);
+        repository.close();
+
+        TestRepository reopened = open(64 * 1024);
+        Iterator<TransactionHeader> headers = reopened.scanHeadersUnmodifiedSince(new Date(System.currentTimeMillis() + 1000));
+        Assert.assertTrue(headers.hasNext());
+
+        TransactionHeader header = headers.next();
+        Assert.assertFalse(headers.hasNext());
+        Assert.assertEquals(transaction.getXid(), header.getXid());
+        Assert.assertEquals(TransactionStatus.CONFIRMING, header.getStatus());
+        Assert.assertEquals(TransactionType.BRANCH, header.getTransactionType());
+        Assert.assertEquals(1, header.getRetriedCount());
+        Assert.assertEquals(transaction.getVersion(), header.getVersion());
+        Assert.assertEquals(transaction.getCreateTime(), header.getCreateTime());
+        Assert.assertFalse(header.isLoaded());
+
+        Assert.assertEquals(transaction.getXid(), header.getTransaction().getXid());
+        Assert.assertFalse(reopened.scanHeadersUnmodifiedSince(new Date(0)).hasNext());
+    }
+
+    private void assertLatest(TestRepository repository, List<Transaction> transactions, int transactionsPerWriter) {
+        for (int i = 0; i < transactions.size(); i++) {
+            Transaction transaction = transactions.get(i);
+            Transaction found = repository.findFromStore(transaction.getXid());
+            if (i % transactionsPerWriter % 2 == 0) {
+                Assert.assertNull(found);
+            } else {
+                Assert.assertEquals(transaction.getVersion(), found.getVersion());
+            }
+        }
+    }
+
+    private byte[] readFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] content = new byte[(int) raf.length()];
+            raf.readFully(content);
+            return content;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void writeFile(File file, byte[] content) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.write(content);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private TestRepository open(long segmentSize) {
+        TestRepository repository = new TestRepository();
+        repository.setRootPath(rootPath.getPath());
+        repository.setSegmentSize(segmentSize);
+        repository.setCompactionLiveRatio(0.9);
+        repository.setCompactionIntervalSeconds(3600);
+        repositories.add(repository);
+        return repository;
+    }
+
+    private File[] segmentFiles() {
+        File[] files = rootPath.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".log");
+            }
+        });
+        Arrays.sort(files);
+        return files;
+    }
+
+    private long totalSegmentSize() {
+        long size = 0;
+        for (File file : segmentFiles()) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    private File lastSegmentFile() {
+        File[] files = segmentFiles();
+        return files[files.length - 1];
+    }
+
+    /**
+     * 暴露压缩与绕过缓存的查询方法
+     */
+    private static class TestRepository extends SegmentedLogTransactionRepository {
+
+        void compactNow() {
+            compact();
+        }
+
+        Transaction findFromStore(Xid xid) {
+            return doFindOne(new TransactionXid(xid.getGlobalTransactionId(), xid.getBranchQualifier()));
+        }
+    }
+}
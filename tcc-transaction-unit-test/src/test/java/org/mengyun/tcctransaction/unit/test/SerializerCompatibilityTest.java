@@ -0,0 +1,215 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+import io.protostuff.Schema;
+import io.protostuff.runtime.RuntimeSchema;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.InvocationContext;
+import org.mengyun.tcctransaction.Participant;
+import org.mengyun.tcctransaction.Transaction;
+import org.mengyun.tcctransaction.api.Compensable;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.common.ParticipantStatus;
+import org.mengyun.tcctransaction.common.TransactionType;
+import org.mengyun.tcctransaction.serializer.JdkSerializationSerializer;
+import org.mengyun.tcctransaction.serializer.KryoPoolSerializer;
+import org.mengyun.tcctransaction.serializer.ObjectSerializer;
+import org.mengyun.tcctransaction.serializer.ProtostuffSerializer;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Protostuff序列化与Kryo、JDK序列化兼容性测试
+ */
+public class SerializerCompatibilityTest {
+
+    /**
+     * 同一事务经Protostuff、Kryo、JDK序列化再反序列化后内容一致
+     */
+    @Test
+    public void roundTripMatchesKryoAndJdk() {
+        Transaction transaction = newTransaction();
+
+        Transaction fromProtostuff = roundTrip(new ProtostuffSerializer<Transaction>(), transaction);
+        Transaction fromKryo = roundTrip(new KryoPoolSerializer<Transaction>(1), transaction);
+        Transaction fromJdk = roundTrip(new JdkSerializationSerializer<Transaction>(), transaction);
+
+        assertTransactionEquals(transaction, fromProtostuff);
+        assertTransactionEquals(fromKryo, fromProtostuff);
+        assertTransactionEquals(fromJdk, fromProtostuff);
+    }
+
+    /**
+     * 附带属性反序列化后仍为并发Map
+     */
+    @Test
+    public void attachmentsStayConcurrent() {
+        Transaction transaction = roundTrip(new ProtostuffSerializer<Transaction>(), newTransaction());
+
+        Assert.assertTrue(transaction.getAttachments() instanceof ConcurrentHashMap);
+    }
+
+    /**
+     * 替换序列化器后仍可读取Kryo、JDK序列化的旧数据
+     */
+    @Test
+    public void readsLegacyFormats() {
+        Transaction transaction = newTransaction();
+
+        ProtostuffSerializer<Transaction> jdkCompatible = new ProtostuffSerializer<Transaction>();
+        assertTransactionEquals(transaction, jdkCompatible.deserialize(new JdkSerializationSerializer<Transaction>().serialize(transaction)));
+
+        KryoPoolSerializer<Transaction> kryoSerializer = new KryoPoolSerializer<Transaction>(1);
+        ProtostuffSerializer<Transaction> kryoCompatible = new ProtostuffSerializer<Transaction>();
+        kryoCompatible.setCompatibleSerializer(kryoSerializer);
+        assertTransactionEquals(transaction, kryoCompatible.deserialize(kryoSerializer.serialize(transaction)));
+
+        Assert.assertTrue(ProtostuffSerializer.isProtostuffFormat(new ProtostuffSerializer<Transaction>().serialize(transaction)));
+        Assert.assertFalse(ProtostuffSerializer.isProtostuffFormat(kryoSerializer.serialize(transaction)));
+    }
+
+    /**
+     * 增加参与者状态前以FieldSerializer写入的Kryo数据仍可读取,参与者状态为TRYING
+     */
+    @Test
+    public void readsKryoParticipantWrittenWithoutStatus() {
+        Participant participant = newTransaction().getParticipants().get(0);
+
+        Kryo legacyKryo = new Kryo();
+        legacyKryo.setReferences(true);
+        legacyKryo.setRegistrationRequired(false);
+        FieldSerializer<Participant> legacySerializer = new FieldSerializer<Participant>(legacyKryo, Participant.class);
+        legacySerializer.removeField("status");
+        legacyKryo.addDefaultSerializer(Participant.class, legacySerializer);
+
+        Output output = new Output(1024, -1);
+        legacyKryo.writeClassAndObject(output, participant);
+
+        KryoPoolSerializer<Participant> kryoSerializer = new KryoPoolSerializer<Participant>(1);
+        Participant legacy = kryoSerializer.deserialize(output.toBytes());
+
+        Assert.assertEquals(ParticipantStatus.TRYING, legacy.getStatus());
+        Assert.assertEquals(participant.getXid(), legacy.getXid());
+        Assert.assertEquals(participant.getTransactionContextEditorClass(), legacy.getTransactionContextEditorClass());
+        assertInvocationContextEquals(participant.getConfirmInvocationContext(), legacy.getConfirmInvocationContext());
+        assertInvocationContextEquals(participant.getCancelInvocationContext(), legacy.getCancelInvocationContext());
+
+        Participant current = kryoSerializer.deserialize(kryoSerializer.serialize(participant));
+        Assert.assertEquals(ParticipantStatus.CONFIRMED, current.getStatus());
+        Assert.assertEquals(participant.getXid(), current.getXid());
+    }
+
+    /**
+     * 非事务对象交给兼容序列化器
+     */
+    @Test
+    public void delegatesNonTransactionObjects() {
+        ProtostuffSerializer<Object> serializer = new ProtostuffSerializer<Object>();
+
+        Map<String, Object> value = new HashMap<String, Object>();
+        value.put("amount", new BigDecimal("10.25"));
+
+        byte[] bytes = serializer.serialize(value);
+
+        Assert.assertFalse(ProtostuffSerializer.isProtostuffFormat(bytes));
+        Assert.assertEquals(value, serializer.deserialize(bytes));
+    }
+
+    /**
+     * Protostuff序列化结果小于JDK序列化结果
+     */
+    @Test
+    public void smallerThanJdk() {
+        Transaction transaction = newTransaction();
+
+        int protostuffSize = new ProtostuffSerializer<Transaction>().serialize(transaction).length;
+        int jdkSize = new JdkSerializationSerializer<Transaction>().serialize(transaction).length;
+
+        Assert.assertTrue(protostuffSize < jdkSize);
+    }
+
+    /**
+     * Protostuff按字段声明顺序分配字段编号,固定当前字段顺序,调整或删除字段会导致已保存的数据无法正确读取
+     */
+    @Test
+    public void pinsProtostuffFieldNumbers() {
+        assertFieldNumbers(Transaction.class, "xid", "status", "transactionType", "retriedCount", "createTime", "lastUpdateTime", "version", "participants", "attachments");
+        assertFieldNumbers(Participant.class, "xid", "confirmInvocationContext", "cancelInvocationContext", "status", "terminator", "transactionContextEditorClass");
+        assertFieldNumbers(InvocationContext.class, "targetClass", "methodName", "parameterTypes", "args");
+        assertFieldNumbers(TransactionXid.class, "formatId", "globalTransactionId", "branchQualifier");
+    }
+
+    private void assertFieldNumbers(Class<?> type, String... fieldNames) {
+        Schema<?> schema = RuntimeSchema.getSchema(type);
+        for (int i = 0; i < fieldNames.length; i++) {
+            Assert.assertEquals(type.getSimpleName() + " field " + (i + 1), fieldNames[i], schema.getFieldName(i + 1));
+        }
+        Assert.assertNull(type.getSimpleName() + " has new fields", schema.getFieldName(fieldNames.length + 1));
+    }
+
+    private Transaction newTransaction() {
+        Transaction transaction = new Transaction(TransactionType.ROOT);
+        transaction.changeStatus(TransactionStatus.CONFIRMING);
+        transaction.addRetriedCount();
+        transaction.setVersion(3);
+        transaction.setLastUpdateTime(new Date(transaction.getCreateTime().getTime() + 1000));
+
+        InvocationContext confirmInvocationContext = new InvocationContext(SerializerCompatibilityTest.class, "confirm",
+                new Class[]{long.class, String.class, BigDecimal.class}, 1L, "from", new BigDecimal("100.50"));
+        InvocationContext cancelInvocationContext = new InvocationContext(SerializerCompatibilityTest.class, "cancel",
+                new Class[]{long.class, String.class, BigDecimal.class}, 1L, "from", null);
+
+        Participant participant = new Participant(new TransactionXid(((TransactionXid) transaction.getXid()).getGlobalTransactionId()),
+                confirmInvocationContext, cancelInvocationContext, Compensable.DefaultTransactionContextEditor.class);
+        participant.setStatus(ParticipantStatus.CONFIRMED);
+        transaction.enlistParticipant(participant);
+
+        transaction.getAttachments().put("string", "value");
+        transaction.getAttachments().put("number", 42);
+        transaction.getAttachments().put("date", new Date(1500000000000L));
+        return transaction;
+    }
+
+    private Transaction roundTrip(ObjectSerializer<Transaction> serializer, Transaction transaction) {
+        return serializer.deserialize(serializer.serialize(transaction));
+    }
+
+    private void assertTransactionEquals(Transaction expected, Transaction actual) {
+        Assert.assertEquals(expected.getXid(), actual.getXid());
+        Assert.assertEquals(expected.getStatus(), actual.getStatus());
+        Assert.assertEquals(expected.getTransactionType(), actual.getTransactionType());
+        Assert.assertEquals(expected.getRetriedCount(), actual.getRetriedCount());
+        Assert.assertEquals(expected.getVersion(), actual.getVersion());
+        Assert.assertEquals(expected.getCreateTime(), actual.getCreateTime());
+        Assert.assertEquals(expected.getLastUpdateTime(), actual.getLastUpdateTime());
+        Assert.assertEquals(expected.getAttachments(), actual.getAttachments());
+
+        Assert.assertEquals(expected.getParticipants().size(), actual.getParticipants().size());
+        for (int i = 0; i < expected.getParticipants().size(); i++) {
+            Participant expectedParticipant = expected.getParticipants().get(i);
+            Participant actualParticipant = actual.getParticipants().get(i);
+
+            Assert.assertEquals(expectedParticipant.getXid(), actualParticipant.getXid());
+            Assert.assertEquals(expectedParticipant.getStatus(), actualParticipant.getStatus());
+            Assert.assertEquals(expectedParticipant.getTransactionContextEditorClass(), actualParticipant.getTransactionContextEditorClass());
+            assertInvocationContextEquals(expectedParticipant.getConfirmInvocationContext(), actualParticipant.getConfirmInvocationContext());
+            assertInvocationContextEquals(expectedParticipant.getCancelInvocationContext(), actualParticipant.getCancelInvocationContext());
+        }
+    }
+
+    private void assertInvocationContextEquals(InvocationContext expected, InvocationContext actual) {
+        Assert.assertEquals(expected.getTargetClass(), actual.getTargetClass());
+        Assert.assertEquals(expected.getMethodName(), actual.getMethodName());
+        Assert.assertArrayEquals(expected.getParameterTypes(), actual.getParameterTypes());
+        Assert.assertTrue(Arrays.deepEquals(expected.getArgs(), actual.getArgs()));
+    }
+}
@@ -0,0 +1,131 @@
+package org.mengyun.tcctransaction.unit.test;
+
+import com.alibaba.dubbo.rpc.RpcContext;
+import com.alibaba.fastjson.JSON;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mengyun.tcctransaction.api.TransactionContext;
+import org.mengyun.tcctransaction.api.TransactionStatus;
+import org.mengyun.tcctransaction.api.TransactionXid;
+import org.mengyun.tcctransaction.dubbo.constants.TransactionContextConstants;
+import org.mengyun.tcctransaction.dubbo.context.DubboTransactionContextEditor;
+import org.mengyun.tcctransaction.dubbo.context.TransactionContextCodec;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dubbo事务上下文紧凑编码往返与兼容性测试
+ */
+public class TransactionContextCodecTest {
+
+    private DubboTransactionContextEditor editor = new DubboTransactionContextEditor();
+
+    @After
+    public void tearDown() {
+        RpcContext.removeContext();
+    }
+
+    /**
+     * 编码后解码,事务编号、状态以及附带属性保持不变,编码结果不会被识别为JSON格式
+     */
+    @Test
+    public void roundTripsTransactionContext() {
+        TransactionContext transactionContext = newTransactionContext();
+
+        String encoded = TransactionContextCodec.encode(transactionContext);
+        Assert.assertFalse(TransactionContextCodec.isJson(encoded));
+
+        assertTransactionContextEquals(transactionContext, TransactionContextCodec.decode(encoded));
+    }
+
+    /**
+     * 没有附带属性的事务上下文编码后解码
+     */
+    @Test
+    public void roundTripsWithoutAttachments() {
+        TransactionContext transactionContext = new TransactionContext(new TransactionXid(), TransactionStatus.TRYING.getId());
+
+        TransactionContext decoded = TransactionContextCodec.decode(TransactionContextCodec.encode(transactionContext));
+
+        Assert.assertEquals(transactionContext.getXid(), decoded.getXid());
+        Assert.assertEquals(transactionContext.getStatus(), decoded.getStatus());
+        Assert.assertTrue(decoded.getAttachments().isEmpty());
+    }
+
+    /**
+     * 编辑器默认以JSON格式发送事务上下文,可由编辑器读取
+     */
+    @Test
+    public void sendsJsonByDefault() {
+        TransactionContext transactionContext = newTransactionContext();
+
+        editor.set(transactionContext, null, null, null);
+
+        Assert.assertTrue(TransactionContextCodec.isJson(RpcContext.getContext().getAttachment(TransactionContextConstants.TRANSACTION_CONTEXT)));
+        assertTransactionContextEquals(transactionContext, editor.get(null, null, null));
+    }
+
+    /**
+     * 开启紧凑编码后编辑器以紧凑编码发送事务上下文,可由默认配置的编辑器读取
+     */
+    @Test
+    public void roundTripsCompactFormatThroughEditor() {
+        TransactionContext transactionContext = newTransactionContext();
+
+        DubboTransactionContextEditor compactEditor = new DubboTransactionContextEditor();
+        compactEditor.setCompactFormatEnabled(true);
+        compactEditor.set(transactionContext, null, null, null);
+
+        Assert.assertFalse(TransactionContextCodec.isJson(RpcContext.getContext().getAttachment(TransactionContextConstants.TRANSACTION_CONTEXT)));
+        assertTransactionContextEquals(transactionContext, editor.get(null, null, null));
+    }
+
+    /**
+     * 调用方未发送事务上下文隐式参数时读取结果为空
+     */
+    @Test
+    public void readsNothingWhenPeerSendsNoContext() {
+        Assert.assertNull(RpcContext.getContext().getAttachment(TransactionContextConstants.TRANSACTION_CONTEXT));
+
+        Assert.assertNull(editor.get(null, null, null));
+    }
+
+    /**
+     * 仍可读取旧版本调用方发送的JSON格式事务上下文
+     */
+    @Test
+    public void readsJsonContextFromLegacyPeer() {
+        TransactionContext transactionContext = newTransactionContext();
+        RpcContext.getContext().setAttachment(TransactionContextConstants.TRANSACTION_CONTEXT, JSON.toJSONString(transactionContext));
+
+        assertTransactionContextEquals(transactionContext, editor.get(null, null, null));
+    }
+
+    /**
+     * 损坏的编码以IllegalArgumentException结束
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedContext() {
+        String encoded = TransactionContextCodec.encode(newTransactionContext());
+
+        TransactionContextCodec.decode(encoded.substring(0, encoded.length() / 2));
+    }
+
+    private TransactionContext newTransactionContext() {
+        TransactionContext transactionContext = new TransactionContext(new TransactionXid(), TransactionStatus.CONFIRMING.getId());
+
+        Map<String, String> attachments = new HashMap<String, String>();
+        attachments.put("orderNo", "20170714");
+        attachments.put("商户", "红包");
+        transactionContext.setAttachments(attachments);
+        return transactionContext;
+    }
+
+    private void assertTransactionContextEquals(TransactionContext expected, TransactionContext actual) {
+        Assert.assertEquals(expected.getXid(), actual.getXid());
+        Assert.assertEquals(expected.getStatus(), actual.getStatus());
+        Assert.assertEquals(expected.getAttachments(), actual.getAttachments());
+    }
+}